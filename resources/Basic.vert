@@ -0,0 +1,37 @@
+#version 430 core
+
+// position and color of vertex as input vertex attribute
+layout (location = 0) in vec3 vposition;
+layout (location = 1) in vec3 vInColor;
+// the normal (location 2) is not read, so the meshes of this program do not store it
+
+#ifdef INSTANCED
+// model matrix (locations 3 to 6) and color of the instance
+layout (location = 3) in mat4 instanceModelMatrix;
+layout (location = 7) in vec4 instanceColor;
+#endif
+
+#include "include/Matrices.glsl"
+
+// Color of the vertex as output of the vertex shader
+out vec4 vColor;
+
+void main(void) {
+#ifdef TRANSLATION
+    // translate the vertex by a constant offset, e.g. TRANSLATION=vec3(0, 0, 0)
+    vec3 vTranslatedPos = vposition + TRANSLATION;
+#else
+    vec3 vTranslatedPos = vposition;
+#endif
+#ifdef INSTANCED
+    // the instance is placed relative to the model matrix
+	gl_Position = pMatrix * vMatrix * mMatrix * instanceModelMatrix * vec4(vTranslatedPos, 1.0);
+	// the color of the instance modulates the vertex color
+	vColor = instanceColor * vec4(vInColor, 1.0);
+#else
+    // Calculation of the model-view-perspective transform
+	gl_Position = pMatrix * vMatrix * mMatrix * vec4(vTranslatedPos, 1.0);
+	// The color information is forwarded to the next stage of the pipline
+	vColor = vec4(vInColor, 1.0);
+#endif
+}
@@ -1,20 +0,0 @@
-#version 430 core
-
-// position and color of vertex as input vertex attribute
-layout (location = 0) in vec3 vposition;
-layout (location = 1) in vec3 vInColor;
-// Projection and model-view matrix as input uniform variables
-layout (location = 0) uniform mat4 pMatrix;
-layout (location = 1) uniform mat4 mvMatrix;
-
-// Color of the vertex as output of the vertex shader
-out vec4 vColor;
-
-void main(void) {
-    // calculate a translation
-    vec3 vTranslatedPos = vposition + vec3(0, 0 , 0);
-    // Calculation of the model-view-perspective transform
-	gl_Position = pMatrix * mvMatrix * vec4(vTranslatedPos, 1.0);
-	// The color information is forwarded to the next stage of the pipline
-	vColor = vec4(vInColor, 1.0);
-}
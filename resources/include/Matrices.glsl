@@ -0,0 +1,7 @@
+// Projection and view matrix, updated once per frame (uniform buffer binding point 0)
+layout (std140, binding = 0) uniform Camera {
+    mat4 pMatrix;
+    mat4 vMatrix;
+};
+// Model matrix of the object as input uniform variable
+layout (location = 1) uniform mat4 mMatrix;
@@ -246,23 +246,23 @@ public class Box {
     }
 
     /**
-     * Creates 28 indices for drawing a cuboid (box).
+     * Creates 29 indices for drawing a cuboid (box).
      * To be used together with makeBoxVertices()
      * To be used with "glDrawElements" and "GL_TRIANGLE_STRIP".
+     * The strips of the faces are separated by Mesh.PRIMITIVE_RESTART_INDEX.
      * @return indices into the vertex array of the cube (box)
      */
     public static int[] makeBoxIndicesForTriangleStrip() {
         // Indices to reference the number of the box vertices
         // defined in makeBoxVertices()
+        int restart = Mesh.PRIMITIVE_RESTART_INDEX;
         int[] indices = {
-                // Note: back faces are drawn,
-                // but drawing is faster than using "GL_TRIANGLES"
-                21, 23, 20, 22,         // down (bottom)
-                1, 3, 0, 2, 2, 3,       // front
-                12, 13, 14, 15,         // right
-                4, 5, 6, 7,             // back
-                8, 9, 10, 11, 10, 10,   // left
-                16, 17, 18, 19          // up (top)
+                21, 23, 20, 22, restart,    // down (bottom)
+                1, 3, 0, 2, restart,        // front
+                12, 13, 14, 15, restart,    // right
+                4, 5, 6, 7, restart,        // back
+                8, 9, 10, 11, restart,      // left
+                16, 17, 18, 19              // up (top)
         };
         return indices;
     }
@@ -273,6 +273,6 @@ public class Box {
      * @return number of indices
      */
     public static int noOfIndicesForBox() {
-        return 28;
+        return 29;
     }
 }
@@ -0,0 +1,50 @@
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3;
+
+/**
+ * Uniform block (std140 block "Camera" in include/Matrices.glsl) holding
+ * the projection and the view matrix for all shader programs.
+ * The matrices are written once per frame into the region of the frame in the
+ * PersistentRingBuffer and bound to binding point 0, so the draw calls only need
+ * to transfer the model matrix of their object.
+ */
+public class CameraUniformBuffer {
+
+    public static final int BINDING_POINT = 0;
+
+    // std140: two mat4, column major, projection matrix first
+    private static final int SIZE = 2 * 16 * 4;
+
+    private final float[] matrices = new float[32];
+
+    /**
+     * Sets the projection matrix. To be called when the projection changes.
+     * @param projectionMatrix	column major projection matrix
+     */
+    public void setProjectionMatrix(float[] projectionMatrix) {
+        System.arraycopy(projectionMatrix, 0, matrices, 0, 16);
+    }
+
+    /**
+     * Sets the view matrix. To be called once per frame before bind().
+     * @param viewMatrix	column major view matrix
+     */
+    public void setViewMatrix(float[] viewMatrix) {
+        System.arraycopy(viewMatrix, 0, matrices, 16, 16);
+    }
+
+    /**
+     * Writes the matrices into the dynamic data of the current frame
+     * and binds them to the binding point of the camera block.
+     * @param gl			OpenGL context
+     * @param dynamicData	ring buffer for the data of the current frame
+     */
+    public void bind(GL3 gl, PersistentRingBuffer dynamicData) {
+        int offset = dynamicData.allocateUniforms(SIZE);
+        if (offset < 0)
+            return;
+        dynamicData.putFloats(offset, matrices, 0, matrices.length);
+        GLStateCache.bindBufferRange(gl, GL2ES3.GL_UNIFORM_BUFFER, BINDING_POINT,
+                dynamicData.getBufferName(), offset, SIZE);
+    }
+}
@@ -180,21 +180,14 @@ public class Cone {
 
         // Indices to refer to the number of the cone (frustum) vertices
         // defined in makeVertices()
+        // The strips of top circle, surface and bottom circle are separated by the restart index
         int[] indices = new int[noOfIndices];
 
         // BEGIN: Indices for top circle
         int topCenterIndex = 0;
         int firstTopCircleEdgeIndex = 1;
-        int lastTopCircleEdgeIndex = horizontalResolution;
 
         int index = 0;
-        // first index, center of top circle
-        // draw twice to get the front face orientation right
-        indices[index] = topCenterIndex;
-        index++;
-        indices[index] = topCenterIndex;
-        index++;
-
         for (int hIndex = 1; hIndex <= horizontalResolution; hIndex++) {
             indices[index] = hIndex;
             index++;
@@ -204,21 +197,25 @@ public class Cone {
         // close the top circle with a final triangle
         indices[index] = firstTopCircleEdgeIndex;
         index++;
+        indices[index] = Mesh.PRIMITIVE_RESTART_INDEX;
+        index++;
         // END: Indices for top circle
 
         // BEGIN: Indices for surface
         int firstSurfaceTopIndex = horizontalResolution + 1;
         int firstSurfaceBottomIndex = (2 * horizontalResolution) + 1;
         for (int hIndex = 0; hIndex < horizontalResolution; hIndex++) {
-            indices[index] = firstSurfaceTopIndex + hIndex;
-            index++;
             indices[index] = firstSurfaceBottomIndex + hIndex;
             index++;
+            indices[index] = firstSurfaceTopIndex + hIndex;
+            index++;
         }
         // Close the surface
+        indices[index] = firstSurfaceBottomIndex;
+        index++;
         indices[index] = firstSurfaceTopIndex;
         index++;
-        indices[index] = firstSurfaceBottomIndex;
+        indices[index] = Mesh.PRIMITIVE_RESTART_INDEX;
         index++;
         // END: Indices for surface
 
@@ -226,20 +223,16 @@ public class Cone {
         int bottomCenterIndex = (4 * horizontalResolution) + 1;
         int firstBottomCircleEdgeIndex = (3 * horizontalResolution) + 1;
 
-        // picking up from surface
-        indices[index] = firstBottomCircleEdgeIndex;
-        index++;
-        // first index, center of top circle
-        indices[index] = bottomCenterIndex;
-        index++;
-
+        // starting with the center turns the faces to the outside
         for (int hIndex = 0; hIndex < horizontalResolution; hIndex++) {
-            indices[index] = firstBottomCircleEdgeIndex + hIndex;
-            index++;
             indices[index] = bottomCenterIndex;
             index++;
+            indices[index] = firstBottomCircleEdgeIndex + hIndex;
+            index++;
         }
-        // close the top circle with a final triangle
+        // close the bottom circle with a final triangle
+        indices[index] = bottomCenterIndex;
+        index++;
         indices[index] = firstBottomCircleEdgeIndex;
         return indices;
     }
@@ -250,17 +243,16 @@ public class Cone {
      */
     private int noOfIndicesForCone() {
         int noOfIndicesForCircle =
-                1 + // center of the circle
-                        // additional vertices for drawing with TRIANGLE_STRIP instead of TRIANGLE_FAN
+                        // vertices for drawing with TRIANGLE_STRIP instead of TRIANGLE_FAN
                         (2 * horizontalResolution) +
                         1; // closing the circle
 
-        return  1+ // reverse back/front faces
-                noOfIndicesForCircle + // top circle
+        return  noOfIndicesForCircle + // top circle
+                1 + // restart
                 (2 * horizontalResolution) +  // surface
                 2 + // close the surface
-                1 + // picking up the bottom circle
-                noOfIndicesForCircle;// bottom circle
+                1 + // restart
+                1 + noOfIndicesForCircle;// bottom circle (starting with the center)
     }
 
     public int getNoOfIndices() {
@@ -1,26 +1,21 @@
 import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2GL3;
 import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.util.PMVMatrix;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-
 public class ConeRenderer {
 
-    private int[] vaoCone;  // Names of vertex array objects
-    private int[] vboCone;	// Names of vertex buffer objects
-    private int[] iboCone;	// Names of index buffer objects
+    // Shared geometry from the mesh cache, one mesh per level of detail
+    private LodChain lodChain;
+    private int lodLevel = 0;  // level selected for the current frame
     PMVMatrix pmvCone;
 
-    private Cone cone0;
-
-    private final String shaderPath = ".\\resources\\";
-
-    private final String vertexShader2FileName = "O1_Basic.vert";
-    private final String fragmentShader2FileName = "O1_Basic.frag";
+    private final String vertexShader2FileName = "Basic.vert";
+    private final String fragmentShader2FileName = "Basic.frag";
 
     private ShaderProgram shaderProgram2;           //Hyp. Shader Fenster
+    private ShaderUniform modelMatrixUniform2;  // mMatrix of the shader program
 
     public PMVMatrix getPmvCone() {
         return pmvCone;
@@ -34,90 +29,90 @@ public class ConeRenderer {
         GL3 gl = drawable.getGL().getGL3();
 
         // BEGIN: Preparing scene
-        // BEGIN: Allocating vertex array objects and buffers for each object
-        int noOfObjects = 1;
-        // create vertex array objects for noOfObjects objects (VAO)
-        vaoCone = new int[noOfObjects];
-        gl.glGenVertexArrays(noOfObjects, vaoCone, 0);
-        if (vaoCone[0] < 1)
-            System.err.println("Error allocating vertex array object (VAO).");
-
-        // create vertex buffer objects for noOfObjects objects (VBO)
-        vboCone = new int[noOfObjects];
-        gl.glGenBuffers(noOfObjects, vboCone, 0);
-        if (vboCone[0] < 1)
-            System.err.println("Error allocating vertex buffer object (VBO).");
-
-        // create index buffer objects for noOfObjects objects (IBO)
-        iboCone = new int[noOfObjects];
-        gl.glGenBuffers(noOfObjects, iboCone, 0);
-        if (iboCone[0] < 1)
-            System.err.println("Error allocating index buffer object.");
-        // END: Allocating vertex array objects and buffers for each object
-
         initCone(gl);
 
         // Switch on back face culling
-        gl.glEnable(GL.GL_CULL_FACE);
-        gl.glCullFace(GL.GL_BACK);
+        GLStateCache.enable(gl, GL.GL_CULL_FACE);
+        GLStateCache.cullFace(gl, GL.GL_BACK);
 //        gl.glCullFace(GL.GL_FRONT);
         // Switch on depth test
-        gl.glEnable(GL.GL_DEPTH_TEST);
+        GLStateCache.enable(gl, GL.GL_DEPTH_TEST);
 
         // defining polygon drawing mode
 //        gl.glPolygonMode(GL.GL_FRONT_AND_BACK, gl.GL_FILL);
-        gl.glPolygonMode(GL.GL_FRONT_AND_BACK, gl.GL_LINE);
+        GLStateCache.polygonMode(gl, GL2GL3.GL_LINE);
     }
 
     public void initCone(GL3 gl){
 
         // BEGIN: Prepare cone (frustum) for drawing (object 2)
         // create cone (frustum) data for rendering a cone (frustum) using an index array into a vertex array
-        gl.glBindVertexArray(vaoCone[0]);
-        shaderProgram2 = new ShaderProgram(gl);
-        shaderProgram2.loadShaderAndCreateProgram(shaderPath,
+        // The program is shared by all renderers using the same shaders
+        shaderProgram2 = ShaderProgramRegistry.acquire(gl,
                 vertexShader2FileName, fragmentShader2FileName);
+        // The program may still be compiling, the uniform handle and the meshes are set up by finishInit()
+    }
 
+    /**
+     * Completes the initialization once the shader program is linked (see ShaderProgram.isReady()):
+     * resolves the uniform handle and creates the meshes in the vertex layout of the program.
+     * @param gl OpenGL context
+     */
+    public void finishInit(GL3 gl) {
+        modelMatrixUniform2 = shaderProgram2.getUniform("mMatrix");
         float[] color2 = {0.2f, 0.8f, 0.2f};
-        cone0 = new Cone(64);
-        float[] coneVertices = cone0.makeVertices(0.2f, 0.6f, 1f, color2);
-        int[] coneIndices = cone0.makeIndicesForTriangleStrip();
-
-        // activate and initialize vertex buffer object (VBO)
-        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vboCone[0]);
-        // floats use 4 bytes in Java
-        gl.glBufferData(GL.GL_ARRAY_BUFFER, coneVertices.length * 4,
-                FloatBuffer.wrap(coneVertices), GL.GL_STATIC_DRAW);
-
-        // activate and initialize index buffer object (IBO)
-        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, iboCone[0]);
-        // integers use 4 bytes in Java
-        gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, coneIndices.length * 4,
-                IntBuffer.wrap(coneIndices), GL.GL_STATIC_DRAW);
-
-        // Activate and arrange vertex buffer object data for the vertex shader
-        // Defining input for vertex shader
-        // Pointer for the vertex shader to the position information per vertex
-        gl.glEnableVertexAttribArray(0);
-        gl.glVertexAttribPointer(0, 3, GL.GL_FLOAT, false, 9*4, 0);
-        // Pointer for the vertex shader to the color information per vertex
-        gl.glEnableVertexAttribArray(1);
-        gl.glVertexAttribPointer(1, 3, GL.GL_FLOAT, false, 9*4, 3*4);
-        // Pointer for the vertex shader to the normal information per vertex
-        gl.glEnableVertexAttribArray(2);
-        gl.glVertexAttribPointer(2, 3, GL.GL_FLOAT, false, 9*4, 6*4);
+        // The vertex buffers hold only the attributes read by the shader program
+        VertexLayout layout = VertexLayout.forProgram(shaderProgram2);
+        // Identical shapes share one mesh (vertex and index buffers) on the GPU,
+        // the levels of detail have decreasing numbers of segments
+        lodChain = LodChain.makeCone(gl, layout, LodChain.DEFAULT_RESOLUTIONS, 0.2f, 0.6f, 1f, color2);
         // END: Prepare cone (frustum) for drawing
     }
 
+    /**
+     * Returns the mesh of the shape at level of detail 0 (e.g. for drawing it with a MultiDrawRenderer).
+     */
+    public Mesh getMesh() {
+        return lodChain.getMesh(0);
+    }
+
+    public LodChain getLodChain() {
+        return lodChain;
+    }
+
+    /**
+     * Selects the level of detail drawn by displayCone() and queueCone() in this frame.
+     * @param lodSelector	selector updated for the current frame
+     * @param modelMatrix	model matrix of the object
+     * @return selected level
+     */
+    public int selectLod(LodSelector lodSelector, float[] modelMatrix) {
+        lodLevel = lodSelector.selectLevel(lodChain, lodLevel, modelMatrix);
+        return lodLevel;
+    }
+
     public void displayCone(GL3 gl, PMVMatrix pmvMatrix) {
-        gl.glUseProgram(shaderProgram2.getShaderProgramID());
-        // Transfer the PVM-Matrix (model-view and projection matrix)
-        // to the vertex shader
-        gl.glUniformMatrix4fv(0, 1, false, pmvMatrix.glGetPMatrixf());
-        gl.glUniformMatrix4fv(1, 1, false, pmvMatrix.glGetMvMatrixf());
-        gl.glBindVertexArray(vaoCone[0]);
+        // Skip drawing while the shader program is still being compiled
+        if (!shaderProgram2.isReady())
+            return;
+        GLStateCache.useProgram(gl, shaderProgram2.getShaderProgramID());
+        // Transfer the model matrix to the vertex shader (skipped if unchanged)
+        // (projection and view matrix are in the camera uniform buffer)
+        modelMatrixUniform2.set(gl, pmvMatrix.glGetMvMatrixf());
         // Draws the elements in the order defined by the index buffer object (IBO)
-        gl.glDrawElements(GL.GL_TRIANGLE_STRIP, cone0.getNoOfIndices(), GL.GL_UNSIGNED_INT, 0);
+        lodChain.getMesh(lodLevel).draw(gl);
+    }
+
+    /**
+     * Adds the cone to a render queue instead of drawing it immediately.
+     * @param renderQueue	queue of the frame
+     * @param modelMatrix	model matrix of the object
+     */
+    public void queueCone(RenderQueue renderQueue, float[] modelMatrix) {
+        // Skip drawing while the shader program is still being compiled
+        if (!shaderProgram2.isReady())
+            return;
+        renderQueue.add(RenderQueue.PASS_OPAQUE, shaderProgram2, modelMatrixUniform2, lodChain.getMesh(lodLevel), modelMatrix);
     }
 
     public void reshapeCone(GLAutoDrawable drawable, int x, int y, int width, int height, PMVMatrix pmvMatrix) {
@@ -131,17 +126,20 @@ public class ConeRenderer {
     public void disposeCone(GLAutoDrawable drawable) {
         GL3 gl = drawable.getGL().getGL3();
 
-        // Detach and delete shader program
-        gl.glUseProgram(0);
-        shaderProgram2.deleteShaderProgram();
+        // Detach and release shader program
+        GLStateCache.useProgram(gl, 0);
+        ShaderProgramRegistry.release(shaderProgram2);
+        // Release the shared meshes
+        if (lodChain != null)
+            lodChain.release(gl);
 
         // deactivate VAO and VBO
-        gl.glBindVertexArray(0);
+        GLStateCache.bindVertexArray(gl, 0);
         gl.glDisableVertexAttribArray(0);
         gl.glDisableVertexAttribArray(1);
 
-        gl.glDisable(GL.GL_CULL_FACE);
-        gl.glDisable(GL.GL_DEPTH_TEST);
+        GLStateCache.disable(gl, GL.GL_CULL_FACE);
+        GLStateCache.disable(gl, GL.GL_DEPTH_TEST);
 
     }
 }
@@ -0,0 +1,131 @@
+import java.util.Arrays;
+
+/**
+ * Java class for creating vertex and index data for drawing a sphere
+ * as a normalized cube using Jogl/OpenGL.
+ * Each face of a cube is divided into resolution x resolution quads and the grid
+ * points are pushed onto the sphere. The grid uses equal angles (tan warp) instead
+ * of equal distances on the cube, which keeps the quads near the face corners from
+ * getting much smaller than those in the face centers.
+ * Vertices on the edges and corners of the cube are shared by the adjacent faces
+ * (no seams, no poles): 6 * n^2 + 2 vertices and 12 * n^2 triangles.
+ * Intended to be used for an OpenGL scene renderer.
+ */
+public class CubeSphere {
+    private final int resolution;
+    // Unit positions of the vertices and triangles (three indices each, counter clockwise from outside)
+    private float[] positions;
+    private int[] triangles;
+
+    // Axes of the cube faces: normal, u direction, v direction (u x v = normal)
+    private static final int[][] FACES = {
+            {0, 1, 2}, {1, 2, 0}, {2, 0, 1}};
+
+    /**
+     * @param resolution number of quads along each edge of a cube face
+     */
+    public CubeSphere(int resolution) {
+        this.resolution = resolution;
+        makeGrid();
+    }
+
+    /**
+     * Creates vertices with one single color and normal vectors.
+     * To be used together with makeIndicesForTriangles().
+     * @param radius radius of the sphere
+     * @param color three dimensional color vector for each vertex
+     * @return list of vertices (position, color, normal)
+     */
+    public float[] makeVertices(float radius, float[] color) {
+        int noOfVertices = getNoOfVertices();
+        float[] vertices = new float[noOfVertices * Mesh.FLOATS_PER_VERTEX];
+        for (int vertex = 0; vertex < noOfVertices; vertex++) {
+            int offset = vertex * Mesh.FLOATS_PER_VERTEX;
+            for (int i = 0; i < 3; i++) {
+                float normal = positions[vertex * 3 + i];
+                vertices[offset + i] = radius * normal;
+                vertices[offset + 3 + i] = color[i];
+                vertices[offset + 6 + i] = normal;
+            }
+        }
+        return vertices;
+    }
+
+    /**
+     * Creates indices for drawing the sphere with glDrawElements() and GL_TRIANGLES.
+     * @return indices into the vertex array of the sphere
+     */
+    public int[] makeIndicesForTriangles() {
+        return triangles.clone();
+    }
+
+    public int getNoOfVertices() {
+        return positions.length / 3;
+    }
+
+    public int getNoOfIndices() {
+        return triangles.length;
+    }
+
+    /**
+     * Creates the vertices of the cube surface once, indexed by their integer
+     * lattice coordinates (0..resolution per axis), and the two triangles of every quad.
+     */
+    private void makeGrid() {
+        int n = resolution;
+        int[] lattice = new int[(n + 1) * (n + 1) * (n + 1)];
+        Arrays.fill(lattice, -1);
+        positions = new float[(6 * n * n + 2) * 3];
+        triangles = new int[12 * n * n * 3];
+        int noOfVertices = 0;
+        int index = 0;
+        int[] point = new int[3];
+        int[] quad = new int[4];
+
+        for (int[] axes : FACES) {
+            for (int side = 0; side <= n; side += n) {
+                point[axes[0]] = side;
+                for (int v = 0; v < n; v++) {
+                    for (int u = 0; u < n; u++) {
+                        // corners of the quad counter clockwise in (u, v)
+                        for (int corner = 0; corner < 4; corner++) {
+                            point[axes[1]] = u + ((corner == 1 || corner == 2) ? 1 : 0);
+                            point[axes[2]] = v + (corner >= 2 ? 1 : 0);
+                            int key = (point[0] * (n + 1) + point[1]) * (n + 1) + point[2];
+                            if (lattice[key] < 0) {
+                                setPosition(noOfVertices, point);
+                                lattice[key] = noOfVertices++;
+                            }
+                            quad[corner] = lattice[key];
+                        }
+                        // (u, v) is counter clockwise seen from outside on the positive side only
+                        if (side == n) {
+                            int[] quadTriangles = {quad[0], quad[1], quad[2], quad[0], quad[2], quad[3]};
+                            System.arraycopy(quadTriangles, 0, triangles, index, 6);
+                        } else {
+                            int[] quadTriangles = {quad[0], quad[2], quad[1], quad[0], quad[3], quad[2]};
+                            System.arraycopy(quadTriangles, 0, triangles, index, 6);
+                        }
+                        index += 6;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps a lattice point of the cube surface to the sphere (equal angle grid).
+     */
+    private void setPosition(int vertex, int[] point) {
+        float length = 0f;
+        for (int i = 0; i < 3; i++) {
+            float angle = (float) (Math.PI / 4 * (2.0 * point[i] / resolution - 1.0));
+            float coordinate = (float) Math.tan(angle);
+            positions[vertex * 3 + i] = coordinate;
+            length += coordinate * coordinate;
+        }
+        length = (float) Math.sqrt(length);
+        for (int i = 0; i < 3; i++)
+            positions[vertex * 3 + i] /= length;
+    }
+}
@@ -0,0 +1,311 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+
+/**
+ * Shadow copy of the OpenGL state changed by the renderers: current program,
+ * vertex array object, buffer bindings (generic and indexed), enabled capabilities,
+ * polygon mode and cull face mode.
+ * Calls that would not change the state are dropped before they reach the driver.
+ * All code changing this state has to go through this class, otherwise the shadow
+ * copy is wrong; invalidate() forces the next call of each kind to be issued.
+ * The element array buffer binding is part of the vertex array object, so it is
+ * forgotten whenever another vertex array object is bound. Objects must be deleted
+ * with deleteBuffers() and deleteVertexArrays(), as deleting an object unbinds it.
+ * Issued and filtered calls are counted, see resetStatistics().
+ * All methods are static and must be called on the OpenGL thread (one context).
+ */
+public class GLStateCache {
+
+    // Value of a state that is not known (e.g. before the first call)
+    private static final int UNKNOWN = -1;
+    // Slots for buffer targets, capabilities and indexed bindings
+    private static final int MAX_SLOTS = 32;
+
+    private static int currentProgram = UNKNOWN;
+    private static int currentVertexArray = UNKNOWN;
+    private static int polygonMode = UNKNOWN;
+    private static int cullFaceMode = UNKNOWN;
+
+    // Generic buffer bindings: target and bound buffer
+    private static final int[] bufferTargets = new int[MAX_SLOTS];
+    private static final int[] boundBuffers = new int[MAX_SLOTS];
+    private static int noOfBufferTargets = 0;
+    // Indexed buffer bindings (glBindBufferBase/Range): target and index, buffer and range
+    private static final long[] indexedTargets = new long[MAX_SLOTS];
+    private static final int[] indexedBuffers = new int[MAX_SLOTS];
+    private static final long[] indexedOffsets = new long[MAX_SLOTS];
+    private static final long[] indexedSizes = new long[MAX_SLOTS];  // -1 for the whole buffer
+    private static int noOfIndexedTargets = 0;
+    // Capabilities: name and state (1 enabled, 0 disabled)
+    private static final int[] capabilities = new int[MAX_SLOTS];
+    private static final int[] capabilityStates = new int[MAX_SLOTS];
+    private static int noOfCapabilities = 0;
+
+    private static long noOfIssuedCalls = 0;
+    private static long noOfFilteredCalls = 0;
+
+    /**
+     * glUseProgram, if the program is not in use already.
+     */
+    public static void useProgram(GL3 gl, int program) {
+        if (currentProgram == program) {
+            noOfFilteredCalls++;
+            return;
+        }
+        gl.glUseProgram(program);
+        currentProgram = program;
+        noOfIssuedCalls++;
+    }
+
+    /**
+     * glBindVertexArray, if the vertex array object is not bound already.
+     */
+    public static void bindVertexArray(GL3 gl, int vertexArray) {
+        if (currentVertexArray == vertexArray) {
+            noOfFilteredCalls++;
+            return;
+        }
+        gl.glBindVertexArray(vertexArray);
+        currentVertexArray = vertexArray;
+        // The element array buffer binding belongs to the vertex array object
+        int slot = findBufferTarget(GL.GL_ELEMENT_ARRAY_BUFFER);
+        if (slot >= 0)
+            boundBuffers[slot] = UNKNOWN;
+        noOfIssuedCalls++;
+    }
+
+    /**
+     * glBindBuffer, if the buffer is not bound to the target already.
+     */
+    public static void bindBuffer(GL3 gl, int target, int buffer) {
+        int slot = findBufferTarget(target);
+        if (slot < 0 && noOfBufferTargets < MAX_SLOTS) {
+            slot = noOfBufferTargets++;
+            bufferTargets[slot] = target;
+            boundBuffers[slot] = UNKNOWN;
+        }
+        if (slot >= 0 && boundBuffers[slot] == buffer) {
+            noOfFilteredCalls++;
+            return;
+        }
+        gl.glBindBuffer(target, buffer);
+        if (slot >= 0)
+            boundBuffers[slot] = buffer;
+        noOfIssuedCalls++;
+    }
+
+    /**
+     * glBindBufferBase, if the buffer is not bound to the indexed binding point already.
+     * Like glBindBufferBase, the buffer is also bound to the generic binding point of the target.
+     */
+    public static void bindBufferBase(GL3 gl, int target, int index, int buffer) {
+        bindBufferRange(gl, target, index, buffer, 0, -1);
+    }
+
+    /**
+     * glBindBufferRange, if the range is not bound to the indexed binding point already.
+     * Like glBindBufferRange, the buffer is also bound to the generic binding point of the target.
+     * @param size size of the range in bytes, -1 for the whole buffer (glBindBufferBase)
+     */
+    public static void bindBufferRange(GL3 gl, int target, int index, int buffer, long offset, long size) {
+        long key = ((long) target << 32) | index;
+        int slot = -1;
+        for (int i = 0; i < noOfIndexedTargets; i++)
+            if (indexedTargets[i] == key)
+                slot = i;
+        if (slot < 0 && noOfIndexedTargets < MAX_SLOTS) {
+            slot = noOfIndexedTargets++;
+            indexedTargets[slot] = key;
+            indexedBuffers[slot] = UNKNOWN;
+        }
+        if (slot >= 0 && indexedBuffers[slot] == buffer && indexedOffsets[slot] == offset
+                && indexedSizes[slot] == size) {
+            noOfFilteredCalls++;
+            return;
+        }
+        if (size < 0)
+            gl.glBindBufferBase(target, index, buffer);
+        else
+            gl.glBindBufferRange(target, index, buffer, offset, size);
+        if (slot >= 0) {
+            indexedBuffers[slot] = buffer;
+            indexedOffsets[slot] = offset;
+            indexedSizes[slot] = size;
+        }
+        int genericSlot = findBufferTarget(target);
+        if (genericSlot >= 0)
+            boundBuffers[genericSlot] = buffer;
+        noOfIssuedCalls++;
+    }
+
+    /**
+     * glEnable, if the capability is not enabled already.
+     */
+    public static void enable(GL3 gl, int capability) {
+        setCapability(gl, capability, true);
+    }
+
+    /**
+     * glDisable, if the capability is not disabled already.
+     */
+    public static void disable(GL3 gl, int capability) {
+        setCapability(gl, capability, false);
+    }
+
+    /**
+     * Returns whether a capability is enabled, e.g. to restore it after a temporary change.
+     * Only queried from OpenGL while the state is not known.
+     */
+    public static boolean isEnabled(GL3 gl, int capability) {
+        int slot = findCapability(capability);
+        if (slot >= 0 && capabilityStates[slot] != UNKNOWN)
+            return capabilityStates[slot] == 1;
+        boolean enabled = gl.glIsEnabled(capability);
+        if (slot >= 0)
+            capabilityStates[slot] = enabled ? 1 : 0;
+        return enabled;
+    }
+
+    // Slot of a capability, a new slot in state UNKNOWN if it has none yet (-1 if all are used)
+    private static int findCapability(int capability) {
+        for (int i = 0; i < noOfCapabilities; i++)
+            if (capabilities[i] == capability)
+                return i;
+        if (noOfCapabilities == MAX_SLOTS)
+            return -1;
+        capabilities[noOfCapabilities] = capability;
+        capabilityStates[noOfCapabilities] = UNKNOWN;
+        return noOfCapabilities++;
+    }
+
+    private static void setCapability(GL3 gl, int capability, boolean enabled) {
+        int slot = findCapability(capability);
+        int state = enabled ? 1 : 0;
+        if (slot >= 0 && capabilityStates[slot] == state) {
+            noOfFilteredCalls++;
+            return;
+        }
+        if (enabled)
+            gl.glEnable(capability);
+        else
+            gl.glDisable(capability);
+        if (slot >= 0)
+            capabilityStates[slot] = state;
+        noOfIssuedCalls++;
+    }
+
+    /**
+     * glPolygonMode for front and back faces (the only choice in the core profile),
+     * if the mode is not set already.
+     * @param mode e.g. GL3.GL_FILL or GL3.GL_LINE
+     */
+    public static void polygonMode(GL3 gl, int mode) {
+        if (polygonMode == mode) {
+            noOfFilteredCalls++;
+            return;
+        }
+        gl.glPolygonMode(GL.GL_FRONT_AND_BACK, mode);
+        polygonMode = mode;
+        noOfIssuedCalls++;
+    }
+
+    /**
+     * Returns the polygon mode, e.g. to restore it after a temporary change.
+     * Only queried from OpenGL while the mode is not known.
+     */
+    public static int getPolygonMode(GL3 gl) {
+        if (polygonMode == UNKNOWN) {
+            // Older drivers return front and back mode
+            int[] modes = new int[2];
+            gl.glGetIntegerv(GL3.GL_POLYGON_MODE, modes, 0);
+            polygonMode = modes[0];
+        }
+        return polygonMode;
+    }
+
+    /**
+     * glCullFace, if the mode is not set already.
+     */
+    public static void cullFace(GL3 gl, int mode) {
+        if (cullFaceMode == mode) {
+            noOfFilteredCalls++;
+            return;
+        }
+        gl.glCullFace(mode);
+        cullFaceMode = mode;
+        noOfIssuedCalls++;
+    }
+
+    /**
+     * Deletes buffers. Bindings of the deleted buffers revert to 0, as in OpenGL.
+     */
+    public static void deleteBuffers(GL3 gl, int noOfBuffers, int[] buffers, int offset) {
+        gl.glDeleteBuffers(noOfBuffers, buffers, offset);
+        for (int i = offset; i < offset + noOfBuffers; i++) {
+            for (int slot = 0; slot < noOfBufferTargets; slot++)
+                if (boundBuffers[slot] == buffers[i])
+                    boundBuffers[slot] = 0;
+            for (int slot = 0; slot < noOfIndexedTargets; slot++)
+                if (indexedBuffers[slot] == buffers[i])
+                    indexedBuffers[slot] = 0;
+        }
+    }
+
+    /**
+     * Deletes vertex array objects. If the bound one is deleted, the binding reverts to 0.
+     */
+    public static void deleteVertexArrays(GL3 gl, int noOfVertexArrays, int[] vertexArrays, int offset) {
+        gl.glDeleteVertexArrays(noOfVertexArrays, vertexArrays, offset);
+        for (int i = offset; i < offset + noOfVertexArrays; i++) {
+            if (currentVertexArray == vertexArrays[i]) {
+                currentVertexArray = 0;
+                int slot = findBufferTarget(GL.GL_ELEMENT_ARRAY_BUFFER);
+                if (slot >= 0)
+                    boundBuffers[slot] = UNKNOWN;
+            }
+        }
+    }
+
+    /**
+     * Forgets the shadowed state, e.g. after code changed the state directly.
+     */
+    public static void invalidate() {
+        currentProgram = UNKNOWN;
+        currentVertexArray = UNKNOWN;
+        polygonMode = UNKNOWN;
+        cullFaceMode = UNKNOWN;
+        noOfBufferTargets = 0;
+        noOfIndexedTargets = 0;
+        noOfCapabilities = 0;
+    }
+
+    private static int findBufferTarget(int target) {
+        for (int i = 0; i < noOfBufferTargets; i++)
+            if (bufferTargets[i] == target)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Resets the counters of issued and filtered calls, e.g. at the beginning of a frame.
+     */
+    public static void resetStatistics() {
+        noOfIssuedCalls = 0;
+        noOfFilteredCalls = 0;
+    }
+
+    /**
+     * Returns the number of state changing calls passed to OpenGL since the last resetStatistics().
+     */
+    public static long getNoOfIssuedCalls() {
+        return noOfIssuedCalls;
+    }
+
+    /**
+     * Returns the number of calls dropped because they would not have changed the state
+     * since the last resetStatistics().
+     */
+    public static long getNoOfFilteredCalls() {
+        return noOfFilteredCalls;
+    }
+}
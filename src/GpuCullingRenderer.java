@@ -0,0 +1,294 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES2;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GL3ES3;
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.math.FloatUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Renderer whose objects are culled and turned into draw commands on the GPU.
+ * Model matrix, color, mesh bounds and LOD meshes of all objects are kept in a shader
+ * storage buffer. Each frame the compute shader CullObjects.comp tests every object
+ * against the view frustum, selects its LOD mesh by distance and writes the draw command
+ * and instance data of the object. The CPU only issues the dispatch and one indirect draw
+ * call, independent of the number of objects.
+ * With ARB_indirect_parameters the visible objects are appended and drawn with
+ * glMultiDrawElementsIndirectCountARB, otherwise one command per object is written
+ * and culled objects get zero instances.
+ * The meshes are packed into one MergedGeometryBuffer (addMesh() before upload()).
+ * Requires OpenGL 4.3.
+ */
+public class GpuCullingRenderer {
+
+    // Binding points of the shader storage buffers (see CullObjects.comp)
+    private static final int OBJECTS_BINDING = 1;
+    private static final int MESHES_BINDING = 2;
+    private static final int COMMANDS_BINDING = 3;
+    private static final int INSTANCES_BINDING = 4;
+    private static final int DRAW_COUNT_BINDING = 5;
+
+    // std430 layout of an object: mat4, vec4 color, vec4 bounds min, vec4 bounds max, ivec4 LOD meshes
+    private static final int BYTES_PER_OBJECT = (16 + 4 + 4 + 4 + 4) * 4;
+    private static final int BYTES_PER_COMMAND = 5 * 4;
+    private static final int BYTES_PER_INSTANCE = InstancedRenderer.FLOATS_PER_INSTANCE * 4;
+    private static final int WORK_GROUP_SIZE = 64;
+    public static final int MAX_LOD_LEVELS = 4;
+
+    private static final float[] IDENTITY_MATRIX = FloatUtil.makeIdentity(new float[16]);
+
+    private final MergedGeometryBuffer geometry = new MergedGeometryBuffer();
+
+    private int[] vaoGpuCulling;  // Names of vertex array objects
+    // Names of buffer objects: objects, meshes, commands, instances, draw count
+    private int[] buffers;
+    private int objectBufferCapacity = 0;  // objects
+    private int outputBufferCapacity = 0;  // commands and instances
+
+    private final String vertexShaderFileName = "Basic.vert";
+    private final String fragmentShaderFileName = "Basic.frag";
+    private final String computeShaderFileName = "CullObjects.comp";
+
+    private ShaderProgram shaderProgram;
+    private ShaderProgram cullingProgram;
+    // Uniforms of the programs
+    private ShaderUniform modelMatrixUniform;
+    private ShaderUniform frustumPlanesUniform;
+    private ShaderUniform cameraPositionUniform;
+    private ShaderUniform lodDistancesUniform;
+    private ShaderUniform noOfObjectsUniform;
+    private boolean drawCountSupported;
+
+    // Object data as uploaded to the object buffer, changed range in objects
+    private ByteBuffer objectData = ByteBuffer.allocateDirect(16 * BYTES_PER_OBJECT).order(ByteOrder.nativeOrder());
+    private int noOfObjects = 0;
+    private int firstChangedObject = Integer.MAX_VALUE;
+    private int lastChangedObject = -1;
+
+    private final float[] lodDistances = {16f, 32f, 64f};
+    private final float[] inverseViewMatrix = new float[16];
+    private final IntBuffer zero = IntBuffer.wrap(new int[] {0});
+
+    /**
+     * Adds the mesh of a shape. Must be called before upload().
+     * @param mesh mesh to be drawn by this renderer (e.g. from the MeshCache)
+     * @return index of the mesh, to be used with addObject()
+     */
+    public int addMesh(Mesh mesh) {
+        return geometry.addMesh(mesh);
+    }
+
+    /**
+     * Allocates the buffers and acquires the shader programs. The drawing program
+     * may still be compiling afterwards.
+     * @param drawable The OpenGL drawable
+     */
+    public void init(GLAutoDrawable drawable) {
+        GL3 gl = drawable.getGL().getGL3();
+
+        vaoGpuCulling = new int[1];
+        gl.glGenVertexArrays(1, vaoGpuCulling, 0);
+        if (vaoGpuCulling[0] < 1)
+            System.err.println("Error allocating vertex array object (VAO).");
+        buffers = new int[5];
+        gl.glGenBuffers(5, buffers, 0);
+        for (int buffer : buffers)
+            if (buffer < 1)
+                System.err.println("Error allocating shader storage buffer object.");
+
+        drawCountSupported = gl.isExtensionAvailable("GL_ARB_indirect_parameters");
+        shaderProgram = ShaderProgramRegistry.acquire(gl,
+                vertexShaderFileName, fragmentShaderFileName, "INSTANCED");
+        cullingProgram = new ShaderProgram(gl);
+        if (drawCountSupported)
+            cullingProgram.loadComputeShaderAndCreateProgram(computeShaderFileName, "COMPACT");
+        else
+            cullingProgram.loadComputeShaderAndCreateProgram(computeShaderFileName);
+        // The handle of the drawing program is resolved by upload()
+        frustumPlanesUniform = cullingProgram.getUniform("frustumPlanes");
+        cameraPositionUniform = cullingProgram.getUniform("cameraPosition");
+        lodDistancesUniform = cullingProgram.getUniform("lodDistances");
+        noOfObjectsUniform = cullingProgram.getUniform("noOfObjects");
+    }
+
+    /**
+     * Builds the merged geometry buffer and the mesh table from the meshes added
+     * with addMesh() and resolves the uniform handle of the drawing program.
+     * To be called after init(), once the meshes exist.
+     * @param gl OpenGL context
+     */
+    public void upload(GL3 gl) {
+        modelMatrixUniform = shaderProgram.getUniform("mMatrix");
+        geometry.upload(gl);
+        GLStateCache.bindVertexArray(gl, vaoGpuCulling[0]);
+        geometry.setupVertexAttributes(gl);
+        InstancedRenderer.setupInstanceAttributeFormat(gl);
+        GLStateCache.bindVertexArray(gl, 0);
+
+        // Mesh table: count, first index, base vertex, padding
+        int[] meshes = new int[geometry.getNoOfMeshes() * 4];
+        for (int mesh = 0; mesh < geometry.getNoOfMeshes(); mesh++) {
+            meshes[mesh * 4] = geometry.getNoOfIndices(mesh);
+            meshes[mesh * 4 + 1] = geometry.getFirstIndex(mesh);
+            meshes[mesh * 4 + 2] = geometry.getBaseVertex(mesh);
+        }
+        GLStateCache.bindBuffer(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, buffers[1]);
+        gl.glBufferData(GL3ES3.GL_SHADER_STORAGE_BUFFER, meshes.length * 4L,
+                IntBuffer.wrap(meshes), GL.GL_STATIC_DRAW);
+        GLStateCache.bindBuffer(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, buffers[4]);
+        gl.glBufferData(GL3ES3.GL_SHADER_STORAGE_BUFFER, 4, zero, GL2ES2.GL_DYNAMIC_DRAW);
+    }
+
+    /**
+     * Adds an object.
+     * @param lodMeshes		indices returned by addMesh() for the LOD levels, starting with the
+     *                      finest (1 to MAX_LOD_LEVELS entries)
+     * @param modelMatrix	column major 4x4 model matrix
+     * @param color			RGB color multiplied with the vertex colors of the mesh
+     * @return index of the object, to be used with setObjectMatrix()
+     */
+    public int addObject(int[] lodMeshes, float[] modelMatrix, float[] color) {
+        if ((noOfObjects + 1) * BYTES_PER_OBJECT > objectData.capacity()) {
+            ByteBuffer data = ByteBuffer.allocateDirect(objectData.capacity() * 2).order(ByteOrder.nativeOrder());
+            objectData.clear();
+            data.put(objectData);
+            objectData = data;
+        }
+        int objectIndex = noOfObjects++;
+        int offset = objectIndex * BYTES_PER_OBJECT;
+        Mesh mesh = geometry.getMesh(lodMeshes[0]);
+        for (int i = 0; i < 3; i++) {
+            objectData.putFloat(offset + (16 + i) * 4, color[i]);
+            objectData.putFloat(offset + (20 + i) * 4, mesh.getBoundsMin()[i]);
+            objectData.putFloat(offset + (24 + i) * 4, mesh.getBoundsMax()[i]);
+        }
+        objectData.putFloat(offset + 19 * 4, 1f);
+        for (int level = 0; level < MAX_LOD_LEVELS; level++)
+            objectData.putInt(offset + (28 + level) * 4, lodMeshes[Math.min(level, lodMeshes.length - 1)]);
+        setObjectMatrix(objectIndex, modelMatrix);
+        return objectIndex;
+    }
+
+    /**
+     * Changes the model matrix of an object (e.g. after it has moved).
+     * The object buffer is updated on the next call of display().
+     */
+    public void setObjectMatrix(int objectIndex, float[] modelMatrix) {
+        int offset = objectIndex * BYTES_PER_OBJECT;
+        for (int i = 0; i < 16; i++)
+            objectData.putFloat(offset + i * 4, modelMatrix[i]);
+        firstChangedObject = Math.min(firstChangedObject, objectIndex);
+        lastChangedObject = Math.max(lastChangedObject, objectIndex);
+    }
+
+    /**
+     * Sets the distances, in units of the bounding radius of an object, at which
+     * LOD levels 1, 2 and 3 are selected.
+     */
+    public void setLodDistances(float level1, float level2, float level3) {
+        lodDistances[0] = level1;
+        lodDistances[1] = level2;
+        lodDistances[2] = level3;
+    }
+
+    public int getNoOfObjects() {
+        return noOfObjects;
+    }
+
+    /**
+     * Culls all objects on the GPU and draws the visible ones with one indirect draw call.
+     * @param gl			OpenGL context
+     * @param viewFrustum	view frustum of the frame
+     * @param viewMatrix	view matrix of the frame (for the camera position)
+     */
+    public void display(GL3 gl, ViewFrustum viewFrustum, float[] viewMatrix) {
+        if (noOfObjects == 0 || !shaderProgram.isReady())
+            return;
+        uploadObjectData(gl);
+
+        // Culling and command generation
+        GLStateCache.useProgram(gl, cullingProgram.getShaderProgramID());
+        // Only values changed since the last frame are sent
+        frustumPlanesUniform.set(gl, viewFrustum.getPlanes(), 0);
+        FloatUtil.invertMatrix(viewMatrix, inverseViewMatrix);
+        cameraPositionUniform.set(gl, inverseViewMatrix[12], inverseViewMatrix[13], inverseViewMatrix[14]);
+        lodDistancesUniform.set(gl, lodDistances, 0);
+        noOfObjectsUniform.set(gl, noOfObjects);
+        GLStateCache.bindBuffer(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, buffers[4]);
+        gl.glBufferSubData(GL3ES3.GL_SHADER_STORAGE_BUFFER, 0, 4, zero);
+        GLStateCache.bindBufferBase(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, OBJECTS_BINDING, buffers[0]);
+        GLStateCache.bindBufferBase(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, MESHES_BINDING, buffers[1]);
+        GLStateCache.bindBufferBase(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, COMMANDS_BINDING, buffers[2]);
+        GLStateCache.bindBufferBase(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, INSTANCES_BINDING, buffers[3]);
+        GLStateCache.bindBufferBase(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, DRAW_COUNT_BINDING, buffers[4]);
+        gl.glDispatchCompute((noOfObjects + WORK_GROUP_SIZE - 1) / WORK_GROUP_SIZE, 1, 1);
+        // Commands, instance data and draw count are read by the following draw call
+        gl.glMemoryBarrier(GL2ES3.GL_COMMAND_BARRIER_BIT | GL2ES3.GL_VERTEX_ATTRIB_ARRAY_BARRIER_BIT);
+
+        // One draw call for all visible objects
+        GLStateCache.useProgram(gl, shaderProgram.getShaderProgramID());
+        // The instance matrices are complete model matrices
+        modelMatrixUniform.set(gl, IDENTITY_MATRIX, 0);
+        GLStateCache.bindVertexArray(gl, vaoGpuCulling[0]);
+        gl.glBindVertexBuffer(InstancedRenderer.INSTANCE_BINDING, buffers[3], 0, BYTES_PER_INSTANCE);
+        GLStateCache.bindBuffer(gl, GL3ES3.GL_DRAW_INDIRECT_BUFFER, buffers[2]);
+        if (drawCountSupported) {
+            GL4 gl4 = gl.getGL4();
+            GLStateCache.bindBuffer(gl, GL4.GL_PARAMETER_BUFFER_ARB, buffers[4]);
+            gl4.glMultiDrawElementsIndirectCountARB(geometry.getDrawMode(), geometry.getIndexType(),
+                    0, 0, noOfObjects, BYTES_PER_COMMAND);
+        } else {
+            // null: the commands are read from the bound draw indirect buffer (offset 0)
+            gl.glMultiDrawElementsIndirect(geometry.getDrawMode(), geometry.getIndexType(), null, noOfObjects, 0);
+        }
+    }
+
+    /**
+     * Transfers changed objects to the object buffer and grows the output buffers if needed.
+     */
+    private void uploadObjectData(GL3 gl) {
+        if (noOfObjects > objectBufferCapacity) {
+            objectBufferCapacity = objectData.capacity() / BYTES_PER_OBJECT;
+            objectData.clear();
+            GLStateCache.bindBuffer(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, buffers[0]);
+            gl.glBufferData(GL3ES3.GL_SHADER_STORAGE_BUFFER, objectData.capacity(), objectData, GL.GL_DYNAMIC_DRAW);
+        } else if (lastChangedObject >= firstChangedObject) {
+            objectData.position(firstChangedObject * BYTES_PER_OBJECT);
+            objectData.limit((lastChangedObject + 1) * BYTES_PER_OBJECT);
+            GLStateCache.bindBuffer(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, buffers[0]);
+            gl.glBufferSubData(GL3ES3.GL_SHADER_STORAGE_BUFFER, (long) firstChangedObject * BYTES_PER_OBJECT,
+                    objectData.remaining(), objectData.slice());
+            objectData.clear();
+        }
+        firstChangedObject = Integer.MAX_VALUE;
+        lastChangedObject = -1;
+
+        if (noOfObjects > outputBufferCapacity) {
+            outputBufferCapacity = objectBufferCapacity;
+            GLStateCache.bindBuffer(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, buffers[2]);
+            gl.glBufferData(GL3ES3.GL_SHADER_STORAGE_BUFFER, (long) outputBufferCapacity * BYTES_PER_COMMAND,
+                    null, GL2ES3.GL_DYNAMIC_COPY);
+            GLStateCache.bindBuffer(gl, GL3ES3.GL_SHADER_STORAGE_BUFFER, buffers[3]);
+            gl.glBufferData(GL3ES3.GL_SHADER_STORAGE_BUFFER, (long) outputBufferCapacity * BYTES_PER_INSTANCE,
+                    null, GL2ES3.GL_DYNAMIC_COPY);
+        }
+    }
+
+    public void dispose(GLAutoDrawable drawable) {
+        GL3 gl = drawable.getGL().getGL3();
+
+        GLStateCache.useProgram(gl, 0);
+        ShaderProgramRegistry.release(shaderProgram);
+        cullingProgram.deleteShaderProgram();
+
+        GLStateCache.bindVertexArray(gl, 0);
+        GLStateCache.deleteVertexArrays(gl, 1, vaoGpuCulling, 0);
+        GLStateCache.deleteBuffers(gl, 5, buffers, 0);
+        geometry.delete(gl);
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Java class for creating vertex and index data for drawing a sphere
+ * as a subdivided icosahedron using Jogl/OpenGL.
+ * Every subdivision splits each triangle into four, the new vertices are
+ * pushed onto the sphere. All triangles have nearly the same size and every
+ * vertex is shared by its five or six triangles (no seams, no poles).
+ * Level n has 10 * 4^n + 2 vertices and 20 * 4^n triangles.
+ * Intended to be used for an OpenGL scene renderer.
+ */
+public class Icosphere {
+    private final int subdivisions;
+    // Unit positions of the vertices and triangles (three indices each, counter clockwise from outside)
+    private float[] positions;
+    private int[] triangles;
+
+    /**
+     * @param subdivisions number of subdivisions of the icosahedron (0: icosahedron)
+     */
+    public Icosphere(int subdivisions) {
+        this.subdivisions = subdivisions;
+        subdivide();
+    }
+
+    /**
+     * Creates vertices with one single color and normal vectors.
+     * To be used together with makeIndicesForTriangles().
+     * @param radius radius of the sphere
+     * @param color three dimensional color vector for each vertex
+     * @return list of vertices (position, color, normal)
+     */
+    public float[] makeVertices(float radius, float[] color) {
+        int noOfVertices = getNoOfVertices();
+        float[] vertices = new float[noOfVertices * Mesh.FLOATS_PER_VERTEX];
+        for (int vertex = 0; vertex < noOfVertices; vertex++) {
+            int offset = vertex * Mesh.FLOATS_PER_VERTEX;
+            for (int i = 0; i < 3; i++) {
+                float normal = positions[vertex * 3 + i];
+                vertices[offset + i] = radius * normal;
+                vertices[offset + 3 + i] = color[i];
+                vertices[offset + 6 + i] = normal;
+            }
+        }
+        return vertices;
+    }
+
+    /**
+     * Creates indices for drawing the sphere with glDrawElements() and GL_TRIANGLES.
+     * @return indices into the vertex array of the sphere
+     */
+    public int[] makeIndicesForTriangles() {
+        return triangles.clone();
+    }
+
+    public int getNoOfVertices() {
+        return positions.length / 3;
+    }
+
+    public int getNoOfIndices() {
+        return triangles.length;
+    }
+
+    /**
+     * Builds the icosahedron and subdivides it. Vertices on the edges are created
+     * once per edge (looked up by the indices of the edge end points).
+     */
+    private void subdivide() {
+        float t = (float) ((1.0 + Math.sqrt(5.0)) / 2.0);
+        float[] icosahedron = {
+                -1, t, 0,   1, t, 0,   -1, -t, 0,   1, -t, 0,
+                0, -1, t,   0, 1, t,   0, -1, -t,   0, 1, -t,
+                t, 0, -1,   t, 0, 1,   -t, 0, -1,   -t, 0, 1};
+        triangles = new int[] {
+                0, 11, 5,   0, 5, 1,    0, 1, 7,    0, 7, 10,   0, 10, 11,
+                1, 5, 9,    5, 11, 4,   11, 10, 2,  10, 7, 6,   7, 1, 8,
+                3, 9, 4,    3, 4, 2,    3, 2, 6,    3, 6, 8,    3, 8, 9,
+                4, 9, 5,    2, 4, 11,   6, 2, 10,   8, 6, 7,    9, 8, 1};
+        positions = new float[(10 * (1 << (2 * subdivisions)) + 2) * 3];
+        for (int vertex = 0; vertex < 12; vertex++)
+            normalize(icosahedron, vertex * 3, vertex);
+        int noOfVertices = 12;
+
+        for (int level = 0; level < subdivisions; level++) {
+            Map<Long, Integer> edgeVertices = new HashMap<>();
+            int[] subdivided = new int[triangles.length * 4];
+            int index = 0;
+            for (int triangle = 0; triangle < triangles.length; triangle += 3) {
+                int a = triangles[triangle];
+                int b = triangles[triangle + 1];
+                int c = triangles[triangle + 2];
+                int[] middle = new int[3];
+                int[][] edges = {{a, b}, {b, c}, {c, a}};
+                for (int edge = 0; edge < 3; edge++) {
+                    int v0 = Math.min(edges[edge][0], edges[edge][1]);
+                    int v1 = Math.max(edges[edge][0], edges[edge][1]);
+                    Integer vertex = edgeVertices.get(((long) v0 << 32) | v1);
+                    if (vertex == null) {
+                        float[] midpoint = new float[3];
+                        for (int i = 0; i < 3; i++)
+                            midpoint[i] = positions[v0 * 3 + i] + positions[v1 * 3 + i];
+                        normalize(midpoint, 0, noOfVertices);
+                        vertex = noOfVertices++;
+                        edgeVertices.put(((long) v0 << 32) | v1, vertex);
+                    }
+                    middle[edge] = vertex;
+                }
+                int[] children = {
+                        a, middle[0], middle[2],
+                        b, middle[1], middle[0],
+                        c, middle[2], middle[1],
+                        middle[0], middle[1], middle[2]};
+                System.arraycopy(children, 0, subdivided, index, children.length);
+                index += children.length;
+            }
+            triangles = subdivided;
+        }
+    }
+
+    /**
+     * Stores the normalized vector source[offset..offset+2] as position of a vertex.
+     */
+    private void normalize(float[] source, int offset, int vertex) {
+        float length = (float) Math.sqrt(source[offset] * source[offset]
+                + source[offset + 1] * source[offset + 1] + source[offset + 2] * source[offset + 2]);
+        for (int i = 0; i < 3; i++)
+            positions[vertex * 3 + i] = source[offset + i] / length;
+    }
+}
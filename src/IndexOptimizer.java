@@ -0,0 +1,321 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reorders the triangles and vertices of a mesh for the GPU, without changing its shape:
+ * - stripToTriangles(): triangle strips with degenerate triangles to triangle lists
+ * - optimizeVertexCache(): triangle order for the post-transform vertex cache
+ *   (Forsyth, "Linear-Speed Vertex Cache Optimisation")
+ * - optimizeOverdraw(): order of triangle clusters, outward facing clusters first, so
+ *   that front faces tend to be drawn before the faces they hide
+ * - optimizeVertexFetch(): vertex order of first use by the triangles
+ * computeAcmr() measures the average number of transformed vertices per triangle
+ * (average cache miss ratio) with a FIFO cache as found in GPUs.
+ * Triangles are given as indices, three per triangle.
+ */
+public class IndexOptimizer {
+
+    // Size of the FIFO cache simulated by computeAcmr()
+    public static final int FIFO_CACHE_SIZE = 16;
+
+    // BEGIN: Parameters of the Forsyth algorithm (LRU cache model)
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+    // END: Parameters of the Forsyth algorithm
+
+    /**
+     * Converts triangle strip indices to triangles, keeping the winding of every
+     * triangle (every second triangle of a strip is flipped). A restart index
+     * (Mesh.PRIMITIVE_RESTART_INDEX) starts a new strip, degenerate triangles
+     * joining strips are skipped.
+     */
+    public static int[] stripToTriangles(int[] strip) {
+        int[] triangles = new int[Math.max(strip.length - 2, 0) * 3];
+        int index = 0;
+        int stripStart = 0;
+        for (int i = 0; i + 2 < strip.length; i++) {
+            int a = strip[i], b = strip[i + 1], c = strip[i + 2];
+            if (a == Mesh.PRIMITIVE_RESTART_INDEX) {
+                stripStart = i + 1;
+                continue;
+            }
+            if (b == Mesh.PRIMITIVE_RESTART_INDEX || c == Mesh.PRIMITIVE_RESTART_INDEX
+                    || a == b || b == c || a == c)
+                continue;
+            boolean even = (i - stripStart) % 2 == 0;
+            triangles[index++] = a;
+            triangles[index++] = even ? b : c;
+            triangles[index++] = even ? c : b;
+        }
+        return Arrays.copyOf(triangles, index);
+    }
+
+    /**
+     * Returns the average number of vertices transformed per triangle
+     * with a FIFO post-transform cache of FIFO_CACHE_SIZE entries.
+     * 3 without any reuse, about 0.5 for a regular grid of infinite size.
+     */
+    public static float computeAcmr(int[] triangles) {
+        if (triangles.length == 0)
+            return 0f;
+        int maxIndex = 0;
+        for (int index : triangles)
+            maxIndex = Math.max(maxIndex, index);
+        // Vertex -> number of misses before its insertion into the FIFO
+        int[] insertedAt = new int[maxIndex + 1];
+        Arrays.fill(insertedAt, -1);
+        int noOfMisses = 0;
+        for (int index : triangles)
+            if (isFifoMiss(insertedAt, index, noOfMisses))
+                insertedAt[index] = noOfMisses++;
+        return (float) noOfMisses / (triangles.length / 3);
+    }
+
+    /**
+     * Tests if a vertex has never been inserted into the FIFO cache
+     * or has been pushed out by the insertions since.
+     */
+    private static boolean isFifoMiss(int[] insertedAt, int vertex, int noOfMisses) {
+        return insertedAt[vertex] < 0 || noOfMisses - insertedAt[vertex] > FIFO_CACHE_SIZE;
+    }
+
+    /**
+     * Reorders the triangles for the post-transform vertex cache (Forsyth).
+     * Triangles are added greedily by the score of their vertices, which is high for
+     * vertices recently used (in the simulated LRU cache) and for vertices with few
+     * remaining triangles.
+     * @param triangles		triangle indices, reordered in place
+     * @param noOfVertices	number of vertices referenced by the indices
+     */
+    public static void optimizeVertexCache(int[] triangles, int noOfVertices) {
+        int noOfTriangles = triangles.length / 3;
+        if (noOfTriangles == 0)
+            return;
+
+        // Triangles of every vertex (compressed adjacency lists)
+        int[] remaining = new int[noOfVertices];
+        for (int index : triangles)
+            remaining[index]++;
+        int[] firstTriangle = new int[noOfVertices + 1];
+        for (int vertex = 0; vertex < noOfVertices; vertex++)
+            firstTriangle[vertex + 1] = firstTriangle[vertex] + remaining[vertex];
+        int[] vertexTriangles = new int[triangles.length];
+        int[] fill = Arrays.copyOf(firstTriangle, noOfVertices);
+        for (int triangle = 0; triangle < noOfTriangles; triangle++)
+            for (int corner = 0; corner < 3; corner++)
+                vertexTriangles[fill[triangles[triangle * 3 + corner]]++] = triangle;
+
+        int[] cachePosition = new int[noOfVertices];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScores = new float[noOfVertices];
+        for (int vertex = 0; vertex < noOfVertices; vertex++)
+            vertexScores[vertex] = vertexScore(-1, remaining[vertex]);
+        float[] triangleScores = new float[noOfTriangles];
+        for (int triangle = 0; triangle < noOfTriangles; triangle++)
+            triangleScores[triangle] = vertexScores[triangles[triangle * 3]]
+                    + vertexScores[triangles[triangle * 3 + 1]] + vertexScores[triangles[triangle * 3 + 2]];
+        boolean[] added = new boolean[noOfTriangles];
+
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheSize = 0;
+        int[] result = new int[triangles.length];
+        int nextUnadded = 0;  // for finding a new start when the cache has no candidates
+        int bestTriangle = -1;
+
+        for (int output = 0; output < noOfTriangles; output++) {
+            if (bestTriangle < 0) {
+                float bestScore = -1f;
+                for (int triangle = nextUnadded; triangle < noOfTriangles; triangle++)
+                    if (!added[triangle] && triangleScores[triangle] > bestScore) {
+                        bestScore = triangleScores[triangle];
+                        bestTriangle = triangle;
+                    }
+                while (added[nextUnadded])
+                    nextUnadded++;
+            }
+            added[bestTriangle] = true;
+            System.arraycopy(triangles, bestTriangle * 3, result, output * 3, 3);
+
+            // Vertices of the triangle move to the front of the LRU cache
+            int newCacheSize = 0;
+            for (int corner = 0; corner < 3; corner++) {
+                int vertex = triangles[bestTriangle * 3 + corner];
+                newCache[newCacheSize++] = vertex;
+                // Remove the triangle from the adjacency of the vertex
+                int last = firstTriangle[vertex] + remaining[vertex] - 1;
+                for (int i = firstTriangle[vertex]; i <= last; i++)
+                    if (vertexTriangles[i] == bestTriangle) {
+                        vertexTriangles[i] = vertexTriangles[last];
+                        break;
+                    }
+                remaining[vertex]--;
+            }
+            for (int i = 0; i < cacheSize; i++) {
+                int vertex = cache[i];
+                if (vertex != newCache[0] && vertex != newCache[1] && vertex != newCache[2])
+                    newCache[newCacheSize++] = vertex;
+            }
+            int[] swap = cache;
+            cache = newCache;
+            newCache = swap;
+            cacheSize = newCacheSize;
+
+            // Update the scores of the vertices in the cache (and those just evicted)
+            // and of their triangles
+            for (int i = 0; i < cacheSize; i++) {
+                int vertex = cache[i];
+                cachePosition[vertex] = i < CACHE_SIZE ? i : -1;
+                float score = vertexScore(cachePosition[vertex], remaining[vertex]);
+                float delta = score - vertexScores[vertex];
+                vertexScores[vertex] = score;
+                for (int t = firstTriangle[vertex]; t < firstTriangle[vertex] + remaining[vertex]; t++)
+                    triangleScores[vertexTriangles[t]] += delta;
+            }
+            // The best next triangle is one of the triangles of the cached vertices
+            bestTriangle = -1;
+            float bestScore = -1f;
+            for (int i = 0; i < Math.min(cacheSize, CACHE_SIZE); i++) {
+                int vertex = cache[i];
+                for (int t = firstTriangle[vertex]; t < firstTriangle[vertex] + remaining[vertex]; t++) {
+                    int triangle = vertexTriangles[t];
+                    if (triangleScores[triangle] > bestScore) {
+                        bestScore = triangleScores[triangle];
+                        bestTriangle = triangle;
+                    }
+                }
+            }
+            cacheSize = Math.min(cacheSize, CACHE_SIZE);
+        }
+        System.arraycopy(result, 0, triangles, 0, triangles.length);
+    }
+
+    private static float vertexScore(int cachePosition, int noOfRemainingTriangles) {
+        if (noOfRemainingTriangles == 0)
+            return -1f;
+        float score = 0f;
+        if (cachePosition >= 0) {
+            if (cachePosition < 3) {
+                score = LAST_TRIANGLE_SCORE;
+            } else {
+                float scaler = 1f / (CACHE_SIZE - 3);
+                score = (float) Math.pow(1f - (cachePosition - 3) * scaler, CACHE_DECAY_POWER);
+            }
+        }
+        return score + VALENCE_BOOST_SCALE * (float) Math.pow(noOfRemainingTriangles, -VALENCE_BOOST_POWER);
+    }
+
+    /**
+     * Reorders clusters of triangles so that clusters facing away from the center of the
+     * mesh are drawn first. A new cluster starts at every triangle whose vertices all miss
+     * the FIFO cache, so the order inside the clusters and thereby the cache
+     * efficiency of optimizeVertexCache() is kept.
+     * @param triangles			triangle indices (cache optimized), reordered in place
+     * @param vertices			interleaved vertices with the position in the first three floats
+     * @param floatsPerVertex	number of floats per vertex
+     */
+    public static void optimizeOverdraw(int[] triangles, float[] vertices, int floatsPerVertex) {
+        int noOfTriangles = triangles.length / 3;
+        if (noOfTriangles == 0)
+            return;
+
+        // Cluster boundaries
+        List<Integer> clusterStarts = new ArrayList<>();
+        int[] insertedAt = new int[vertices.length / floatsPerVertex];
+        Arrays.fill(insertedAt, -1);
+        int noOfMisses = 0;
+        for (int triangle = 0; triangle < noOfTriangles; triangle++) {
+            int misses = 0;
+            for (int corner = 0; corner < 3; corner++) {
+                int vertex = triangles[triangle * 3 + corner];
+                if (isFifoMiss(insertedAt, vertex, noOfMisses)) {
+                    insertedAt[vertex] = noOfMisses++;
+                    misses++;
+                }
+            }
+            if (triangle == 0 || misses == 3)
+                clusterStarts.add(triangle);
+        }
+        clusterStarts.add(noOfTriangles);
+
+        // Center of the mesh
+        float[] meshCenter = new float[3];
+        int noOfVertices = vertices.length / floatsPerVertex;
+        for (int vertex = 0; vertex < noOfVertices; vertex++)
+            for (int i = 0; i < 3; i++)
+                meshCenter[i] += vertices[vertex * floatsPerVertex + i] / noOfVertices;
+
+        // Sort key of every cluster: distance of its center from the mesh center along its normal
+        int noOfClusters = clusterStarts.size() - 1;
+        Integer[] order = new Integer[noOfClusters];
+        float[] keys = new float[noOfClusters];
+        float[] p = new float[9];
+        for (int cluster = 0; cluster < noOfClusters; cluster++) {
+            order[cluster] = cluster;
+            float[] center = new float[3];
+            float[] normal = new float[3];
+            float area = 0f;
+            for (int triangle = clusterStarts.get(cluster); triangle < clusterStarts.get(cluster + 1); triangle++) {
+                for (int corner = 0; corner < 3; corner++)
+                    System.arraycopy(vertices, triangles[triangle * 3 + corner] * floatsPerVertex, p, corner * 3, 3);
+                // Area weighted normal (twice the area)
+                float nx = (p[4] - p[1]) * (p[8] - p[2]) - (p[5] - p[2]) * (p[7] - p[1]);
+                float ny = (p[5] - p[2]) * (p[6] - p[0]) - (p[3] - p[0]) * (p[8] - p[2]);
+                float nz = (p[3] - p[0]) * (p[7] - p[1]) - (p[4] - p[1]) * (p[6] - p[0]);
+                float triangleArea = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                normal[0] += nx;
+                normal[1] += ny;
+                normal[2] += nz;
+                for (int i = 0; i < 3; i++)
+                    center[i] += (p[i] + p[3 + i] + p[6 + i]) / 3f * triangleArea;
+                area += triangleArea;
+            }
+            float normalLength = (float) Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+            float key = 0f;
+            if (area > 0f && normalLength > 0f)
+                for (int i = 0; i < 3; i++)
+                    key += (center[i] / area - meshCenter[i]) * normal[i] / normalLength;
+            keys[cluster] = key;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(keys[b], keys[a]));
+
+        int[] result = new int[triangles.length];
+        int output = 0;
+        for (int cluster : order) {
+            int start = clusterStarts.get(cluster) * 3;
+            int length = clusterStarts.get(cluster + 1) * 3 - start;
+            System.arraycopy(triangles, start, result, output, length);
+            output += length;
+        }
+        System.arraycopy(result, 0, triangles, 0, triangles.length);
+    }
+
+    /**
+     * Reorders the vertices in the order of their first use by the triangles,
+     * so vertices are fetched from memory mostly sequentially. Unused vertices are removed.
+     * @param vertices			interleaved vertices
+     * @param triangles			triangle indices, remapped in place
+     * @param floatsPerVertex	number of floats per vertex
+     * @return reordered vertices
+     */
+    public static float[] optimizeVertexFetch(float[] vertices, int[] triangles, int floatsPerVertex) {
+        int[] remap = new int[vertices.length / floatsPerVertex];
+        Arrays.fill(remap, -1);
+        float[] result = new float[vertices.length];
+        int noOfVertices = 0;
+        for (int i = 0; i < triangles.length; i++) {
+            int vertex = triangles[i];
+            if (remap[vertex] < 0) {
+                System.arraycopy(vertices, vertex * floatsPerVertex, result, noOfVertices * floatsPerVertex,
+                        floatsPerVertex);
+                remap[vertex] = noOfVertices++;
+            }
+            triangles[i] = remap[vertex];
+        }
+        return Arrays.copyOf(result, noOfVertices * floatsPerVertex);
+    }
+}
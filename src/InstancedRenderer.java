@@ -0,0 +1,239 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2GL3;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.util.PMVMatrix;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Renderer drawing many copies (instances) of one mesh with a single
+ * glDrawElementsInstanced call.
+ * The mesh comes from the MeshCache (e.g. MeshCache.acquireBox() or
+ * MeshCache.acquireRoof()), so its buffers are shared with other renderers.
+ * Each instance has its own model matrix and color, stored in a per-instance
+ * vertex buffer (attribute divisor 1). The model matrix of an instance is
+ * applied relative to the model matrix passed to displayInstances(),
+ * the color of an instance is multiplied with the vertex colors of the mesh.
+ */
+public class InstancedRenderer {
+
+    // model matrix (16 floats) and RGBA color (4 floats) per instance
+    public static final int FLOATS_PER_INSTANCE = 16 + 4;
+    // Vertex buffer binding of the instance data (the per-vertex attributes use bindings 0 to 2)
+    static final int INSTANCE_BINDING = 3;
+
+    private int[] vaoInstanced;  // Names of vertex array objects
+    private int[] vboInstanced;	// Names of vertex buffer objects for the instance data
+    private Mesh mesh;          // Shared geometry from the mesh cache
+
+    private final String vertexShaderFileName = "Basic.vert";
+    private final String fragmentShaderFileName = "Basic.frag";
+
+    private ShaderProgram shaderProgram;
+    private ShaderUniform modelMatrixUniform;
+
+    // Instance data as uploaded to the instance buffer
+    private float[] instanceData = new float[16 * FLOATS_PER_INSTANCE];
+    private int noOfInstances = 0;
+    private boolean instanceDataChanged = false;
+    // Size of the instance buffer on the GPU in floats
+    private int instanceBufferCapacity = 0;
+
+    /**
+     * Allocates the buffers for the instance data and acquires the shader program.
+     * The mesh is set with setMesh() afterwards, once the program is linked.
+     * @param drawable	The OpenGL drawable
+     */
+    public void init(GLAutoDrawable drawable) {
+        GL3 gl = drawable.getGL().getGL3();
+
+        // BEGIN: Allocating vertex array objects and buffers
+        vaoInstanced = new int[1];
+        gl.glGenVertexArrays(1, vaoInstanced, 0);
+        if (vaoInstanced[0] < 1)
+            System.err.println("Error allocating vertex array object (VAO).");
+
+        vboInstanced = new int[1];
+        gl.glGenBuffers(1, vboInstanced, 0);
+        if (vboInstanced[0] < 1)
+            System.err.println("Error allocating vertex buffer object (VBO).");
+        // END: Allocating vertex array objects and buffers
+
+        // The instanced permutation of the basic shader reads the per-instance attributes
+        shaderProgram = ShaderProgramRegistry.acquire(gl,
+                vertexShaderFileName, fragmentShaderFileName, "INSTANCED");
+
+        // Switch on back face culling
+        GLStateCache.enable(gl, GL.GL_CULL_FACE);
+        GLStateCache.cullFace(gl, GL.GL_BACK);
+        // Switch on depth test
+        GLStateCache.enable(gl, GL.GL_DEPTH_TEST);
+
+        // defining polygon drawing mode
+        GLStateCache.polygonMode(gl, GL2GL3.GL_LINE);
+    }
+
+    /**
+     * Returns the vertex layout for meshes drawn by this renderer
+     * (the per-vertex attributes read by the instanced shader program).
+     * Waits for the program if it is not linked yet (see ShaderProgram.isReady()).
+     */
+    public VertexLayout getVertexLayout() {
+        return VertexLayout.forProgram(shaderProgram);
+    }
+
+    /**
+     * Sets the mesh to be instanced and resolves the uniform handle of the program.
+     * @param gl	OpenGL context
+     * @param mesh	mesh acquired from the MeshCache (see getVertexLayout()),
+     *              released again in disposeInstances()
+     */
+    public void setMesh(GL3 gl, Mesh mesh) {
+        this.mesh = mesh;
+        modelMatrixUniform = shaderProgram.getUniform("mMatrix");
+
+        // Own VAO on the shared buffers of the mesh plus the instance buffer
+        GLStateCache.bindVertexArray(gl, vaoInstanced[0]);
+        // Per-vertex attributes of the vertex layout of the mesh
+        mesh.setupVertexAttributes(gl);
+
+        setupInstanceAttributes(gl, vboInstanced[0]);
+        GLStateCache.bindVertexArray(gl, 0);
+    }
+
+    /**
+     * Defines the per-instance attributes in the currently bound vertex array object:
+     * model matrix (4 columns at locations 3 to 6) and color (location 7),
+     * FLOATS_PER_INSTANCE floats per instance.
+     * @param gl				OpenGL context
+     * @param instanceBuffer	name of the buffer holding the instance data
+     */
+    static void setupInstanceAttributes(GL3 gl, int instanceBuffer) {
+        GLStateCache.bindBuffer(gl, GL.GL_ARRAY_BUFFER, instanceBuffer);
+        for (int column = 0; column < 4; column++) {
+            gl.glEnableVertexAttribArray(3 + column);
+            gl.glVertexAttribPointer(3 + column, 4, GL.GL_FLOAT, false,
+                    FLOATS_PER_INSTANCE * 4, column * 4 * 4);
+            gl.glVertexAttribDivisor(3 + column, 1);
+        }
+        gl.glEnableVertexAttribArray(7);
+        gl.glVertexAttribPointer(7, 4, GL.GL_FLOAT, false, FLOATS_PER_INSTANCE * 4, 16 * 4);
+        gl.glVertexAttribDivisor(7, 1);
+    }
+
+    /**
+     * Defines the same per-instance attributes as setupInstanceAttributes(), but reading
+     * from vertex buffer binding INSTANCE_BINDING. The buffer and its offset are set
+     * later with glBindVertexBuffer() (e.g. per frame from a PersistentRingBuffer).
+     * @param gl OpenGL context
+     */
+    static void setupInstanceAttributeFormat(GL3 gl) {
+        for (int column = 0; column < 4; column++) {
+            gl.glEnableVertexAttribArray(3 + column);
+            gl.glVertexAttribFormat(3 + column, 4, GL.GL_FLOAT, false, column * 4 * 4);
+            gl.glVertexAttribBinding(3 + column, INSTANCE_BINDING);
+        }
+        gl.glEnableVertexAttribArray(7);
+        gl.glVertexAttribFormat(7, 4, GL.GL_FLOAT, false, 16 * 4);
+        gl.glVertexAttribBinding(7, INSTANCE_BINDING);
+        gl.glVertexBindingDivisor(INSTANCE_BINDING, 1);
+    }
+
+    /**
+     * Adds an instance.
+     * @param modelMatrix	column major 4x4 model matrix of the instance
+     * @param color			RGB color of the instance (multiplied with the vertex colors)
+     * @return index of the instance, to be used with setInstance()
+     */
+    public int addInstance(float[] modelMatrix, float[] color) {
+        if ((noOfInstances + 1) * FLOATS_PER_INSTANCE > instanceData.length)
+            instanceData = Arrays.copyOf(instanceData, instanceData.length * 2);
+        setInstance(noOfInstances, modelMatrix, color);
+        return noOfInstances++;
+    }
+
+    /**
+     * Changes model matrix and color of an existing instance.
+     * The instance buffer is updated on the next call of displayInstances().
+     * @param instanceIndex	index returned by addInstance()
+     * @param modelMatrix	column major 4x4 model matrix of the instance
+     * @param color			RGB color of the instance
+     */
+    public void setInstance(int instanceIndex, float[] modelMatrix, float[] color) {
+        int offset = instanceIndex * FLOATS_PER_INSTANCE;
+        System.arraycopy(modelMatrix, 0, instanceData, offset, 16);
+        instanceData[offset + 16] = color[0];
+        instanceData[offset + 17] = color[1];
+        instanceData[offset + 18] = color[2];
+        instanceData[offset + 19] = 1f;
+        instanceDataChanged = true;
+    }
+
+    /**
+     * Removes all instances.
+     */
+    public void clearInstances() {
+        noOfInstances = 0;
+        instanceDataChanged = true;
+    }
+
+    public int getNoOfInstances() {
+        return noOfInstances;
+    }
+
+    /**
+     * Draws all instances with one draw call.
+     * @param gl		OpenGL context
+     * @param pmvMatrix	its model-view matrix holds the model matrix the instances are placed in
+     */
+    public void displayInstances(GL3 gl, PMVMatrix pmvMatrix) {
+        // Skip drawing while the shader program is still being compiled
+        if (noOfInstances == 0 || !shaderProgram.isReady())
+            return;
+
+        GLStateCache.useProgram(gl, shaderProgram.getShaderProgramID());
+        // Projection and view matrix are in the camera uniform buffer
+        modelMatrixUniform.set(gl, pmvMatrix.glGetMvMatrixf());
+        GLStateCache.bindVertexArray(gl, vaoInstanced[0]);
+        if (instanceDataChanged)
+            uploadInstanceData(gl);
+        gl.glDrawElementsInstanced(mesh.getDrawMode(), mesh.getNoOfIndices(),
+                mesh.getIndexType(), 0, noOfInstances);
+    }
+
+    /**
+     * Transfers the instance data to the GPU. The buffer is reallocated only
+     * if it has to grow, otherwise it is updated in place.
+     */
+    private void uploadInstanceData(GL3 gl) {
+        int noOfFloats = noOfInstances * FLOATS_PER_INSTANCE;
+        GLStateCache.bindBuffer(gl, GL.GL_ARRAY_BUFFER, vboInstanced[0]);
+        if (noOfFloats > instanceBufferCapacity) {
+            instanceBufferCapacity = instanceData.length;
+            gl.glBufferData(GL.GL_ARRAY_BUFFER, instanceBufferCapacity * 4L,
+                    FloatBuffer.wrap(instanceData), GL.GL_DYNAMIC_DRAW);
+        } else {
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, noOfFloats * 4L,
+                    FloatBuffer.wrap(instanceData, 0, noOfFloats));
+        }
+        instanceDataChanged = false;
+    }
+
+    public void disposeInstances(GLAutoDrawable drawable) {
+        GL3 gl = drawable.getGL().getGL3();
+
+        // Detach and release shader program
+        GLStateCache.useProgram(gl, 0);
+        ShaderProgramRegistry.release(shaderProgram);
+        // Release the shared mesh
+        if (mesh != null)
+            MeshCache.release(gl, mesh);
+
+        // delete VAO and instance buffer
+        GLStateCache.bindVertexArray(gl, 0);
+        GLStateCache.deleteVertexArrays(gl, 1, vaoInstanced, 0);
+        GLStateCache.deleteBuffers(gl, 1, vboInstanced, 0);
+    }
+}
@@ -0,0 +1,75 @@
+import com.jogamp.opengl.GL3;
+
+/**
+ * Discrete levels of detail of one shape: meshes of decreasing resolution
+ * (level 0 is the finest) together with the projected screen space radius
+ * below which each coarser level is used (see LodSelector).
+ * The meshes are shared through the MeshCache.
+ */
+public class LodChain {
+
+    // Segments of the levels of spheres and cones
+    public static final int[] DEFAULT_RESOLUTIONS = {64, 32, 16, 8};
+    // Screen space radius (pixels) below which levels 1, 2 and 3 are used
+    public static final float[] DEFAULT_SWITCH_RADII = {120f, 50f, 20f};
+
+    private final Mesh[] levels;
+    private final float[] switchRadii;
+
+    /**
+     * @param levels		meshes starting with the finest level
+     * @param switchRadii	screen space radius in pixels below which level i + 1 is used,
+     *                      descending, one entry less than levels
+     */
+    public LodChain(Mesh[] levels, float[] switchRadii) {
+        if (switchRadii.length != levels.length - 1)
+            System.err.println("LOD chain needs " + (levels.length - 1) + " switch radii.");
+        this.levels = levels;
+        this.switchRadii = switchRadii;
+    }
+
+    /**
+     * Creates the levels of a sphere (see MeshCache.acquireSphere()) with the
+     * same number of vertical and horizontal segments per level.
+     */
+    public static LodChain makeSphere(GL3 gl, VertexLayout layout, int[] resolutions, float radius, float[] color) {
+        Mesh[] levels = new Mesh[resolutions.length];
+        for (int level = 0; level < levels.length; level++)
+            levels[level] = MeshCache.acquireSphere(gl, layout, resolutions[level], resolutions[level], radius, color);
+        return new LodChain(levels, DEFAULT_SWITCH_RADII);
+    }
+
+    /**
+     * Creates the levels of a cone (see MeshCache.acquireCone()).
+     */
+    public static LodChain makeCone(GL3 gl, VertexLayout layout, int[] resolutions,
+                                    float radiusTop, float radiusBottom, float length, float[] color) {
+        Mesh[] levels = new Mesh[resolutions.length];
+        for (int level = 0; level < levels.length; level++)
+            levels[level] = MeshCache.acquireCone(gl, layout, resolutions[level], radiusTop, radiusBottom, length, color);
+        return new LodChain(levels, DEFAULT_SWITCH_RADII);
+    }
+
+    public int getNoOfLevels() {
+        return levels.length;
+    }
+
+    public Mesh getMesh(int level) {
+        return levels[level];
+    }
+
+    /**
+     * Returns the screen space radius in pixels below which level + 1 is used.
+     */
+    public float getSwitchRadius(int level) {
+        return switchRadii[level];
+    }
+
+    /**
+     * Releases the meshes of all levels.
+     */
+    public void release(GL3 gl) {
+        for (Mesh mesh : levels)
+            MeshCache.release(gl, mesh);
+    }
+}
@@ -0,0 +1,103 @@
+import com.jogamp.opengl.math.FloatUtil;
+
+/**
+ * Selects the level of detail of objects from their projected screen space radius.
+ * The bounding sphere of the finest mesh, placed by the model matrix of the object,
+ * is projected with the current projection and viewport height.
+ * A level changes only if the radius leaves the switch radius by more than HYSTERESIS,
+ * so objects near a switch radius do not flicker between two levels.
+ * Counts the triangles submitted in the current frame and the triangles the same
+ * objects would have cost at level 0.
+ * All matrices are column major 4x4 matrices as used by OpenGL and PMVMatrix.
+ */
+public class LodSelector {
+
+    // Relative distance to a switch radius needed for changing the level
+    private static final float HYSTERESIS = 0.15f;
+
+    // Pixels per world unit at distance 1 from the camera
+    private float pixelsPerUnit = 1f;
+    private final float[] cameraPosition = new float[3];
+    private final float[] inverseViewMatrix = new float[16];
+
+    // Statistics of the current frame
+    private long noOfSubmittedTriangles;
+    private long noOfLevel0Triangles;
+
+    /**
+     * Starts a new frame. To be called once per frame after the camera has been set.
+     * @param projectionMatrix	perspective projection matrix
+     * @param viewMatrix		view matrix
+     * @param viewportHeight	height of the viewport in pixels
+     */
+    public void update(float[] projectionMatrix, float[] viewMatrix, int viewportHeight) {
+        // projectionMatrix[5] = cot(fovy / 2)
+        pixelsPerUnit = projectionMatrix[5] * viewportHeight * 0.5f;
+        FloatUtil.invertMatrix(viewMatrix, inverseViewMatrix);
+        System.arraycopy(inverseViewMatrix, 12, cameraPosition, 0, 3);
+        noOfSubmittedTriangles = 0;
+        noOfLevel0Triangles = 0;
+    }
+
+    /**
+     * Returns the radius of the bounding sphere of a mesh on the screen in pixels.
+     * Objects around the camera get an infinite radius.
+     */
+    public float getScreenRadius(Mesh mesh, float[] modelMatrix) {
+        float[] min = mesh.getBoundsMin();
+        float[] max = mesh.getBoundsMax();
+        float maxScale = 0f;
+        for (int column = 0; column < 3; column++) {
+            float scale = 0f;
+            for (int row = 0; row < 3; row++)
+                scale += modelMatrix[column * 4 + row] * modelMatrix[column * 4 + row];
+            maxScale = Math.max(maxScale, scale);
+        }
+        float distanceSquared = 0f;
+        for (int row = 0; row < 3; row++) {
+            float center = modelMatrix[12 + row];
+            for (int column = 0; column < 3; column++)
+                center += modelMatrix[column * 4 + row] * (min[column] + max[column]) * 0.5f;
+            float d = center - cameraPosition[row];
+            distanceSquared += d * d;
+        }
+        float radius = mesh.getBoundingRadius() * (float) Math.sqrt(maxScale);
+        float distance = (float) Math.sqrt(distanceSquared);
+        if (distance <= radius)
+            return Float.POSITIVE_INFINITY;
+        return radius * pixelsPerUnit / distance;
+    }
+
+    /**
+     * Selects the level of an object and counts its triangles.
+     * @param chain			levels of the shape of the object
+     * @param currentLevel	level selected for the object in the previous frame
+     * @param modelMatrix	model matrix of the object
+     * @return level to be drawn in this frame
+     */
+    public int selectLevel(LodChain chain, int currentLevel, float[] modelMatrix) {
+        float radius = getScreenRadius(chain.getMesh(0), modelMatrix);
+        int level = Math.min(currentLevel, chain.getNoOfLevels() - 1);
+        while (level < chain.getNoOfLevels() - 1 && radius < chain.getSwitchRadius(level) * (1f - HYSTERESIS))
+            level++;
+        while (level > 0 && radius > chain.getSwitchRadius(level - 1) * (1f + HYSTERESIS))
+            level--;
+        noOfSubmittedTriangles += chain.getMesh(level).getNoOfTriangles();
+        noOfLevel0Triangles += chain.getMesh(0).getNoOfTriangles();
+        return level;
+    }
+
+    /**
+     * Returns the triangles of the levels selected in the current frame.
+     */
+    public long getNoOfSubmittedTriangles() {
+        return noOfSubmittedTriangles;
+    }
+
+    /**
+     * Returns the triangles of the same objects if all were drawn at level 0.
+     */
+    public long getNoOfLevel0Triangles() {
+        return noOfLevel0Triangles;
+    }
+}
@@ -0,0 +1,331 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loose octree over axis aligned bounding boxes (world coordinates) of scene objects.
+ * The loose bounds of a cell are twice the size of the cell, so an object is stored in
+ * the deepest cell whose size is at least the size of the object and which contains the
+ * center of the object. Inserting, moving and removing an object therefore never touches
+ * more than one path of the tree, and moving an object inside the loose bounds of its cell
+ * costs nothing but copying its bounds.
+ * Objects beyond the bounds of the root are kept in the root cell.
+ * Cells are created on demand and removed when their subtree gets empty.
+ * @param <T> type of the stored objects
+ */
+public class LooseOctree<T> {
+
+    /**
+     * Handle of an object in the tree, returned by insert().
+     */
+    public static class Entry<T> {
+        private final T object;
+        private final float[] min = new float[3];
+        private final float[] max = new float[3];
+        private Cell<T> cell;
+        private int indexInCell;
+
+        private Entry(T object) {
+            this.object = object;
+        }
+
+        public T getObject() {
+            return object;
+        }
+    }
+
+    private static class Cell<T> {
+        private final float[] center;
+        private final float halfSize;  // half size of the cell, the loose bounds are twice as large
+        private final int depth;
+        private final Cell<T> parent;
+        private final int octant;  // index in the children of the parent
+        private Cell<T>[] children;
+        private final List<Entry<T>> entries = new ArrayList<>();
+        private int noOfEntriesInSubtree = 0;
+
+        private Cell(float[] center, float halfSize, int depth, Cell<T> parent, int octant) {
+            this.center = center;
+            this.halfSize = halfSize;
+            this.depth = depth;
+            this.parent = parent;
+            this.octant = octant;
+        }
+    }
+
+    private final Cell<T> root;
+    private final int maxDepth;
+    private int noOfEntries = 0;
+    private int noOfCells = 1;
+    private int noOfVisitedCells = 0;
+
+    // Bounds of the entry tested last (center and half extent)
+    private final float[] entryCenter = new float[3];
+    private final float[] entryExtent = new float[3];
+
+    /**
+     * @param center	center of the root cell
+     * @param halfSize	half edge length of the root cell (world size / 2)
+     * @param maxDepth	depth of the smallest cells (root has depth 0)
+     */
+    public LooseOctree(float[] center, float halfSize, int maxDepth) {
+        this.root = new Cell<>(center.clone(), halfSize, 0, null, 0);
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Inserts an object.
+     * @param object	object to be stored
+     * @param min		minimum corner of its bounding box
+     * @param max		maximum corner of its bounding box
+     * @return handle for move() and remove()
+     */
+    public Entry<T> insert(T object, float[] min, float[] max) {
+        Entry<T> entry = new Entry<>(object);
+        setBounds(entry, min, max);
+        addToCell(entry, findCell(entry));
+        noOfEntries++;
+        return entry;
+    }
+
+    /**
+     * Updates the bounds of an object after it has moved or changed its size.
+     * The object changes its cell only if it left the loose bounds of its cell
+     * or fits into a smaller cell.
+     */
+    public void move(Entry<T> entry, float[] min, float[] max) {
+        setBounds(entry, min, max);
+        Cell<T> cell = entry.cell;
+        if (cell == root ? !fitsIntoChild(entry, cell) : fitsLoosely(entry, cell) && !fitsIntoChild(entry, cell))
+            return;
+        removeFromCell(entry);
+        addToCell(entry, findCell(entry));
+    }
+
+    public void remove(Entry<T> entry) {
+        if (entry.cell == null)
+            return;
+        removeFromCell(entry);
+        noOfEntries--;
+    }
+
+    /**
+     * Adds all objects whose bounding box is not completely outside of the view frustum.
+     * Cells completely inside the frustum are added without testing their objects.
+     */
+    public void queryFrustum(ViewFrustum frustum, List<T> result) {
+        noOfVisitedCells = 0;
+        queryFrustum(root, frustum, false, result);
+    }
+
+    private void queryFrustum(Cell<T> cell, ViewFrustum frustum, boolean inside, List<T> result) {
+        if (cell.noOfEntriesInSubtree == 0)
+            return;
+        noOfVisitedCells++;
+        if (!inside && cell != root) {
+            float looseSize = 2f * cell.halfSize;
+            int classification = frustum.classifyBox(cell.center[0], cell.center[1], cell.center[2],
+                    looseSize, looseSize, looseSize);
+            if (classification == ViewFrustum.OUTSIDE)
+                return;
+            inside = classification == ViewFrustum.INSIDE;
+        }
+        for (Entry<T> entry : cell.entries) {
+            if (inside) {
+                result.add(entry.object);
+                continue;
+            }
+            computeCenterAndExtent(entry);
+            if (frustum.classifyBox(entryCenter[0], entryCenter[1], entryCenter[2],
+                    entryExtent[0], entryExtent[1], entryExtent[2]) != ViewFrustum.OUTSIDE)
+                result.add(entry.object);
+        }
+        if (cell.children != null)
+            for (Cell<T> child : cell.children)
+                if (child != null)
+                    queryFrustum(child, frustum, inside, result);
+    }
+
+    /**
+     * Adds all objects whose bounding box intersects a sphere.
+     */
+    public void querySphere(float[] center, float radius, List<T> result) {
+        noOfVisitedCells = 0;
+        querySphere(root, center, radius, result);
+    }
+
+    private void querySphere(Cell<T> cell, float[] center, float radius, List<T> result) {
+        if (cell.noOfEntriesInSubtree == 0)
+            return;
+        noOfVisitedCells++;
+        if (cell != root) {
+            float looseSize = 2f * cell.halfSize;
+            float distanceSquared = 0f;
+            for (int i = 0; i < 3; i++) {
+                float d = Math.max(Math.abs(center[i] - cell.center[i]) - looseSize, 0f);
+                distanceSquared += d * d;
+            }
+            if (distanceSquared > radius * radius)
+                return;
+        }
+        for (Entry<T> entry : cell.entries) {
+            float distanceSquared = 0f;
+            for (int i = 0; i < 3; i++) {
+                float d = Math.max(entry.min[i] - center[i], 0f) + Math.max(center[i] - entry.max[i], 0f);
+                distanceSquared += d * d;
+            }
+            if (distanceSquared <= radius * radius)
+                result.add(entry.object);
+        }
+        if (cell.children != null)
+            for (Cell<T> child : cell.children)
+                if (child != null)
+                    querySphere(child, center, radius, result);
+    }
+
+    /**
+     * Adds all objects whose bounding box intersects a box.
+     */
+    public void queryBox(float[] min, float[] max, List<T> result) {
+        noOfVisitedCells = 0;
+        queryBox(root, min, max, result);
+    }
+
+    private void queryBox(Cell<T> cell, float[] min, float[] max, List<T> result) {
+        if (cell.noOfEntriesInSubtree == 0)
+            return;
+        noOfVisitedCells++;
+        if (cell != root) {
+            float looseSize = 2f * cell.halfSize;
+            for (int i = 0; i < 3; i++)
+                if (min[i] > cell.center[i] + looseSize || max[i] < cell.center[i] - looseSize)
+                    return;
+        }
+        for (Entry<T> entry : cell.entries) {
+            boolean overlapping = true;
+            for (int i = 0; i < 3 && overlapping; i++)
+                overlapping = min[i] <= entry.max[i] && max[i] >= entry.min[i];
+            if (overlapping)
+                result.add(entry.object);
+        }
+        if (cell.children != null)
+            for (Cell<T> child : cell.children)
+                if (child != null)
+                    queryBox(child, min, max, result);
+    }
+
+    public int size() {
+        return noOfEntries;
+    }
+
+    public int getNoOfCells() {
+        return noOfCells;
+    }
+
+    /**
+     * Returns the number of cells visited by the last query.
+     */
+    public int getNoOfVisitedCells() {
+        return noOfVisitedCells;
+    }
+
+    // BEGIN: Placement of entries
+    private static <T> void setBounds(Entry<T> entry, float[] min, float[] max) {
+        System.arraycopy(min, 0, entry.min, 0, 3);
+        System.arraycopy(max, 0, entry.max, 0, 3);
+    }
+
+    private void computeCenterAndExtent(Entry<T> entry) {
+        for (int i = 0; i < 3; i++) {
+            entryCenter[i] = (entry.min[i] + entry.max[i]) * 0.5f;
+            entryExtent[i] = (entry.max[i] - entry.min[i]) * 0.5f;
+        }
+    }
+
+    /**
+     * Tests if the bounds of an entry are inside the loose bounds of a cell.
+     */
+    private boolean fitsLoosely(Entry<T> entry, Cell<T> cell) {
+        float looseSize = 2f * cell.halfSize;
+        for (int i = 0; i < 3; i++)
+            if (entry.min[i] < cell.center[i] - looseSize || entry.max[i] > cell.center[i] + looseSize)
+                return false;
+        return true;
+    }
+
+    /**
+     * Tests if an entry belongs into a child of the cell.
+     */
+    private boolean fitsIntoChild(Entry<T> entry, Cell<T> cell) {
+        if (cell.depth == maxDepth)
+            return false;
+        int octant = getOctant(entry, cell);
+        float childHalfSize = cell.halfSize * 0.5f;
+        float looseSize = 2f * childHalfSize;
+        for (int i = 0; i < 3; i++) {
+            float childCenter = cell.center[i] + (((octant >> i) & 1) == 1 ? childHalfSize : -childHalfSize);
+            if (entry.min[i] < childCenter - looseSize || entry.max[i] > childCenter + looseSize)
+                return false;
+        }
+        return true;
+    }
+
+    private int getOctant(Entry<T> entry, Cell<T> cell) {
+        int octant = 0;
+        for (int i = 0; i < 3; i++)
+            if ((entry.min[i] + entry.max[i]) * 0.5f >= cell.center[i])
+                octant |= 1 << i;
+        return octant;
+    }
+
+    /**
+     * Descends from the root as long as the entry fits into the loose bounds of the child
+     * containing its center. Creates missing cells on the way.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Cell<T> findCell(Entry<T> entry) {
+        Cell<T> cell = root;
+        while (fitsIntoChild(entry, cell)) {
+            int octant = getOctant(entry, cell);
+            if (cell.children == null)
+                cell.children = (Cell<T>[]) new Cell[8];
+            if (cell.children[octant] == null) {
+                float childHalfSize = cell.halfSize * 0.5f;
+                float[] childCenter = new float[3];
+                for (int i = 0; i < 3; i++)
+                    childCenter[i] = cell.center[i] + (((octant >> i) & 1) == 1 ? childHalfSize : -childHalfSize);
+                cell.children[octant] = new Cell<>(childCenter, childHalfSize, cell.depth + 1, cell, octant);
+                noOfCells++;
+            }
+            cell = cell.children[octant];
+        }
+        return cell;
+    }
+
+    private void addToCell(Entry<T> entry, Cell<T> cell) {
+        entry.cell = cell;
+        entry.indexInCell = cell.entries.size();
+        cell.entries.add(entry);
+        for (Cell<T> c = cell; c != null; c = c.parent)
+            c.noOfEntriesInSubtree++;
+    }
+
+    private void removeFromCell(Entry<T> entry) {
+        Cell<T> cell = entry.cell;
+        // Swap with the last entry of the cell
+        Entry<T> last = cell.entries.remove(cell.entries.size() - 1);
+        if (last != entry) {
+            cell.entries.set(entry.indexInCell, last);
+            last.indexInCell = entry.indexInCell;
+        }
+        entry.cell = null;
+        for (Cell<T> c = cell; c != null; c = c.parent)
+            c.noOfEntriesInSubtree--;
+        // Remove cells with empty subtrees
+        while (cell != root && cell.noOfEntriesInSubtree == 0) {
+            cell.parent.children[cell.octant] = null;
+            noOfCells--;
+            cell = cell.parent;
+        }
+    }
+    // END: Placement of entries
+}
@@ -0,0 +1,172 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One vertex buffer and one index buffer holding the geometry of several meshes.
+ * Each mesh occupies a range of both buffers, described by its first index
+ * and its base vertex, so the indices of the meshes keep their original values
+ * and all meshes can be drawn from one vertex array object, e.g. with
+ * glMultiDrawElementsIndirect.
+ * The buffers are filled on the GPU by copying from the (cached) meshes.
+ * The merged indices use the largest index type of the meshes, indices of
+ * meshes with a smaller type are widened on the CPU.
+ * All meshes have to use the same vertex layout.
+ */
+public class MergedGeometryBuffer {
+
+    private final List<Mesh> meshes = new ArrayList<>();
+    private int[] firstIndices = new int[0];
+    private int[] baseVertices = new int[0];
+
+    private final int[] vbo = new int[1];  // Name of the merged vertex buffer object
+    private final int[] ibo = new int[1];  // Name of the merged index buffer object
+    private int drawMode = -1;
+    private int indexType = GL.GL_UNSIGNED_BYTE;
+    private VertexLayout vertexLayout = VertexLayout.DEFAULT;
+
+    /**
+     * Adds a mesh. All meshes have to use the same draw mode and vertex layout.
+     * Must be called before upload().
+     * @param mesh mesh whose buffers are copied into the merged buffers
+     * @return index of the mesh in this buffer
+     */
+    public int addMesh(Mesh mesh) {
+        if (drawMode < 0)
+            drawMode = mesh.getDrawMode();
+        else if (drawMode != mesh.getDrawMode())
+            System.err.println("Merged meshes must use the same draw mode.");
+        if (meshes.isEmpty())
+            vertexLayout = mesh.getVertexLayout();
+        else if (!vertexLayout.equals(mesh.getVertexLayout()))
+            System.err.println("Merged meshes must use the same vertex layout.");
+        if (Mesh.getIndexSize(mesh.getIndexType()) > Mesh.getIndexSize(indexType))
+            indexType = mesh.getIndexType();
+        meshes.add(mesh);
+        return meshes.size() - 1;
+    }
+
+    /**
+     * Allocates the merged buffers and copies the buffers of all meshes into them.
+     * @param gl OpenGL context
+     */
+    public void upload(GL3 gl) {
+        int noOfMeshes = meshes.size();
+        firstIndices = new int[noOfMeshes];
+        baseVertices = new int[noOfMeshes];
+        int noOfVertices = 0;
+        int noOfIndices = 0;
+        for (int i = 0; i < noOfMeshes; i++) {
+            Mesh mesh = meshes.get(i);
+            firstIndices[i] = noOfIndices;
+            baseVertices[i] = noOfVertices;
+            noOfIndices += mesh.getNoOfIndices();
+            noOfVertices += mesh.getNoOfVertices();
+        }
+        int stride = vertexLayout.getStride();
+        long vertexBytes = (long) noOfVertices * stride;
+        int indexSize = Mesh.getIndexSize(indexType);
+        long indexBytes = (long) noOfIndices * indexSize;
+
+        gl.glGenBuffers(1, vbo, 0);
+        gl.glGenBuffers(1, ibo, 0);
+        if (vbo[0] < 1 || ibo[0] < 1)
+            System.err.println("Error allocating merged vertex/index buffer objects.");
+
+        // Allocate without data, the contents are copied from the meshes
+        GLStateCache.bindBuffer(gl, GL2ES3.GL_COPY_WRITE_BUFFER, vbo[0]);
+        gl.glBufferData(GL2ES3.GL_COPY_WRITE_BUFFER, vertexBytes, null, GL.GL_STATIC_DRAW);
+        for (int i = 0; i < noOfMeshes; i++) {
+            Mesh mesh = meshes.get(i);
+            GLStateCache.bindBuffer(gl, GL2ES3.GL_COPY_READ_BUFFER, mesh.getVertexBufferName());
+            gl.glCopyBufferSubData(GL2ES3.GL_COPY_READ_BUFFER, GL2ES3.GL_COPY_WRITE_BUFFER, 0,
+                    (long) baseVertices[i] * stride, (long) mesh.getNoOfVertices() * stride);
+        }
+
+        GLStateCache.bindBuffer(gl, GL2ES3.GL_COPY_WRITE_BUFFER, ibo[0]);
+        gl.glBufferData(GL2ES3.GL_COPY_WRITE_BUFFER, indexBytes, null, GL.GL_STATIC_DRAW);
+        for (int i = 0; i < noOfMeshes; i++) {
+            Mesh mesh = meshes.get(i);
+            GLStateCache.bindBuffer(gl, GL2ES3.GL_COPY_READ_BUFFER, mesh.getIndexBufferName());
+            if (mesh.getIndexType() == indexType)
+                gl.glCopyBufferSubData(GL2ES3.GL_COPY_READ_BUFFER, GL2ES3.GL_COPY_WRITE_BUFFER, 0,
+                        (long) firstIndices[i] * indexSize, (long) mesh.getNoOfIndices() * indexSize);
+            else
+                gl.glBufferSubData(GL2ES3.GL_COPY_WRITE_BUFFER, (long) firstIndices[i] * indexSize,
+                        (long) mesh.getNoOfIndices() * indexSize, Mesh.convertIndices(readIndices(gl, mesh), indexType));
+        }
+        GLStateCache.bindBuffer(gl, GL2ES3.GL_COPY_READ_BUFFER, 0);
+        GLStateCache.bindBuffer(gl, GL2ES3.GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    /**
+     * Reads the indices of a mesh from its index buffer (bound to GL_COPY_READ_BUFFER)
+     * as ints, restart indices as -1.
+     */
+    private static int[] readIndices(GL3 gl, Mesh mesh) {
+        int size = Mesh.getIndexSize(mesh.getIndexType());
+        ByteBuffer data = ByteBuffer.allocateDirect(mesh.getNoOfIndices() * size).order(ByteOrder.nativeOrder());
+        gl.glGetBufferSubData(GL2ES3.GL_COPY_READ_BUFFER, 0, data.capacity(), data);
+        int[] indices = new int[mesh.getNoOfIndices()];
+        for (int i = 0; i < indices.length; i++) {
+            if (size == 1)
+                indices[i] = data.get(i) == (byte) 0xFF ? Mesh.PRIMITIVE_RESTART_INDEX : data.get(i) & 0xFF;
+            else
+                indices[i] = data.getShort(i * 2) == (short) 0xFFFF ? Mesh.PRIMITIVE_RESTART_INDEX
+                        : data.getShort(i * 2) & 0xFFFF;
+        }
+        return indices;
+    }
+
+    /**
+     * Binds the merged buffers to the currently bound vertex array object
+     * and defines the per-vertex attributes of the vertex layout (locations 0 to 2).
+     * @param gl OpenGL context
+     */
+    public void setupVertexAttributes(GL3 gl) {
+        GLStateCache.bindBuffer(gl, GL.GL_ARRAY_BUFFER, vbo[0]);
+        GLStateCache.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, ibo[0]);
+        vertexLayout.setupAttributes(gl);
+    }
+
+    public void delete(GL3 gl) {
+        GLStateCache.deleteBuffers(gl, 1, vbo, 0);
+        GLStateCache.deleteBuffers(gl, 1, ibo, 0);
+    }
+
+    public int getNoOfMeshes() {
+        return meshes.size();
+    }
+
+    public Mesh getMesh(int meshIndex) {
+        return meshes.get(meshIndex);
+    }
+
+    public int getFirstIndex(int meshIndex) {
+        return firstIndices[meshIndex];
+    }
+
+    public int getBaseVertex(int meshIndex) {
+        return baseVertices[meshIndex];
+    }
+
+    public int getNoOfIndices(int meshIndex) {
+        return meshes.get(meshIndex).getNoOfIndices();
+    }
+
+    /**
+     * Returns the type of the merged indices for the draw calls.
+     */
+    public int getIndexType() {
+        return indexType;
+    }
+
+    public int getDrawMode() {
+        return drawMode;
+    }
+}
@@ -0,0 +1,304 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Geometry of one shape stored on the GPU: vertex array object,
+ * vertex buffer and index buffer, plus everything needed for the draw call.
+ * The interleaved float vertices of the shape generators (position (3), color (3),
+ * normal (3)) are packed for the upload, keeping only the attributes of the vertex layout
+ * (see VertexLayout and VertexFormat).
+ * Indices are stored with the smallest type that can address all vertices
+ * (GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT or GL_UNSIGNED_INT). Strips may be separated by
+ * PRIMITIVE_RESTART_INDEX, which becomes the largest value of the index type
+ * (GL_PRIMITIVE_RESTART_FIXED_INDEX has to be enabled, see enablePrimitiveRestart()).
+ * Meshes are usually obtained from the MeshCache and shared between renderers.
+ */
+public class Mesh {
+
+    // floats per vertex: 3 position coordinates, 3 color coordinates, 3 normal coordinates
+    public static final int FLOATS_PER_VERTEX = 3 + 3 + 3;
+    // Index in the index arrays of the generators separating two triangle strips
+    public static final int PRIMITIVE_RESTART_INDEX = -1;
+    // Vertex format of meshes created without an explicit layout
+    public static final VertexFormat DEFAULT_VERTEX_FORMAT = VertexFormat.PACKED_HALF;
+
+    private final int[] vao = new int[1];  // Name of the vertex array object
+    private final int[] vbo = new int[1];  // Name of the vertex buffer object
+    private final int[] ibo = new int[1];  // Name of the index buffer object
+
+    private final int drawMode;
+    private final int noOfIndices;
+    private final int noOfVertices;
+    private final int indexType;
+    private final VertexLayout vertexLayout;
+
+    // Bounds in object coordinates: axis aligned box and sphere around the center of the box
+    private final float[] boundsMin = new float[3];
+    private final float[] boundsMax = new float[3];
+    private float boundingRadius;
+
+    // BEGIN: Bookkeeping of the MeshCache
+    final String cacheKey;
+    int referenceCount;
+    // END: Bookkeeping of the MeshCache
+
+    /**
+     * Uploads vertices and indices to new GPU buffers, storing all attributes
+     * in the default vertex format.
+     * @param gl		OpenGL context
+     * @param cacheKey	key in the MeshCache or null for meshes not managed by the cache
+     * @param vertices	interleaved vertices (position, color, normal)
+     * @param indices	indices into the vertex array
+     * @param drawMode	primitive type, e.g. GL.GL_TRIANGLE_STRIP
+     */
+    public Mesh(GL3 gl, String cacheKey, float[] vertices, int[] indices, int drawMode) {
+        this(gl, cacheKey, vertices, VertexLayout.DEFAULT, indices, drawMode);
+    }
+
+    /**
+     * Packs the vertices and uploads vertices and indices to new GPU buffers.
+     * @param gl			OpenGL context
+     * @param cacheKey		key in the MeshCache or null for meshes not managed by the cache
+     * @param vertices		interleaved vertices (position, color, normal)
+     * @param vertexLayout	layout of the vertices in the vertex buffer
+     * @param indices		indices into the vertex array
+     * @param drawMode		primitive type, e.g. GL.GL_TRIANGLE_STRIP
+     */
+    public Mesh(GL3 gl, String cacheKey, float[] vertices, VertexLayout vertexLayout, int[] indices, int drawMode) {
+        this.cacheKey = cacheKey;
+        this.vertexLayout = vertexLayout;
+        this.drawMode = drawMode;
+        this.noOfIndices = indices.length;
+        this.noOfVertices = vertices.length / FLOATS_PER_VERTEX;
+        this.indexType = selectIndexType(indices);
+        computeBounds(vertices);
+
+        gl.glGenVertexArrays(1, vao, 0);
+        if (vao[0] < 1)
+            System.err.println("Error allocating vertex array object (VAO).");
+        gl.glGenBuffers(1, vbo, 0);
+        if (vbo[0] < 1)
+            System.err.println("Error allocating vertex buffer object (VBO).");
+        gl.glGenBuffers(1, ibo, 0);
+        if (ibo[0] < 1)
+            System.err.println("Error allocating index buffer object.");
+
+        // The index buffer binding is part of the VAO state, so bind the VAO first
+        GLStateCache.bindVertexArray(gl, vao[0]);
+
+        // activate and initialize vertex buffer object (VBO)
+        GLStateCache.bindBuffer(gl, GL.GL_ARRAY_BUFFER, vbo[0]);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) noOfVertices * vertexLayout.getStride(),
+                vertexLayout.pack(vertices), GL.GL_STATIC_DRAW);
+
+        // activate and initialize index buffer object (IBO)
+        GLStateCache.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, ibo[0]);
+        gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, (long) indices.length * getIndexSize(indexType),
+                convertIndices(indices, indexType), GL.GL_STATIC_DRAW);
+
+        setupVertexAttributes(gl);
+        GLStateCache.bindVertexArray(gl, 0);
+    }
+
+    /**
+     * Returns the smallest index type for the indices. The largest value of a type
+     * is reserved for the primitive restart index.
+     */
+    static int selectIndexType(int[] indices) {
+        int maxIndex = 0;
+        for (int index : indices)
+            maxIndex = Math.max(maxIndex, index);
+        if (maxIndex < 0xFF)
+            return GL.GL_UNSIGNED_BYTE;
+        if (maxIndex < 0xFFFF)
+            return GL.GL_UNSIGNED_SHORT;
+        return GL.GL_UNSIGNED_INT;
+    }
+
+    /**
+     * Returns the number of bytes of an index type.
+     */
+    static int getIndexSize(int indexType) {
+        switch (indexType) {
+            case GL.GL_UNSIGNED_BYTE:
+                return 1;
+            case GL.GL_UNSIGNED_SHORT:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Converts indices to a buffer of an index type. The restart index (-1)
+     * becomes the largest value of the type.
+     */
+    static Buffer convertIndices(int[] indices, int indexType) {
+        switch (indexType) {
+            case GL.GL_UNSIGNED_BYTE:
+                ByteBuffer bytes = ByteBuffer.allocate(indices.length);
+                for (int index : indices)
+                    bytes.put((byte) index);
+                bytes.flip();
+                return bytes;
+            case GL.GL_UNSIGNED_SHORT:
+                ShortBuffer shorts = ShortBuffer.allocate(indices.length);
+                for (int index : indices)
+                    shorts.put((short) index);
+                shorts.flip();
+                return shorts;
+            default:
+                return IntBuffer.wrap(indices);
+        }
+    }
+
+    /**
+     * Enables primitive restart at the largest value of the index type,
+     * used by the triangle strips of the shape generators.
+     * Part of the context state, to be called once during init.
+     * @param gl OpenGL context
+     */
+    public static void enablePrimitiveRestart(GL3 gl) {
+        GLStateCache.enable(gl, GL2ES3.GL_PRIMITIVE_RESTART_FIXED_INDEX);
+    }
+
+    /**
+     * Computes the bounding box and the bounding sphere from the vertex positions
+     * (e.g. the half extents of a box, the radius of a sphere).
+     */
+    private void computeBounds(float[] vertices) {
+        for (int i = 0; i < 3; i++) {
+            boundsMin[i] = Float.POSITIVE_INFINITY;
+            boundsMax[i] = Float.NEGATIVE_INFINITY;
+        }
+        for (int v = 0; v < vertices.length; v += FLOATS_PER_VERTEX) {
+            for (int i = 0; i < 3; i++) {
+                boundsMin[i] = Math.min(boundsMin[i], vertices[v + i]);
+                boundsMax[i] = Math.max(boundsMax[i], vertices[v + i]);
+            }
+        }
+        float maxDistanceSquared = 0f;
+        for (int v = 0; v < vertices.length; v += FLOATS_PER_VERTEX) {
+            float distanceSquared = 0f;
+            for (int i = 0; i < 3; i++) {
+                float d = vertices[v + i] - (boundsMin[i] + boundsMax[i]) * 0.5f;
+                distanceSquared += d * d;
+            }
+            maxDistanceSquared = Math.max(maxDistanceSquared, distanceSquared);
+        }
+        boundingRadius = (float) Math.sqrt(maxDistanceSquared);
+    }
+
+    /**
+     * Binds the buffers of this mesh to the currently bound vertex array object
+     * and defines the per-vertex attributes of the vertex layout (locations 0 to 2).
+     * Used for the VAO of the mesh and by renderers that need an own VAO
+     * with additional attributes on the shared buffers (e.g. instancing).
+     * @param gl OpenGL context
+     */
+    public void setupVertexAttributes(GL3 gl) {
+        GLStateCache.bindBuffer(gl, GL.GL_ARRAY_BUFFER, vbo[0]);
+        GLStateCache.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, ibo[0]);
+        vertexLayout.setupAttributes(gl);
+    }
+
+    /**
+     * Binds the vertex array object and draws the elements in the order
+     * defined by the index buffer object (IBO).
+     * The shader program has to be in use already.
+     * @param gl OpenGL context
+     */
+    public void draw(GL3 gl) {
+        GLStateCache.bindVertexArray(gl, vao[0]);
+        gl.glDrawElements(drawMode, noOfIndices, indexType, 0);
+    }
+
+    /**
+     * Deletes the GPU buffers of the mesh.
+     * @param gl OpenGL context
+     */
+    public void delete(GL3 gl) {
+        GLStateCache.deleteVertexArrays(gl, 1, vao, 0);
+        GLStateCache.deleteBuffers(gl, 1, vbo, 0);
+        GLStateCache.deleteBuffers(gl, 1, ibo, 0);
+    }
+
+    public int getDrawMode() {
+        return drawMode;
+    }
+
+    public int getNoOfIndices() {
+        return noOfIndices;
+    }
+
+    /**
+     * Returns the type of the indices (GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT or GL_UNSIGNED_INT).
+     */
+    public int getIndexType() {
+        return indexType;
+    }
+
+    public VertexLayout getVertexLayout() {
+        return vertexLayout;
+    }
+
+    public int getNoOfVertices() {
+        return noOfVertices;
+    }
+
+    /**
+     * Returns the number of triangles drawn by draw()
+     * (including degenerate triangles joining the rows of a strip).
+     */
+    public int getNoOfTriangles() {
+        if (drawMode == GL.GL_TRIANGLE_STRIP)
+            return Math.max(noOfIndices - 2, 0);  // upper bound with restart indices
+        return noOfIndices / 3;
+    }
+
+    int getVertexArrayName() {
+        return vao[0];
+    }
+
+    int getVertexBufferName() {
+        return vbo[0];
+    }
+
+    int getIndexBufferName() {
+        return ibo[0];
+    }
+
+    /**
+     * Returns the GPU memory used by vertex and index buffer in bytes.
+     */
+    public long getSizeInBytes() {
+        return (long) noOfVertices * vertexLayout.getStride() + (long) noOfIndices * getIndexSize(indexType);
+    }
+
+    /**
+     * Returns the minimum corner of the axis aligned bounding box in object coordinates.
+     */
+    public float[] getBoundsMin() {
+        return boundsMin;
+    }
+
+    /**
+     * Returns the maximum corner of the axis aligned bounding box in object coordinates.
+     */
+    public float[] getBoundsMax() {
+        return boundsMax;
+    }
+
+    /**
+     * Returns the radius of the bounding sphere around the center of the bounding box.
+     */
+    public float getBoundingRadius() {
+        return boundingRadius;
+    }
+}
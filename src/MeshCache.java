@@ -0,0 +1,251 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of GPU meshes created by the shape generators
+ * (Box, Sphere, Cone, Roof).
+ * Meshes are keyed by generator and parameters (shape type, dimensions,
+ * resolution, color) and by the vertex layout. The vertex buffers hold only the
+ * attributes of the layout, usually the attributes read by the shader program
+ * (see VertexLayout.forProgram()). Requesting a mesh that exists already returns the
+ * shared mesh and increments its reference count, so identical shapes are
+ * generated and uploaded only once.
+ * Released meshes stay in the cache for reuse until the GPU memory of all
+ * cached meshes exceeds the memory budget. Then unused meshes are deleted,
+ * least recently used first.
+ * Identical vertices of the generated shapes are welded and the meshes are converted to
+ * cache optimized triangle lists before the upload (see VertexWelder and IndexOptimizer).
+ * All methods are static and must be called on the OpenGL thread.
+ */
+public class MeshCache {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private static final Map<String, Mesh> meshes = new HashMap<>();
+    // Meshes without users in least recently released order
+    private static final LinkedHashMap<String, Mesh> unusedMeshes = new LinkedHashMap<>();
+
+    // Vertex components closer than this are treated as equal when welding
+    private static final float WELD_EPSILON = 1e-5f;
+    // Reorder clusters of triangles against overdraw after the vertex cache optimization
+    private static final boolean OPTIMIZE_OVERDRAW = true;
+
+    private static long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private static long memoryUsed = 0;
+
+    /**
+     * Sets the GPU memory budget for all cached meshes in bytes.
+     * Meshes in use are never evicted, so the budget may be exceeded by them.
+     * @param gl		OpenGL context (for deleting evicted meshes)
+     * @param budget	budget in bytes
+     */
+    public static void setMemoryBudget(GL3 gl, long budget) {
+        memoryBudget = budget;
+        evictUnusedMeshes(gl);
+    }
+
+    public static long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public static int getNoOfMeshes() {
+        return meshes.size();
+    }
+
+    /**
+     * Returns a shared mesh of a box (see Box.makeBoxVertices()).
+     */
+    public static Mesh acquireBox(GL3 gl, VertexLayout layout,
+                                  float width, float height, float depth, float[] color) {
+        String key = "Box" + Arrays.toString(new float[] {width, height, depth})
+                + Arrays.toString(color)
+                + layout;
+        Mesh mesh = acquireCached(key);
+        if (mesh == null)
+            mesh = add(gl, key, layout, Box.makeBoxVertices(width, height, depth, color),
+                    Box.makeBoxIndicesForTriangleStrip(), GL.GL_TRIANGLE_STRIP);
+        return mesh;
+    }
+
+    /**
+     * Returns a shared mesh of a sphere (see Sphere.makeVertices()).
+     */
+    public static Mesh acquireSphere(GL3 gl, VertexLayout layout, int verticalResolution,
+                                     int horizontalResolution, float radius, float[] color) {
+        String key = "Sphere" + Arrays.toString(new int[] {verticalResolution, horizontalResolution})
+                + Arrays.toString(new float[] {radius}) + Arrays.toString(color)
+                + layout;
+        Mesh mesh = acquireCached(key);
+        if (mesh == null) {
+            Sphere sphere = new Sphere(verticalResolution, horizontalResolution);
+            mesh = add(gl, key, layout, sphere.makeVertices(radius, color),
+                    sphere.makeIndicesForTriangleStrip(), GL.GL_TRIANGLE_STRIP);
+        }
+        return mesh;
+    }
+
+    /**
+     * Returns a shared mesh of a sphere as subdivided icosahedron (see Icosphere).
+     */
+    public static Mesh acquireIcosphere(GL3 gl, VertexLayout layout,
+                                        int subdivisions, float radius, float[] color) {
+        String key = "Icosphere" + Arrays.toString(new int[] {subdivisions})
+                + Arrays.toString(new float[] {radius}) + Arrays.toString(color)
+                + layout;
+        Mesh mesh = acquireCached(key);
+        if (mesh == null) {
+            Icosphere sphere = new Icosphere(subdivisions);
+            mesh = add(gl, key, layout, sphere.makeVertices(radius, color),
+                    sphere.makeIndicesForTriangles(), GL.GL_TRIANGLES);
+        }
+        return mesh;
+    }
+
+    /**
+     * Returns a shared mesh of a sphere as normalized cube (see CubeSphere).
+     */
+    public static Mesh acquireCubeSphere(GL3 gl, VertexLayout layout,
+                                         int resolution, float radius, float[] color) {
+        String key = "CubeSphere" + Arrays.toString(new int[] {resolution})
+                + Arrays.toString(new float[] {radius}) + Arrays.toString(color)
+                + layout;
+        Mesh mesh = acquireCached(key);
+        if (mesh == null) {
+            CubeSphere sphere = new CubeSphere(resolution);
+            mesh = add(gl, key, layout, sphere.makeVertices(radius, color),
+                    sphere.makeIndicesForTriangles(), GL.GL_TRIANGLES);
+        }
+        return mesh;
+    }
+
+    /**
+     * Returns a shared mesh of a cone (see Cone.makeVertices()).
+     */
+    public static Mesh acquireCone(GL3 gl, VertexLayout layout, int horizontalResolution,
+                                   float radiusTop, float radiusBottom, float length, float[] color) {
+        String key = "Cone" + Arrays.toString(new int[] {horizontalResolution})
+                + Arrays.toString(new float[] {radiusTop, radiusBottom, length}) + Arrays.toString(color)
+                + layout;
+        Mesh mesh = acquireCached(key);
+        if (mesh == null) {
+            Cone cone = new Cone(horizontalResolution);
+            mesh = add(gl, key, layout, cone.makeVertices(radiusTop, radiusBottom, length, color),
+                    cone.makeIndicesForTriangleStrip(), GL.GL_TRIANGLE_STRIP);
+        }
+        return mesh;
+    }
+
+    /**
+     * Returns a shared mesh of a roof (see Roof.makeVertices()).
+     */
+    public static Mesh acquireRoof(GL3 gl, VertexLayout layout,
+                                   float width, float height, float depth, float[] color) {
+        String key = "Roof" + Arrays.toString(new float[] {width, height, depth})
+                + Arrays.toString(color)
+                + layout;
+        Mesh mesh = acquireCached(key);
+        if (mesh == null)
+            mesh = add(gl, key, layout, Roof.makeVertices(width, height, depth, color),
+                    Roof.makeIndicesForTriangleStrip(), GL.GL_TRIANGLE_STRIP);
+        return mesh;
+    }
+
+    /**
+     * Releases a mesh returned by one of the acquire methods.
+     * A mesh without users is kept for reuse as long as the memory budget allows.
+     * @param gl	OpenGL context
+     * @param mesh	mesh to be released
+     */
+    public static void release(GL3 gl, Mesh mesh) {
+        if (meshes.get(mesh.cacheKey) != mesh) {
+            System.err.println("Releasing a mesh not handed out by the mesh cache.");
+            return;
+        }
+        mesh.referenceCount--;
+        if (mesh.referenceCount == 0) {
+            unusedMeshes.put(mesh.cacheKey, mesh);
+            evictUnusedMeshes(gl);
+        }
+    }
+
+    /**
+     * Deletes all meshes without users.
+     * @param gl OpenGL context
+     */
+    public static void clearUnusedMeshes(GL3 gl) {
+        for (Mesh mesh : unusedMeshes.values())
+            remove(gl, mesh);
+        unusedMeshes.clear();
+    }
+
+    private static Mesh acquireCached(String key) {
+        Mesh mesh = meshes.get(key);
+        if (mesh != null) {
+            if (mesh.referenceCount == 0)
+                unusedMeshes.remove(key);
+            mesh.referenceCount++;
+        }
+        return mesh;
+    }
+
+    /**
+     * Prepares the vertices and indices of a generated shape for the GPU and uploads
+     * them as new cached mesh: identical vertices are welded, triangle strips are
+     * converted to triangle lists, which are reordered for the vertex cache and
+     * overdraw, and the vertices are reordered for fetching.
+     */
+    private static Mesh add(GL3 gl, String key, VertexLayout layout, float[] vertices, int[] indices,
+                            int drawMode) {
+        VertexWelder.Result welded = VertexWelder.weld(vertices, indices, Mesh.FLOATS_PER_VERTEX, WELD_EPSILON);
+        int[] triangles = welded.getIndices();
+        if (drawMode == GL.GL_TRIANGLE_STRIP)
+            triangles = IndexOptimizer.stripToTriangles(triangles);
+        else if (drawMode != GL.GL_TRIANGLES)
+            return add(new Mesh(gl, key, welded.getVertices(), layout, triangles, drawMode));
+
+        float acmr = IndexOptimizer.computeAcmr(triangles);
+        IndexOptimizer.optimizeVertexCache(triangles, welded.getNoOfVertices());
+        if (OPTIMIZE_OVERDRAW)
+            IndexOptimizer.optimizeOverdraw(triangles, welded.getVertices(), Mesh.FLOATS_PER_VERTEX);
+        float[] optimizedVertices = IndexOptimizer.optimizeVertexFetch(welded.getVertices(), triangles,
+                Mesh.FLOATS_PER_VERTEX);
+        System.out.println("Optimized " + key + ": " + welded.getNoOfInputVertices() + " -> "
+                + welded.getNoOfVertices() + " vertices, ACMR " + acmr + " -> "
+                + IndexOptimizer.computeAcmr(triangles));
+        return add(new Mesh(gl, key, optimizedVertices, layout, triangles, GL.GL_TRIANGLES));
+    }
+
+    private static Mesh add(Mesh mesh) {
+        // Bytes saved by leaving out the attributes the shader program does not read
+        VertexLayout layout = mesh.getVertexLayout();
+        long savedBytes = (long) mesh.getNoOfVertices()
+                * (new VertexLayout(layout.getFormat(), VertexLayout.ALL_ATTRIBUTES).getStride() - layout.getStride());
+        System.out.println("Vertex layout of " + mesh.cacheKey + ": " + layout + ", "
+                + layout.getStride() + " bytes per vertex, " + savedBytes + " bytes saved");
+        meshes.put(mesh.cacheKey, mesh);
+        memoryUsed += mesh.getSizeInBytes();
+        mesh.referenceCount = 1;
+        return mesh;
+    }
+
+    private static void evictUnusedMeshes(GL3 gl) {
+        Iterator<Mesh> iterator = unusedMeshes.values().iterator();
+        while (memoryUsed > memoryBudget && iterator.hasNext()) {
+            Mesh mesh = iterator.next();
+            iterator.remove();
+            remove(gl, mesh);
+        }
+    }
+
+    private static void remove(GL3 gl, Mesh mesh) {
+        meshes.remove(mesh.cacheKey);
+        memoryUsed -= mesh.getSizeInBytes();
+        mesh.delete(gl);
+    }
+}
@@ -0,0 +1,181 @@
+import com.jogamp.opengl.GL2ES2;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GL3ES3;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.fixedfunc.GLMatrixFunc;
+import com.jogamp.opengl.math.FloatUtil;
+import com.jogamp.opengl.util.PMVMatrix;
+
+import java.util.Arrays;
+
+/**
+ * Renderer submitting all objects of a frame with one glMultiDrawElementsIndirect call.
+ * The meshes of all shapes are packed into one MergedGeometryBuffer.
+ * During the frame each object is recorded with addDraw() as one indirect draw command
+ * (index count, first index, base vertex) plus its model matrix and color.
+ * The base instance of command i is i, so the vertex shader (INSTANCED permutation
+ * of the basic shader) picks up matrix and color of the object from the
+ * per-instance attributes.
+ * Instance data and draw commands are streamed through the PersistentRingBuffer.
+ * The instance data is read directly from there, the draw commands are copied on
+ * the GPU to the start of the draw indirect buffer (glMultiDrawElementsIndirect of
+ * JOGL takes no buffer offset).
+ * Requires OpenGL 4.3 (or ARB_multi_draw_indirect).
+ */
+public class MultiDrawRenderer {
+
+    // count, instanceCount, firstIndex, baseVertex, baseInstance
+    private static final int INTS_PER_COMMAND = 5;
+
+    private static final float[] IDENTITY_MATRIX = FloatUtil.makeIdentity(new float[16]);
+
+    private final MergedGeometryBuffer geometry = new MergedGeometryBuffer();
+
+    private int[] vaoMultiDraw;  // Names of vertex array objects
+    private int[] vboMultiDraw;	// Names of buffer objects: draw commands
+    private int commandBufferCapacity = 0;  // Size of the draw indirect buffer in ints
+
+    private final String vertexShaderFileName = "Basic.vert";
+    private final String fragmentShaderFileName = "Basic.frag";
+
+    private ShaderProgram shaderProgram;
+    private ShaderUniform modelMatrixUniform;
+
+    // Draws recorded for the current frame
+    private float[] instanceData = new float[16 * InstancedRenderer.FLOATS_PER_INSTANCE];
+    private int[] commands = new int[16 * INTS_PER_COMMAND];
+    private int noOfDraws = 0;
+
+    /**
+     * Adds the mesh of a shape. Must be called before upload().
+     * @param mesh mesh to be drawn by this renderer (e.g. from the MeshCache)
+     * @return index of the mesh, to be used with addDraw()
+     */
+    public int addMesh(Mesh mesh) {
+        return geometry.addMesh(mesh);
+    }
+
+    /**
+     * Allocates the per-frame buffers and acquires the shader program,
+     * which may still be compiling afterwards.
+     * @param drawable The OpenGL drawable
+     */
+    public void init(GLAutoDrawable drawable) {
+        GL3 gl = drawable.getGL().getGL3();
+
+        vaoMultiDraw = new int[1];
+        gl.glGenVertexArrays(1, vaoMultiDraw, 0);
+        if (vaoMultiDraw[0] < 1)
+            System.err.println("Error allocating vertex array object (VAO).");
+
+        vboMultiDraw = new int[1];
+        gl.glGenBuffers(1, vboMultiDraw, 0);
+        if (vboMultiDraw[0] < 1)
+            System.err.println("Error allocating buffer object for draw commands.");
+
+        shaderProgram = ShaderProgramRegistry.acquire(gl,
+                vertexShaderFileName, fragmentShaderFileName, "INSTANCED");
+    }
+
+    /**
+     * Builds the merged geometry buffer from the meshes added with addMesh()
+     * and resolves the uniform handle. To be called after init(), once the meshes exist.
+     * @param gl OpenGL context
+     */
+    public void upload(GL3 gl) {
+        modelMatrixUniform = shaderProgram.getUniform("mMatrix");
+        geometry.upload(gl);
+        GLStateCache.bindVertexArray(gl, vaoMultiDraw[0]);
+        geometry.setupVertexAttributes(gl);
+        InstancedRenderer.setupInstanceAttributeFormat(gl);
+        GLStateCache.bindVertexArray(gl, 0);
+    }
+
+    /**
+     * Records a draw of a mesh for the current frame.
+     * @param meshIndex	index returned by addMesh()
+     * @param pmvMatrix	matrices, the current model-view matrix holds the model matrix of the object
+     * @param color		RGB color multiplied with the vertex colors of the mesh
+     */
+    public void addDraw(int meshIndex, PMVMatrix pmvMatrix, float[] color) {
+        if ((noOfDraws + 1) * INTS_PER_COMMAND > commands.length) {
+            commands = Arrays.copyOf(commands, commands.length * 2);
+            instanceData = Arrays.copyOf(instanceData, instanceData.length * 2);
+        }
+
+        int command = noOfDraws * INTS_PER_COMMAND;
+        commands[command] = geometry.getNoOfIndices(meshIndex);
+        commands[command + 1] = 1;
+        commands[command + 2] = geometry.getFirstIndex(meshIndex);
+        commands[command + 3] = geometry.getBaseVertex(meshIndex);
+        commands[command + 4] = noOfDraws;  // base instance selects the instance data
+
+        int instance = noOfDraws * InstancedRenderer.FLOATS_PER_INSTANCE;
+        pmvMatrix.glGetFloatv(GLMatrixFunc.GL_MODELVIEW_MATRIX, instanceData, instance);
+        instanceData[instance + 16] = color[0];
+        instanceData[instance + 17] = color[1];
+        instanceData[instance + 18] = color[2];
+        instanceData[instance + 19] = 1f;
+        noOfDraws++;
+    }
+
+    /**
+     * Submits all draws recorded in this frame with one indirect draw call
+     * and starts a new frame.
+     * @param gl			OpenGL context
+     * @param dynamicData	ring buffer for the data of the current frame
+     */
+    public void display(GL3 gl, PersistentRingBuffer dynamicData) {
+        if (noOfDraws == 0 || !shaderProgram.isReady()) {
+            noOfDraws = 0;
+            return;
+        }
+
+        GLStateCache.useProgram(gl, shaderProgram.getShaderProgramID());
+        // The recorded instance matrices are complete model matrices,
+        // projection and view matrix are in the camera uniform buffer
+        modelMatrixUniform.set(gl, IDENTITY_MATRIX, 0);
+        GLStateCache.bindVertexArray(gl, vaoMultiDraw[0]);
+
+        // Write the data of this frame to the ring buffer
+        int noOfFloats = noOfDraws * InstancedRenderer.FLOATS_PER_INSTANCE;
+        int noOfInts = noOfDraws * INTS_PER_COMMAND;
+        int instanceOffset = dynamicData.allocate(noOfFloats * 4, 16);
+        int commandOffset = dynamicData.allocate(noOfInts * 4, 4);
+        if (instanceOffset < 0 || commandOffset < 0) {
+            noOfDraws = 0;
+            return;
+        }
+        dynamicData.putFloats(instanceOffset, instanceData, 0, noOfFloats);
+        dynamicData.putInts(commandOffset, commands, 0, noOfInts);
+        gl.glBindVertexBuffer(InstancedRenderer.INSTANCE_BINDING, dynamicData.getBufferName(),
+                instanceOffset, InstancedRenderer.FLOATS_PER_INSTANCE * 4);
+
+        GLStateCache.bindBuffer(gl, GL3ES3.GL_DRAW_INDIRECT_BUFFER, vboMultiDraw[0]);
+        if (noOfInts > commandBufferCapacity) {
+            commandBufferCapacity = commands.length;
+            gl.glBufferData(GL3ES3.GL_DRAW_INDIRECT_BUFFER, commandBufferCapacity * 4L,
+                    null, GL2ES2.GL_STREAM_DRAW);
+        }
+        GLStateCache.bindBuffer(gl, GL2ES3.GL_COPY_READ_BUFFER, dynamicData.getBufferName());
+        gl.glCopyBufferSubData(GL2ES3.GL_COPY_READ_BUFFER, GL3ES3.GL_DRAW_INDIRECT_BUFFER,
+                commandOffset, 0, noOfInts * 4L);
+
+        // null: the commands are read from the bound draw indirect buffer (offset 0)
+        gl.glMultiDrawElementsIndirect(geometry.getDrawMode(), geometry.getIndexType(), null, noOfDraws, 0);
+        noOfDraws = 0;
+    }
+
+    public void dispose(GLAutoDrawable drawable) {
+        GL3 gl = drawable.getGL().getGL3();
+
+        GLStateCache.useProgram(gl, 0);
+        ShaderProgramRegistry.release(shaderProgram);
+
+        GLStateCache.bindVertexArray(gl, 0);
+        GLStateCache.deleteVertexArrays(gl, 1, vaoMultiDraw, 0);
+        GLStateCache.deleteBuffers(gl, 1, vboMultiDraw, 0);
+        geometry.delete(gl);
+    }
+}
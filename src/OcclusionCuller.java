@@ -0,0 +1,229 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES2;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.math.FloatUtil;
+import com.jogamp.opengl.util.PMVMatrix;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Occlusion culling of scene nodes with hardware occlusion queries.
+ * After the objects of a frame have been drawn, the world bounding box of every object
+ * is drawn as a proxy (no color or depth writes) inside a GL_ANY_SAMPLES_PASSED_CONSERVATIVE
+ * query. The result is read in one of the next frames, only once it is available, so the
+ * CPU never waits for the GPU:
+ * - no samples passed: the object is skipped until a new query finds it visible
+ * - result not available yet: the object is drawn with conditional rendering on the
+ *   pending query, so the GPU skips it if the query finished in time
+ * Objects whose bounding box contains the camera are always drawn (their proxy would be clipped).
+ */
+public class OcclusionCuller {
+
+    // Occlusion state of one scene node
+    private static class QueryState {
+        private final int[] query = new int[1];
+        private boolean pending = false;
+        private boolean visible = true;
+        private long issuedFrame;
+        private long lastFrameInFrustum = -1;
+        private boolean cameraInside;
+    }
+
+    // Distance of the camera to a bounding box, below which the box is treated as containing it
+    private static final float CAMERA_MARGIN = 0.1f;
+
+    private final Map<SceneNode, QueryState> states = new HashMap<>();
+
+    private final String vertexShaderFileName = "Basic.vert";
+    private final String fragmentShaderFileName = "Basic.frag";
+    private ShaderProgram shaderProgram;
+    private ShaderUniform modelMatrixUniform;
+    private Mesh proxyMesh;  // unit cube
+
+    private final float[] inverseViewMatrix = new float[16];
+    private final float[] cameraPosition = new float[3];
+    private final float[] proxyMatrix = FloatUtil.makeIdentity(new float[16]);
+    private final int[] queryResult = new int[1];
+
+    // Statistics of the current frame
+    private long frame = 0;
+    private int noOfOccludedObjects;
+    private int noOfConditionalDraws;
+    private int noOfIssuedQueries;
+    private int noOfResults;
+    private long sumOfLatencies;  // in frames
+
+    public void init(GL3 gl) {
+        shaderProgram = ShaderProgramRegistry.acquire(gl, vertexShaderFileName, fragmentShaderFileName);
+        // The program may still be compiling, the uniform handle and the proxy mesh
+        // are set up by issueQueries()
+    }
+
+    /**
+     * Starts a new frame.
+     * @param viewMatrix view matrix of the frame (for the camera position)
+     */
+    public void beginFrame(float[] viewMatrix) {
+        frame++;
+        noOfOccludedObjects = 0;
+        noOfConditionalDraws = 0;
+        noOfIssuedQueries = 0;
+        noOfResults = 0;
+        sumOfLatencies = 0;
+        FloatUtil.invertMatrix(viewMatrix, inverseViewMatrix);
+        System.arraycopy(inverseViewMatrix, 12, cameraPosition, 0, 3);
+    }
+
+    /**
+     * Draws the renderable of a node inside the view frustum according to its last query result.
+     * @param gl		OpenGL context
+     * @param node		node with bounds
+     * @param pmvMatrix	matrices, matrix mode must be GL_MODELVIEW
+     */
+    public void display(GL3 gl, SceneNode node, PMVMatrix pmvMatrix) {
+        QueryState state = states.get(node);
+        if (state == null) {
+            state = new QueryState();
+            gl.glGenQueries(1, state.query, 0);
+            states.put(node, state);
+        }
+        // Results of objects that were outside of the frustum are outdated
+        if (state.lastFrameInFrustum != frame - 1)
+            state.visible = true;
+        state.lastFrameInFrustum = frame;
+        if (state.pending)
+            readResult(gl, state);
+
+        state.cameraInside = containsCamera(node);
+        if (state.cameraInside) {
+            node.displayRenderable(gl, pmvMatrix);
+        } else if (state.pending) {
+            gl.glBeginConditionalRender(state.query[0], GL2ES3.GL_QUERY_NO_WAIT);
+            node.displayRenderable(gl, pmvMatrix);
+            gl.glEndConditionalRender();
+            noOfConditionalDraws++;
+        } else if (state.visible) {
+            node.displayRenderable(gl, pmvMatrix);
+        } else {
+            noOfOccludedObjects++;
+        }
+    }
+
+    /**
+     * Reads the result of a pending query if it is available (without waiting).
+     */
+    private void readResult(GL3 gl, QueryState state) {
+        gl.glGetQueryObjectuiv(state.query[0], GL2ES2.GL_QUERY_RESULT_AVAILABLE, queryResult, 0);
+        if (queryResult[0] == GL.GL_FALSE)
+            return;
+        gl.glGetQueryObjectuiv(state.query[0], GL2ES2.GL_QUERY_RESULT, queryResult, 0);
+        state.visible = queryResult[0] != 0;
+        state.pending = false;
+        noOfResults++;
+        sumOfLatencies += frame - state.issuedFrame;
+    }
+
+    private boolean containsCamera(SceneNode node) {
+        float[] min = node.getWorldBoundsMin();
+        float[] max = node.getWorldBoundsMax();
+        for (int i = 0; i < 3; i++)
+            if (cameraPosition[i] < min[i] - CAMERA_MARGIN || cameraPosition[i] > max[i] + CAMERA_MARGIN)
+                return false;
+        return true;
+    }
+
+    /**
+     * Draws the bounding box proxies of the nodes in occlusion queries.
+     * To be called after all objects of the frame have been drawn.
+     * Nodes with a pending query keep waiting for its result.
+     * @param gl	OpenGL context
+     * @param nodes	nodes passed to display() in this frame
+     */
+    public void issueQueries(GL3 gl, List<SceneNode> nodes) {
+        if (!shaderProgram.isReady())
+            return;
+        // In the vertex layout of the program, known once it is linked
+        if (proxyMesh == null) {
+            modelMatrixUniform = shaderProgram.getUniform("mMatrix");
+            proxyMesh = MeshCache.acquireBox(gl, VertexLayout.forProgram(shaderProgram),
+                    1f, 1f, 1f, new float[] {1f, 1f, 1f});
+        }
+        GLStateCache.useProgram(gl, shaderProgram.getShaderProgramID());
+        // Restored after the proxies, the renderers may draw filled or as wireframe
+        int polygonMode = GLStateCache.getPolygonMode(gl);
+        boolean cullFace = GLStateCache.isEnabled(gl, GL.GL_CULL_FACE);
+        // Proxies are filled and not culled (the camera may see the inside of their box),
+        // but leave color and depth buffer untouched
+        gl.glColorMask(false, false, false, false);
+        gl.glDepthMask(false);
+        GLStateCache.disable(gl, GL.GL_CULL_FACE);
+        GLStateCache.polygonMode(gl, GL3.GL_FILL);
+
+        for (SceneNode node : nodes) {
+            QueryState state = states.get(node);
+            if (state == null || state.pending || state.cameraInside)
+                continue;
+            float[] min = node.getWorldBoundsMin();
+            float[] max = node.getWorldBoundsMax();
+            for (int i = 0; i < 3; i++) {
+                proxyMatrix[i * 5] = max[i] - min[i];
+                proxyMatrix[12 + i] = (min[i] + max[i]) * 0.5f;
+            }
+            modelMatrixUniform.set(gl, proxyMatrix, 0);
+            gl.glBeginQuery(GL2ES2.GL_ANY_SAMPLES_PASSED_CONSERVATIVE, state.query[0]);
+            proxyMesh.draw(gl);
+            gl.glEndQuery(GL2ES2.GL_ANY_SAMPLES_PASSED_CONSERVATIVE);
+            state.pending = true;
+            state.issuedFrame = frame;
+            noOfIssuedQueries++;
+        }
+
+        GLStateCache.polygonMode(gl, polygonMode);
+        if (cullFace)
+            GLStateCache.enable(gl, GL.GL_CULL_FACE);
+        gl.glDepthMask(true);
+        gl.glColorMask(true, true, true, true);
+        GLStateCache.bindVertexArray(gl, 0);
+    }
+
+    /**
+     * Forgets the state of a node (e.g. after it has been removed from the scene).
+     */
+    public void remove(GL3 gl, SceneNode node) {
+        QueryState state = states.remove(node);
+        if (state != null)
+            gl.glDeleteQueries(1, state.query, 0);
+    }
+
+    public int getNoOfOccludedObjects() {
+        return noOfOccludedObjects;
+    }
+
+    public int getNoOfConditionalDraws() {
+        return noOfConditionalDraws;
+    }
+
+    public int getNoOfIssuedQueries() {
+        return noOfIssuedQueries;
+    }
+
+    /**
+     * Returns the mean number of frames between issuing and reading the
+     * query results read in the current frame.
+     */
+    public float getAverageQueryLatency() {
+        return noOfResults == 0 ? 0f : (float) sumOfLatencies / noOfResults;
+    }
+
+    public void dispose(GL3 gl) {
+        for (QueryState state : states.values())
+            gl.glDeleteQueries(1, state.query, 0);
+        states.clear();
+        ShaderProgramRegistry.release(shaderProgram);
+        if (proxyMesh != null)
+            MeshCache.release(gl, proxyMesh);
+    }
+}
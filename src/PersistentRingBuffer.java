@@ -0,0 +1,201 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GL3ES3;
+import com.jogamp.opengl.GL4;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Allocator for data written by the CPU every frame (matrices, colors, instance data,
+ * draw commands). One buffer object is created with glBufferStorage and stays
+ * mapped (persistent and coherent) for its whole lifetime, so no glBufferData or
+ * glBufferSubData calls are needed to fill it.
+ * The buffer is split into NO_OF_REGIONS regions, one per frame in flight.
+ * At the end of a frame a fence is inserted for the region of the frame. Before the
+ * region is written again (NO_OF_REGIONS frames later), beginFrame() waits for that
+ * fence. Such waits are counted as stalls: the CPU got ahead of the GPU.
+ * Requires OpenGL 4.4 (or ARB_buffer_storage).
+ */
+public class PersistentRingBuffer {
+
+    public static final int NO_OF_REGIONS = 3;
+
+    // Timeout of one wait for a fence in nanoseconds
+    private static final long WAIT_TIMEOUT = 1000000L;
+
+    private final int[] buffer = new int[1];  // Name of the buffer object
+    private ByteBuffer mappedData;
+    private FloatBuffer mappedFloats;
+    private IntBuffer mappedInts;
+    private int regionSize;
+    private int uniformBufferAlignment;
+
+    private final long[] fences = new long[NO_OF_REGIONS];
+    private int currentRegion = 0;
+    private int allocationOffset;  // next free byte in the current region (from buffer start)
+    private int regionEnd;
+
+    // Statistics
+    private long noOfFrames = 0;
+    private long noOfStalls = 0;
+    private long stallTimeNanos = 0;
+    private int maxBytesPerFrame = 0;
+
+    /**
+     * Creates and maps the buffer.
+     * @param gl			OpenGL context
+     * @param regionSize	number of bytes available per frame
+     */
+    public void init(GL4 gl, int regionSize) {
+        if (!gl.isExtensionAvailable("GL_ARB_buffer_storage")) {
+            System.err.println("Error: persistent mapped buffers (GL_ARB_buffer_storage) are not supported.");
+            System.exit(1);
+        }
+        this.regionSize = regionSize;
+        int[] alignment = new int[1];
+        gl.glGetIntegerv(GL2ES3.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT, alignment, 0);
+        uniformBufferAlignment = Math.max(alignment[0], 16);
+
+        gl.glGenBuffers(1, buffer, 0);
+        if (buffer[0] < 1)
+            System.err.println("Error allocating buffer object for dynamic data.");
+        int flags = GL.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_COHERENT_BIT;
+        long size = (long) regionSize * NO_OF_REGIONS;
+        GLStateCache.bindBuffer(gl, GL2ES3.GL_COPY_WRITE_BUFFER, buffer[0]);
+        gl.glBufferStorage(GL2ES3.GL_COPY_WRITE_BUFFER, size, null, flags);
+        mappedData = gl.glMapBufferRange(GL2ES3.GL_COPY_WRITE_BUFFER, 0, size, flags);
+        GLStateCache.bindBuffer(gl, GL2ES3.GL_COPY_WRITE_BUFFER, 0);
+        if (mappedData == null) {
+            System.err.println("Error mapping buffer object for dynamic data.");
+            System.exit(1);
+        }
+        mappedData.order(ByteOrder.nativeOrder());
+        mappedFloats = mappedData.asFloatBuffer();
+        mappedInts = mappedData.asIntBuffer();
+        setRegion(0);
+    }
+
+    /**
+     * Starts a new frame. Waits until the GPU has finished reading the region
+     * of the frame NO_OF_REGIONS frames ago.
+     * @param gl OpenGL context
+     */
+    public void beginFrame(GL3 gl) {
+        long fence = fences[currentRegion];
+        if (fence != 0) {
+            int status = gl.glClientWaitSync(fence, 0, 0);
+            if (status == GL3ES3.GL_TIMEOUT_EXPIRED) {
+                // The GPU still reads this region
+                noOfStalls++;
+                long start = System.nanoTime();
+                do {
+                    status = gl.glClientWaitSync(fence, GL3ES3.GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT);
+                } while (status == GL3ES3.GL_TIMEOUT_EXPIRED);
+                stallTimeNanos += System.nanoTime() - start;
+            }
+            if (status == GL3ES3.GL_WAIT_FAILED)
+                System.err.println("Error waiting for the fence of a dynamic data region.");
+            gl.glDeleteSync(fence);
+            fences[currentRegion] = 0;
+        }
+        setRegion(currentRegion);
+    }
+
+    /**
+     * Ends the frame. Must be called after the last draw call reading data of the frame.
+     * @param gl OpenGL context
+     */
+    public void endFrame(GL3 gl) {
+        int bytesUsed = allocationOffset - currentRegion * regionSize;
+        maxBytesPerFrame = Math.max(maxBytesPerFrame, bytesUsed);
+        fences[currentRegion] = gl.glFenceSync(GL3ES3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        currentRegion = (currentRegion + 1) % NO_OF_REGIONS;
+        noOfFrames++;
+    }
+
+    private void setRegion(int region) {
+        allocationOffset = region * regionSize;
+        regionEnd = allocationOffset + regionSize;
+    }
+
+    /**
+     * Reserves memory in the region of the current frame.
+     * @param noOfBytes	number of bytes
+     * @param alignment	alignment of the start in bytes (power of two, at least 4)
+     * @return offset from the start of the buffer, -1 if the region is full
+     */
+    public int allocate(int noOfBytes, int alignment) {
+        int offset = (allocationOffset + alignment - 1) & -alignment;
+        if (offset + noOfBytes > regionEnd) {
+            System.err.println("Error: dynamic data region of " + regionSize + " bytes is full.");
+            return -1;
+        }
+        allocationOffset = offset + noOfBytes;
+        return offset;
+    }
+
+    /**
+     * Reserves memory for a uniform block (aligned for glBindBufferRange).
+     * @param noOfBytes	size of the uniform block
+     * @return offset from the start of the buffer, -1 if the region is full
+     */
+    public int allocateUniforms(int noOfBytes) {
+        return allocate(noOfBytes, uniformBufferAlignment);
+    }
+
+    /**
+     * Writes floats to memory returned by allocate().
+     */
+    public void putFloats(int offset, float[] data, int dataOffset, int length) {
+        mappedFloats.position(offset / 4);
+        mappedFloats.put(data, dataOffset, length);
+    }
+
+    /**
+     * Writes ints to memory returned by allocate().
+     */
+    public void putInts(int offset, int[] data, int dataOffset, int length) {
+        mappedInts.position(offset / 4);
+        mappedInts.put(data, dataOffset, length);
+    }
+
+    public int getBufferName() {
+        return buffer[0];
+    }
+
+    public long getNoOfFrames() {
+        return noOfFrames;
+    }
+
+    public long getNoOfStalls() {
+        return noOfStalls;
+    }
+
+    public long getStallTimeNanos() {
+        return stallTimeNanos;
+    }
+
+    public void printStallStatistics() {
+        System.out.println("Dynamic data: " + noOfStalls + " stalls in " + noOfFrames + " frames, "
+                + (stallTimeNanos / 1000000L) + " ms waited, max. " + maxBytesPerFrame
+                + " of " + regionSize + " bytes per frame used");
+    }
+
+    public void dispose(GL3 gl) {
+        for (int region = 0; region < NO_OF_REGIONS; region++) {
+            if (fences[region] != 0) {
+                gl.glDeleteSync(fences[region]);
+                fences[region] = 0;
+            }
+        }
+        GLStateCache.bindBuffer(gl, GL2ES3.GL_COPY_WRITE_BUFFER, buffer[0]);
+        gl.glUnmapBuffer(GL2ES3.GL_COPY_WRITE_BUFFER);
+        GLStateCache.bindBuffer(gl, GL2ES3.GL_COPY_WRITE_BUFFER, 0);
+        GLStateCache.deleteBuffers(gl, 1, buffer, 0);
+        mappedData = null;
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES2;
+import com.jogamp.opengl.GL3;
+
+/**
+ * Persistent on-disk cache for linked shader program binaries
+ * (glGetProgramBinary/glProgramBinary).
+ * Each program is stored in one file named by the hash of its sources.
+ * The file header records the driver (vendor, renderer, version) that created
+ * the binary, so binaries from another driver are never handed to glProgramBinary.
+ *
+ * File layout: magic number, driver id (UTF), binary format (int),
+ * binary length (int), binary.
+ */
+public class ProgramBinaryCache {
+
+    public static final String DEFAULT_CACHE_DIRECTORY = "shadercache";
+
+    private static final int MAGIC_NUMBER = 0x50424331; // "PBC1"
+    private static final String FILE_EXTENSION = ".bin";
+
+    private final Path cacheDirectory;
+    // Identification of the driver, determined on first use
+    private String driverId;
+    private boolean supported;
+
+    /**
+     * Creates a cache storing its files in the given directory.
+     * The directory is created when the first binary is stored.
+     * @param cacheDirectory directory for the cache files
+     */
+    public ProgramBinaryCache(String cacheDirectory) {
+        this.cacheDirectory = Paths.get(cacheDirectory);
+    }
+
+    /**
+     * Checks whether the driver supports at least one program binary format.
+     * @param gl OpenGL context
+     * @return true if program binaries can be cached
+     */
+    public boolean isSupported(GL3 gl) {
+        if (driverId == null) {
+            int[] noOfFormats = new int[1];
+            gl.glGetIntegerv(GL2ES2.GL_NUM_PROGRAM_BINARY_FORMATS, noOfFormats, 0);
+            supported = noOfFormats[0] > 0;
+            driverId = gl.glGetString(GL.GL_VENDOR) + "|" +
+                    gl.glGetString(GL.GL_RENDERER) + "|" +
+                    gl.glGetString(GL.GL_VERSION);
+            if (!supported)
+                System.out.println("Program binaries not supported by the driver, binary cache disabled.");
+        }
+        return supported;
+    }
+
+    /**
+     * Loads a program binary from the cache.
+     * @param key			key of the program (hash of the shader sources)
+     * @param binaryFormat	array of at least one element receiving the binary format
+     * @return program binary or null if there is no valid entry for the key
+     */
+    public byte[] load(String key, int[] binaryFormat) {
+        Path file = fileForKey(key);
+        if (!Files.isRegularFile(file))
+            return null;
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC_NUMBER)
+                return null;
+            if (!driverId.equals(in.readUTF()))
+                return null;
+            binaryFormat[0] = in.readInt();
+            byte[] binary = new byte[in.readInt()];
+            in.readFully(binary);
+            return binary;
+        } catch (IOException e) {
+            System.err.println("Error reading program binary \"" + file + "\": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores a program binary in the cache.
+     * The file is written to a temporary file first and then moved into place,
+     * so a crash while writing never leaves a truncated entry behind.
+     * @param key			key of the program (hash of the shader sources)
+     * @param binaryFormat	driver specific format of the binary
+     * @param binary		program binary
+     */
+    public void store(String key, int binaryFormat, byte[] binary) {
+        Path file = fileForKey(key);
+        try {
+            Files.createDirectories(cacheDirectory);
+            Path tempFile = Files.createTempFile(cacheDirectory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tempFile))) {
+                out.writeInt(MAGIC_NUMBER);
+                out.writeUTF(driverId);
+                out.writeInt(binaryFormat);
+                out.writeInt(binary.length);
+                out.write(binary);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Error writing program binary \"" + file + "\": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes an entry, e.g. after the driver rejected the binary.
+     * @param key key of the program
+     */
+    public void remove(String key) {
+        try {
+            Files.deleteIfExists(fileForKey(key));
+        } catch (IOException e) {
+            System.err.println("Error removing program binary for key " + key + ": " + e.getMessage());
+        }
+    }
+
+    private Path fileForKey(String key) {
+        return cacheDirectory.resolve(key + FILE_EXTENSION);
+    }
+}
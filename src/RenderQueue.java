@@ -0,0 +1,200 @@
+import com.jogamp.opengl.GL3;
+
+import java.util.Arrays;
+
+/**
+ * Collects draw packets (shader program, mesh, model matrix) during the traversal
+ * of the scene and submits them sorted by a 64-bit key instead of in traversal order:
+ *  - bits 63-60: pass (e.g. PASS_OPAQUE)
+ *  - bits 59-48: shader program
+ *  - bits 47-32: mesh (vertex array object)
+ *  - bits 31-0:  view space depth of the object (origin or given point), front to back
+ * Packets sharing program and mesh are drawn one after another, so GLStateCache
+ * and ShaderUniform drop the repeated state changes, and near objects are drawn
+ * first to give the early depth test a chance.
+ * Program and mesh are stored by the low bits of their OpenGL names; a collision only
+ * breaks up a group, it does not change what is drawn.
+ * The keys are sorted with an LSD radix sort (8 bits per pass). All arrays are kept
+ * between frames and only grow, so a frame allocates nothing once the queue has
+ * reached the largest number of packets.
+ */
+public class RenderQueue {
+
+    public static final int PASS_OPAQUE = 0;
+
+    private static final int PASS_SHIFT = 60;
+    private static final int PROGRAM_SHIFT = 48;
+    private static final int MESH_SHIFT = 32;
+    private static final long PROGRAM_MASK = 0xFFFL;
+    private static final long MESH_MASK = 0xFFFFL;
+    private static final long PASS_MASK = 0xFL;
+
+    // Packets in the order they were added
+    private ShaderProgram[] programs;
+    private ShaderUniform[] modelMatrixUniforms;
+    private Mesh[] meshes;
+    private float[] modelMatrices;  // 16 floats per packet
+    private int noOfPackets = 0;
+
+    // Sort keys and packet indices, sorted with the temporary arrays
+    private long[] keys;
+    private int[] order;
+    private long[] tmpKeys;
+    private int[] tmpOrder;
+    private final int[] counts = new int[256];
+
+    private final float[] viewMatrix = new float[16];
+
+    public RenderQueue() {
+        this(256);
+    }
+
+    /**
+     * @param initialCapacity number of packets stored without growing the arrays
+     */
+    public RenderQueue(int initialCapacity) {
+        allocate(Math.max(initialCapacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        ShaderProgram[] oldPrograms = programs;
+        ShaderUniform[] oldModelMatrixUniforms = modelMatrixUniforms;
+        Mesh[] oldMeshes = meshes;
+        float[] oldModelMatrices = modelMatrices;
+        long[] oldKeys = keys;
+        programs = new ShaderProgram[capacity];
+        modelMatrixUniforms = new ShaderUniform[capacity];
+        meshes = new Mesh[capacity];
+        modelMatrices = new float[capacity * 16];
+        keys = new long[capacity];
+        order = new int[capacity];
+        tmpKeys = new long[capacity];
+        tmpOrder = new int[capacity];
+        if (noOfPackets > 0) {
+            System.arraycopy(oldPrograms, 0, programs, 0, noOfPackets);
+            System.arraycopy(oldModelMatrixUniforms, 0, modelMatrixUniforms, 0, noOfPackets);
+            System.arraycopy(oldMeshes, 0, meshes, 0, noOfPackets);
+            System.arraycopy(oldModelMatrices, 0, modelMatrices, 0, noOfPackets * 16);
+            System.arraycopy(oldKeys, 0, keys, 0, noOfPackets);
+        }
+    }
+
+    /**
+     * Removes all packets, to be called at the beginning of each frame.
+     * @param viewMatrix view matrix of the frame (for the depth in the sort keys)
+     */
+    public void beginFrame(float[] viewMatrix) {
+        System.arraycopy(viewMatrix, 0, this.viewMatrix, 0, 16);
+        noOfPackets = 0;
+    }
+
+    /**
+     * Adds a draw packet. The model matrix is copied.
+     * @param pass					pass of the packet (0 to 15), passes are drawn in ascending order
+     * @param shaderProgram			program drawing the mesh, must be ready
+     * @param modelMatrixUniform	mMatrix uniform of the program
+     * @param mesh					mesh to be drawn
+     * @param modelMatrix			model matrix (column major)
+     */
+    public void add(int pass, ShaderProgram shaderProgram, ShaderUniform modelMatrixUniform,
+                    Mesh mesh, float[] modelMatrix) {
+        add(pass, shaderProgram, modelMatrixUniform, mesh, modelMatrix,
+                modelMatrix[12], modelMatrix[13], modelMatrix[14]);
+    }
+
+    /**
+     * Adds a draw packet sorted by the depth of a point instead of the object origin
+     * (e.g. for meshes in world coordinates drawn with the identity matrix).
+     * @param pass					pass of the packet (0 to 15), passes are drawn in ascending order
+     * @param shaderProgram			program drawing the mesh, must be ready
+     * @param modelMatrixUniform	mMatrix uniform of the program
+     * @param mesh					mesh to be drawn
+     * @param modelMatrix			model matrix (column major)
+     * @param depthX				world x of the point giving the depth in the sort key
+     * @param depthY				world y of the point
+     * @param depthZ				world z of the point
+     */
+    public void add(int pass, ShaderProgram shaderProgram, ShaderUniform modelMatrixUniform,
+                    Mesh mesh, float[] modelMatrix, float depthX, float depthY, float depthZ) {
+        if (noOfPackets == keys.length)
+            allocate(keys.length * 2);
+        int packet = noOfPackets++;
+        programs[packet] = shaderProgram;
+        modelMatrixUniforms[packet] = modelMatrixUniform;
+        meshes[packet] = mesh;
+        System.arraycopy(modelMatrix, 0, modelMatrices, packet * 16, 16);
+
+        // Depth of the point in front of the camera (view space looks along -z)
+        float depth = -(viewMatrix[2] * depthX + viewMatrix[6] * depthY
+                + viewMatrix[10] * depthZ + viewMatrix[14]);
+        // The bits of non negative floats sort like the floats
+        long depthBits = Float.floatToIntBits(Math.max(depth, 0f)) & 0xFFFFFFFFL;
+        keys[packet] = ((pass & PASS_MASK) << PASS_SHIFT)
+                | ((shaderProgram.getShaderProgramID() & PROGRAM_MASK) << PROGRAM_SHIFT)
+                | ((mesh.getVertexArrayName() & MESH_MASK) << MESH_SHIFT)
+                | depthBits;
+    }
+
+    /**
+     * Sorts the packets by their keys and draws them.
+     * @param gl OpenGL context
+     */
+    public void submit(GL3 gl) {
+        sort();
+        for (int i = 0; i < noOfPackets; i++) {
+            int packet = order[i];
+            GLStateCache.useProgram(gl, programs[packet].getShaderProgramID());
+            modelMatrixUniforms[packet].set(gl, modelMatrices, packet * 16);
+            meshes[packet].draw(gl);
+        }
+    }
+
+    /**
+     * LSD radix sort of the keys (unsigned, 8 bits per pass) together with the
+     * packet indices into order. Passes where all keys share the byte are skipped.
+     */
+    private void sort() {
+        for (int i = 0; i < noOfPackets; i++)
+            order[i] = i;
+        if (noOfPackets < 2)
+            return;
+        long[] sourceKeys = keys, targetKeys = tmpKeys;
+        int[] sourceOrder = order, targetOrder = tmpOrder;
+        for (int shift = 0; shift < 64; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < noOfPackets; i++)
+                counts[(int) (sourceKeys[i] >>> shift) & 0xFF]++;
+            if (counts[(int) (sourceKeys[0] >>> shift) & 0xFF] == noOfPackets)
+                continue;
+            // Start index of each bucket
+            int start = 0;
+            for (int bucket = 0; bucket < 256; bucket++) {
+                int count = counts[bucket];
+                counts[bucket] = start;
+                start += count;
+            }
+            for (int i = 0; i < noOfPackets; i++) {
+                int target = counts[(int) (sourceKeys[i] >>> shift) & 0xFF]++;
+                targetKeys[target] = sourceKeys[i];
+                targetOrder[target] = sourceOrder[i];
+            }
+            long[] swapKeys = sourceKeys;
+            sourceKeys = targetKeys;
+            targetKeys = swapKeys;
+            int[] swapOrder = sourceOrder;
+            sourceOrder = targetOrder;
+            targetOrder = swapOrder;
+        }
+        // Keep the arrays in their roles for the next frame
+        if (sourceKeys != keys) {
+            tmpKeys = keys;
+            keys = sourceKeys;
+            tmpOrder = order;
+            order = sourceOrder;
+        }
+    }
+
+    public int getNoOfPackets() {
+        return noOfPackets;
+    }
+}
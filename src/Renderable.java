@@ -0,0 +1,15 @@
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.util.PMVMatrix;
+
+/**
+ * Object that can be attached to a SceneNode and drawn during the traversal of the scene graph.
+ */
+public interface Renderable {
+
+    /**
+     * Draws the object.
+     * @param gl		OpenGL context
+     * @param pmvMatrix	its model-view matrix holds the world matrix of the scene node
+     */
+    void display(GL3 gl, PMVMatrix pmvMatrix);
+}
@@ -187,14 +187,14 @@ public class Roof {
     public static int[] makeIndicesForTriangleStrip() {
         // Indices to reference the number of the shape vertices
         // defined in makeVertices()
+        // The strips of the surfaces are separated by the restart index
+        int restart = Mesh.PRIMITIVE_RESTART_INDEX;
         int[] indices = {
-                // Note: back faces are drawn,
-                // but drawing is faster than using "GL_TRIANGLES"
-                0, 1, 2, 0,     // top triangular surface
-                3, 9, 4, 10,    // surface with normal 0 (between front and side vertex)
-                5, 11, 6, 12,   // surface with normal 1 (between side and back vertex)
-                7, 13, 8, 14,   // surface with normal 2 (between back and front vertex)
-                15, 15, 16, 17      // bottom triangular surface
+                0, 1, 2, restart,           // top triangular surface
+                3, 9, 4, 10, restart,       // surface with normal 0 (between front and side vertex)
+                5, 11, 6, 12, restart,      // surface with normal 1 (between side and back vertex)
+                7, 13, 8, 14, restart,      // surface with normal 2 (between back and front vertex)
+                16, 15, 17                  // bottom triangular surface
         };
         return indices;
     }
@@ -204,6 +204,6 @@ public class Roof {
      * @return number of indices
      */
     public static int getNoOfIndices() {
-        return 20;
+        return 22;
     }
 }
@@ -1,24 +1,22 @@
 import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2GL3;
 import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.util.PMVMatrix;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-
 public class RoofRenderer {
 
-    private int[] vaoRoof;  // Names of vertex array objects
-    private int[] vboRoof;	// Names of vertex buffer objects
-    private int[] iboRoof;	// Names of index buffer objects
+    private Mesh meshRoof;  // Shared geometry from the mesh cache
+    // Size of the shape
+    private final float roofWidth = 0.8f, roofHeight = 1.1f, roofDepth = 0.5f;
+    private final float[] color3 = {0.8f, 0.8f, 0.1f};
     PMVMatrix pmvRoof;
 
-    private final String shaderPath = ".\\resources\\";
-
-    private final String vertexShader3FileName = "O1_Basic.vert";
-    private final String fragmentShader3FileName = "O1_Basic.frag";
+    private final String vertexShader3FileName = "Basic.vert";
+    private final String fragmentShader3FileName = "Basic.frag";
 
     private ShaderProgram shaderProgram3;
+    private ShaderUniform modelMatrixUniform3;  // mMatrix of the shader program
 
     public PMVMatrix getPmvRoof() {
         return pmvRoof;
@@ -32,89 +30,92 @@ public class RoofRenderer {
         GL3 gl = drawable.getGL().getGL3();
 
         // BEGIN: Preparing scene
-        // BEGIN: Allocating vertex array objects and buffers for each object
-        int noOfObjects = 1;
-        // create vertex array objects for noOfObjects objects (VAO)
-        vaoRoof = new int[noOfObjects];
-        gl.glGenVertexArrays(noOfObjects, vaoRoof, 0);
-        if (vaoRoof[0] < 1)
-            System.err.println("Error allocating vertex array object (VAO).");
-
-        // create vertex buffer objects for noOfObjects objects (VBO)
-        vboRoof = new int[noOfObjects];
-        gl.glGenBuffers(noOfObjects, vboRoof, 0);
-        if (vboRoof[0] < 1)
-            System.err.println("Error allocating vertex buffer object (VBO).");
-
-        // create index buffer objects for noOfObjects objects (IBO)
-        iboRoof = new int[noOfObjects];
-        gl.glGenBuffers(noOfObjects, iboRoof, 0);
-        if (iboRoof[0] < 1)
-            System.err.println("Error allocating index buffer object.");
-        // END: Allocating vertex array objects and buffers for each object
-
         initRoof(gl);
 
         // Switch on back face culling
-        gl.glEnable(GL.GL_CULL_FACE);
-        gl.glCullFace(GL.GL_BACK);
+        GLStateCache.enable(gl, GL.GL_CULL_FACE);
+        GLStateCache.cullFace(gl, GL.GL_BACK);
 //        gl.glCullFace(GL.GL_FRONT);
         // Switch on depth test
-        gl.glEnable(GL.GL_DEPTH_TEST);
+        GLStateCache.enable(gl, GL.GL_DEPTH_TEST);
 
         // defining polygon drawing mode
 //        gl.glPolygonMode(GL.GL_FRONT_AND_BACK, gl.GL_FILL);
-        gl.glPolygonMode(GL.GL_FRONT_AND_BACK, gl.GL_LINE);
+        GLStateCache.polygonMode(gl, GL2GL3.GL_LINE);
     }
 
     public void initRoof(GL3 gl){
 
         // BEGIN: Prepare roof for drawing (object 3)
         // create data for rendering a roof using an index array into a vertex array
-        gl.glBindVertexArray(vaoRoof[0]);
-        shaderProgram3 = new ShaderProgram(gl);
-        shaderProgram3.loadShaderAndCreateProgram(shaderPath,
+        // The program is shared by all renderers using the same shaders
+        shaderProgram3 = ShaderProgramRegistry.acquire(gl,
                 vertexShader3FileName, fragmentShader3FileName);
+        // The program may still be compiling, the uniform handle and the mesh is set up by finishInit()
+    }
 
-        float[] color3 = {0.8f, 0.8f, 0.1f};
-        float[] roofVertices = Roof.makeVertices(0.8f, 1.1f, 0.5f, color3);
-        int[] roofIndices = Roof.makeIndicesForTriangleStrip();
-
-        // activate and initialize vertex buffer object (VBO)
-        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vboRoof[0]);
-        // floats use 4 bytes in Java
-        gl.glBufferData(GL.GL_ARRAY_BUFFER, roofVertices.length * 4,
-                FloatBuffer.wrap(roofVertices), GL.GL_STATIC_DRAW);
-
-        // activate and initialize index buffer object (IBO)
-        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, iboRoof[0]);
-        // integers use 4 bytes in Java
-        gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, roofIndices.length * 4,
-                IntBuffer.wrap(roofIndices), GL.GL_STATIC_DRAW);
-
-        // Activate and arrange vertex buffer object data for the vertex shader
-        // Defining input for vertex shader
-        // Pointer for the vertex shader to the position information per vertex
-        gl.glEnableVertexAttribArray(0);
-        gl.glVertexAttribPointer(0, 3, GL.GL_FLOAT, false, 9*4, 0);
-        // Pointer for the vertex shader to the color information per vertex
-        gl.glEnableVertexAttribArray(1);
-        gl.glVertexAttribPointer(1, 3, GL.GL_FLOAT, false, 9*4, 3*4);
-        // Pointer for the vertex shader to the normal information per vertex
-        gl.glEnableVertexAttribArray(2);
-        gl.glVertexAttribPointer(2, 3, GL.GL_FLOAT, false, 9*4, 6*4);
+    /**
+     * Completes the initialization once the shader program is linked (see ShaderProgram.isReady()):
+     * resolves the uniform handle and creates the mesh in the vertex layout of the program.
+     * @param gl OpenGL context
+     */
+    public void finishInit(GL3 gl) {
+        modelMatrixUniform3 = shaderProgram3.getUniform("mMatrix");
+        // Identical shapes share one mesh (vertex and index buffers) on the GPU
+        // The vertex buffers hold only the attributes read by the shader program
+        VertexLayout layout = VertexLayout.forProgram(shaderProgram3);
+        meshRoof = MeshCache.acquireRoof(gl, layout, roofWidth, roofHeight, roofDepth, color3);
         // END: Prepare roof for drawing
     }
 
+    /**
+     * Returns the triangles of the shape for the software occlusion culling.
+     */
+    public SoftwareOcclusionCuller.Occluder makeOccluder() {
+        return SoftwareOcclusionCuller.Occluder.fromTriangleStrip(
+                Roof.makeVertices(roofWidth, roofHeight, roofDepth, new float[3]),
+                Mesh.FLOATS_PER_VERTEX, Roof.makeIndicesForTriangleStrip());
+    }
+
+    /**
+     * Adds the roof placed by a static scene node to a static batcher
+     * (drawn with the chunks of the batcher instead of displayRoof()).
+     */
+    public void addToStaticBatch(StaticBatcher staticBatcher, SceneNode node) {
+        staticBatcher.add(node, shaderProgram3, modelMatrixUniform3,
+                Roof.makeVertices(roofWidth, roofHeight, roofDepth, color3),
+                Roof.makeIndicesForTriangleStrip());
+    }
+
+    /**
+     * Returns the mesh of the shape (e.g. for drawing it with a MultiDrawRenderer).
+     */
+    public Mesh getMesh() {
+        return meshRoof;
+    }
+
     public void displayRoof(GL3 gl,PMVMatrix pmvMatrix) {
-        gl.glUseProgram(shaderProgram3.getShaderProgramID());
-        // Transfer the PVM-Matrix (model-view and projection matrix)
-        // to the vertex shader
-        gl.glUniformMatrix4fv(0, 1, false, pmvMatrix.glGetPMatrixf());
-        gl.glUniformMatrix4fv(1, 1, false, pmvMatrix.glGetMvMatrixf());
-        gl.glBindVertexArray(vaoRoof[0]);
+        // Skip drawing while the shader program is still being compiled
+        if (!shaderProgram3.isReady())
+            return;
+        GLStateCache.useProgram(gl, shaderProgram3.getShaderProgramID());
+        // Transfer the model matrix to the vertex shader (skipped if unchanged)
+        // (projection and view matrix are in the camera uniform buffer)
+        modelMatrixUniform3.set(gl, pmvMatrix.glGetMvMatrixf());
         // Draws the elements in the order defined by the index buffer object (IBO)
-        gl.glDrawElements(GL.GL_TRIANGLE_STRIP, Box.noOfIndicesForBox(), GL.GL_UNSIGNED_INT, 0);
+        meshRoof.draw(gl);
+    }
+
+    /**
+     * Adds the roof to a render queue instead of drawing it immediately.
+     * @param renderQueue	queue of the frame
+     * @param modelMatrix	model matrix of the object
+     */
+    public void queueRoof(RenderQueue renderQueue, float[] modelMatrix) {
+        // Skip drawing while the shader program is still being compiled
+        if (!shaderProgram3.isReady())
+            return;
+        renderQueue.add(RenderQueue.PASS_OPAQUE, shaderProgram3, modelMatrixUniform3, meshRoof, modelMatrix);
     }
 
     public void reshapeRoof(GLAutoDrawable drawable, int x, int y, int width, int height, PMVMatrix pmvMatrix) {
@@ -128,16 +129,19 @@ public class RoofRenderer {
     public void disposeRoof(GLAutoDrawable drawable) {
         GL3 gl = drawable.getGL().getGL3();
 
-        // Detach and delete shader program
-        gl.glUseProgram(0);
-        shaderProgram3.deleteShaderProgram();
+        // Detach and release shader program
+        GLStateCache.useProgram(gl, 0);
+        ShaderProgramRegistry.release(shaderProgram3);
+        // Release the shared mesh
+        if (meshRoof != null)
+            MeshCache.release(gl, meshRoof);
 
         // deactivate VAO and VBO
-        gl.glBindVertexArray(0);
+        GLStateCache.bindVertexArray(gl, 0);
         gl.glDisableVertexAttribArray(0);
         gl.glDisableVertexAttribArray(1);
 
-        gl.glDisable(GL.GL_CULL_FACE);
-        gl.glDisable(GL.GL_DEPTH_TEST);
+        GLStateCache.disable(gl, GL.GL_CULL_FACE);
+        GLStateCache.disable(gl, GL.GL_DEPTH_TEST);
     }
 }
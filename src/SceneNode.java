@@ -0,0 +1,256 @@
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.math.FloatUtil;
+import com.jogamp.opengl.util.PMVMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Node of the scene graph: local transform relative to the parent node,
+ * child nodes and an optional attached Renderable.
+ * The world matrix (parent world matrix * local matrix) is cached. Changing the local
+ * transform marks the node and its ancestors, so updateWorldMatrices() only visits
+ * the paths to changed nodes and only recomputes the subtrees below them.
+ * Nodes with bounds (see setLocalBounds()) can be stored in a spatial index, which is
+ * updated when their world matrix is recomputed.
+ * All matrices are column major 4x4 matrices.
+ */
+public class SceneNode {
+
+    // Temporary matrices of translate() and rotate() (scene graphs are updated by the animator thread only)
+    private static final float[] tmpMatrix = new float[16];
+    private static final float[] tmpVector = new float[3];
+
+    private final String name;
+    private final float[] localMatrix = FloatUtil.makeIdentity(new float[16]);
+    private final float[] worldMatrix = FloatUtil.makeIdentity(new float[16]);
+    private SceneNode parent;
+    private final List<SceneNode> children = new ArrayList<>();
+    private Renderable renderable;
+
+    // Bounds of the renderable in object coordinates (null: no bounds) and world coordinates
+    private float[] localBoundsMin, localBoundsMax;
+    private final float[] worldBoundsMin = new float[3];
+    private final float[] worldBoundsMax = new float[3];
+    private LooseOctree<SceneNode> spatialIndex;
+    private LooseOctree.Entry<SceneNode> spatialIndexEntry;
+
+    // Static nodes do not move after loading (see StaticBatcher)
+    private boolean isStatic = false;
+    private boolean localMatrixChanged = true;
+    private boolean descendantChanged = false;
+
+    public SceneNode(String name) {
+        this(name, null);
+    }
+
+    /**
+     * @param name			name of the node (for debugging)
+     * @param renderable	object drawn with the world matrix of this node, may be null
+     */
+    public SceneNode(String name, Renderable renderable) {
+        this.name = name;
+        this.renderable = renderable;
+    }
+
+    /**
+     * Appends a child node. A child of another node is moved to this node.
+     * @return the child node, for chaining
+     */
+    public SceneNode addChild(SceneNode child) {
+        if (child.parent != null)
+            child.parent.removeChild(child);
+        child.parent = this;
+        children.add(child);
+        child.markChanged();
+        return child;
+    }
+
+    public void removeChild(SceneNode child) {
+        if (children.remove(child)) {
+            child.parent = null;
+            child.markChanged();
+        }
+    }
+
+    /**
+     * Replaces the local transform.
+     * @param matrix column major 4x4 matrix
+     */
+    public void setLocalMatrix(float[] matrix) {
+        System.arraycopy(matrix, 0, localMatrix, 0, 16);
+        markChanged();
+    }
+
+    /**
+     * Multiplies the local transform with a translation (like glTranslatef).
+     * @return this node, for chaining
+     */
+    public SceneNode translate(float x, float y, float z) {
+        FloatUtil.makeTranslation(tmpMatrix, true, x, y, z);
+        FloatUtil.multMatrix(localMatrix, tmpMatrix);
+        markChanged();
+        return this;
+    }
+
+    /**
+     * Multiplies the local transform with a rotation (like glRotatef).
+     * @param angle angle in degrees
+     * @return this node, for chaining
+     */
+    public SceneNode rotate(float angle, float x, float y, float z) {
+        FloatUtil.makeRotationAxis(tmpMatrix, 0, (float) Math.toRadians(angle), x, y, z, tmpVector);
+        FloatUtil.multMatrix(localMatrix, tmpMatrix);
+        markChanged();
+        return this;
+    }
+
+    private void markChanged() {
+        localMatrixChanged = true;
+        // The ancestors of a node with descendantChanged are already marked
+        for (SceneNode node = parent; node != null && !node.descendantChanged; node = node.parent)
+            node.descendantChanged = true;
+    }
+
+    /**
+     * Recomputes the world matrices of all changed nodes and their subtrees.
+     * To be called on the root node once per frame before display().
+     * @return number of recomputed world matrices
+     */
+    public int updateWorldMatrices() {
+        return updateWorldMatrices(false);
+    }
+
+    private int updateWorldMatrices(boolean parentChanged) {
+        int noOfUpdates = 0;
+        boolean changed = parentChanged || localMatrixChanged;
+        if (changed) {
+            if (parent == null)
+                System.arraycopy(localMatrix, 0, worldMatrix, 0, 16);
+            else
+                FloatUtil.multMatrix(parent.worldMatrix, localMatrix, worldMatrix);
+            localMatrixChanged = false;
+            noOfUpdates++;
+            if (localBoundsMin != null)
+                updateWorldBounds();
+        }
+        if (changed || descendantChanged) {
+            for (SceneNode child : children)
+                noOfUpdates += child.updateWorldMatrices(changed);
+            descendantChanged = false;
+        }
+        return noOfUpdates;
+    }
+
+    /**
+     * Sets the bounds of the renderable, e.g. from its mesh.
+     * @param min minimum corner of the bounding box in object coordinates
+     * @param max maximum corner of the bounding box in object coordinates
+     */
+    public void setLocalBounds(float[] min, float[] max) {
+        localBoundsMin = min.clone();
+        localBoundsMax = max.clone();
+        markChanged();
+    }
+
+    /**
+     * Transforms the local bounds by the world matrix (Arvo) and moves
+     * the node in the spatial index.
+     */
+    private void updateWorldBounds() {
+        for (int row = 0; row < 3; row++) {
+            worldBoundsMin[row] = worldMatrix[12 + row];
+            worldBoundsMax[row] = worldMatrix[12 + row];
+            for (int column = 0; column < 3; column++) {
+                float m = worldMatrix[column * 4 + row];
+                float a = m * localBoundsMin[column];
+                float b = m * localBoundsMax[column];
+                worldBoundsMin[row] += Math.min(a, b);
+                worldBoundsMax[row] += Math.max(a, b);
+            }
+        }
+        if (spatialIndexEntry != null)
+            spatialIndex.move(spatialIndexEntry, worldBoundsMin, worldBoundsMax);
+    }
+
+    /**
+     * Inserts the node into a spatial index (or removes it with null).
+     * The node must have bounds and an up to date world matrix.
+     */
+    public void setSpatialIndex(LooseOctree<SceneNode> spatialIndex) {
+        if (spatialIndexEntry != null)
+            this.spatialIndex.remove(spatialIndexEntry);
+        spatialIndexEntry = null;
+        this.spatialIndex = spatialIndex;
+        if (spatialIndex != null)
+            spatialIndexEntry = spatialIndex.insert(this, worldBoundsMin, worldBoundsMax);
+    }
+
+    public boolean hasBounds() {
+        return localBoundsMin != null;
+    }
+
+    /**
+     * Draws the renderable of this node, not its subtree. The nodes to draw are found
+     * in a spatial index, so they are drawn in the order of the query, not of the graph.
+     * @param gl		OpenGL context
+     * @param pmvMatrix	matrices, matrix mode must be GL_MODELVIEW
+     */
+    public void displayRenderable(GL3 gl, PMVMatrix pmvMatrix) {
+        if (renderable != null) {
+            pmvMatrix.glLoadMatrixf(worldMatrix, 0);
+            renderable.display(gl, pmvMatrix);
+        }
+    }
+
+    /**
+     * Marks the node as static: its world matrix does not change after loading,
+     * so its renderable can be baked into world space by a StaticBatcher.
+     */
+    public void setStatic(boolean isStatic) {
+        this.isStatic = isStatic;
+    }
+
+    public boolean isStatic() {
+        return isStatic;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public SceneNode getParent() {
+        return parent;
+    }
+
+    public List<SceneNode> getChildren() {
+        return children;
+    }
+
+    public Renderable getRenderable() {
+        return renderable;
+    }
+
+    public void setRenderable(Renderable renderable) {
+        this.renderable = renderable;
+    }
+
+    public float[] getLocalMatrix() {
+        return localMatrix;
+    }
+
+    /**
+     * Returns the cached world matrix (valid after updateWorldMatrices()).
+     */
+    public float[] getWorldMatrix() {
+        return worldMatrix;
+    }
+
+    public float[] getWorldBoundsMin() {
+        return worldBoundsMin;
+    }
+
+    public float[] getWorldBoundsMax() {
+        return worldBoundsMax;
+    }
+}
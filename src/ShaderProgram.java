@@ -27,15 +27,21 @@
  */
 
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
+import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2ES2;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3ES3;
 
 /**
  * Loads a vertex and fragment shader from files and stores the OpenGL-ID
  * for the shader program.
+ * After linking, the active vertex attributes and uniforms of the program are queried
+ * (program interface query), see getActiveAttributeMask() and getUniform().
  *
  * Based on a tutorial by Chua Hock-Chuan
  * http://www3.ntu.edu.sg/home/ehchua/programming/opengl/JOGL2.0.html
@@ -49,8 +55,28 @@ import com.jogamp.opengl.GL2ES2;
  */
 
 public class ShaderProgram {
+    // Constant of KHR_parallel_shader_compile (identical to GL_COMPLETION_STATUS_ARB)
+    private static final int GL_COMPLETION_STATUS_KHR = 0x91B1;
+
+    // Bit mask of all attribute locations, used until the program is linked
+    public static final int ALL_ATTRIBUTES = -1;
+
     private int shaderProgramID;
     GL2ES2 gl;
+    // Bit n is set if the program reads the vertex attribute at location n
+    private int activeAttributeMask = ALL_ATTRIBUTES;
+    // Handles of the active uniforms outside of uniform blocks, keyed by name
+    private final Map<String, ShaderUniform> uniforms = new HashMap<>();
+
+    // BEGIN: State of a compilation submitted with submitProgramFromSource()
+    private boolean compilationPending = false;
+    private boolean parallelCompileSupported = false;
+    private int pendingVertexShader;
+    private int pendingFragmentShader;
+    private long submitTime;        // System.nanoTime() at submission
+    private long compileTime = -1;  // nanoseconds, negative while pending
+    private long linkTime = -1;     // nanoseconds, negative while pending
+    // END: State of a compilation submitted with submitProgramFromSource()
 
     /** Construct shader program object for a defined OpenGL profile
      *
@@ -67,55 +93,393 @@ public class ShaderProgram {
         return shaderProgramID;
     }
 
+    /**
+     * Returns the vertex attribute locations read by the linked program as bit mask
+     * (bit n for location n, e.g. 0b11 for position and color).
+     * A program submitted with submitProgramFromSource() is waited for, if it has not
+     * finished linking yet. If the driver does not support program interface queries,
+     * all bits are set.
+     */
+    public int getActiveAttributeMask() {
+        if (compilationPending)
+            finishCompilation();
+        return activeAttributeMask;
+    }
+
+    /**
+     * Returns the handle of a uniform variable (for arrays the name without "[0]").
+     * A program submitted with submitProgramFromSource() is waited for, if it has not
+     * finished linking yet. For a uniform that is not used by the program (or if the driver
+     * does not support program interface queries) a handle ignoring all values is returned.
+     * @param name name of the uniform in the shader source
+     */
+    public ShaderUniform getUniform(String name) {
+        if (compilationPending)
+            finishCompilation();
+        ShaderUniform uniform = uniforms.get(name);
+        if (uniform == null) {
+            uniform = new ShaderUniform(name, -1, GL.GL_FLOAT, 1);
+            uniforms.put(name, uniform);
+        }
+        return uniform;
+    }
+
     /**
      * Deletes the shader program associated with this object
      * (and stored in the field shaderProgramID)
      */
     public void deleteShaderProgram() {
+        if (compilationPending) {
+            deleteShaders(pendingVertexShader, pendingFragmentShader);
+            compilationPending = false;
+        }
         gl.glDeleteProgram(shaderProgramID);
     }
 
     /**
-     * Loads a vertex and a fragment shader and links to a shader program
-     * @param path						Directory path where the shaders are located
+     * Loads a vertex and a fragment shader and links to a shader program.
+     * The shaders are loaded and preprocessed by the ShaderSourceLoader.
      * @param vertexShaderFileName		File name of the vertex shader
      * @param fragmentShaderFileName	File name of the fragment shader
+     * @param defines					Feature flags defined for both shaders
      */
-    public void loadShaderAndCreateProgram(String path,
-                                           String vertexShaderFileName,
-                                           String fragmentShaderFileName) {
+    public void loadShaderAndCreateProgram(String vertexShaderFileName,
+                                           String fragmentShaderFileName,
+                                           String... defines) {
         // In the core profile each shader program must have a
         // vertex and a fragment shader
+        System.out.println("Loading vertex shader from file: " + vertexShaderFileName);
+        String vertexShaderString = ShaderSourceLoader.load(vertexShaderFileName, defines);
 
-        // Load and compile vertex shader
-        String vertexShaderString;
-        int vertexShader;
-        String vertexPathAndFileName = path + vertexShaderFileName;
-        System.out.println("Loading vertex shader from file: " + vertexPathAndFileName);
-        vertexShaderString = loadFileToString(vertexPathAndFileName);
-        vertexShader = compileShader(GL2ES2.GL_VERTEX_SHADER, vertexShaderString);
+        System.out.println("Loading fragment shader from file: " + fragmentShaderFileName);
+        String fragmentShaderString = ShaderSourceLoader.load(fragmentShaderFileName, defines);
+
+        createProgramFromSource(vertexShaderString, fragmentShaderString, false);
+    }
 
+    /**
+     * Loads a compute shader and links it to a shader program.
+     * Blocks until the driver has finished compiling and linking.
+     * The shader is loaded and preprocessed by the ShaderSourceLoader.
+     * @param computeShaderFileName	File name of the compute shader
+     * @param defines				Feature flags defined for the shader
+     */
+    public void loadComputeShaderAndCreateProgram(String computeShaderFileName, String... defines) {
+        System.out.println("Loading compute shader from file: " + computeShaderFileName);
+        String computeShaderString = ShaderSourceLoader.load(computeShaderFileName, defines);
+
+        submitTime = System.nanoTime();
+        int computeShader = compileShader(GL3ES3.GL_COMPUTE_SHADER, computeShaderString);
+        compileTime = System.nanoTime() - submitTime;
+
+        shaderProgramID = gl.glCreateProgram();
+        gl.glAttachShader(shaderProgramID, computeShader);
+        gl.glLinkProgram(shaderProgramID);
+        checkLinkStatus();
+        linkTime = System.nanoTime() - submitTime - compileTime;
+
+        gl.glDetachShader(shaderProgramID, computeShader);
+        gl.glDeleteShader(computeShader);
+        printCompileAndLinkTimes();
+    }
+
+    /**
+     * Compiles a vertex and a fragment shader from source strings and links them
+     * to a shader program. Blocks until the driver has finished compiling and linking.
+     * @param vertexShaderString		Source code of the vertex shader
+     * @param fragmentShaderString		Source code of the fragment shader
+     * @param binaryRetrievable			If true, the driver is asked to keep the linked
+     *                                  program retrievable with glGetProgramBinary
+     */
+    public void createProgramFromSource(String vertexShaderString,
+                                        String fragmentShaderString,
+                                        boolean binaryRetrievable) {
+        submitTime = System.nanoTime();
+        // Load and compile vertex shader
+        int vertexShader = compileShader(GL2ES2.GL_VERTEX_SHADER, vertexShaderString);
         // Load and compile fragment shader
-        String fragmentShaderString;
-        int fragmentShader;
-        String fragmentPathAndFileName = path + fragmentShaderFileName;
-        System.out.println("Loading fragment shader from file: " + fragmentPathAndFileName);
-        fragmentShaderString = loadFileToString(fragmentPathAndFileName);
-        fragmentShader = compileShader(GL2ES2.GL_FRAGMENT_SHADER, fragmentShaderString);
+        int fragmentShader = compileShader(GL2ES2.GL_FRAGMENT_SHADER, fragmentShaderString);
+        compileTime = System.nanoTime() - submitTime;
+
+        linkProgram(vertexShader, fragmentShader, binaryRetrievable);
+        checkLinkStatus();
+        linkTime = System.nanoTime() - submitTime - compileTime;
+
+        deleteShaders(vertexShader, fragmentShader);
+        printCompileAndLinkTimes();
+    }
+
+    /**
+     * Submits the vertex and fragment shader for compilation and the program for linking
+     * without waiting for the driver. No compile or link status is queried here,
+     * so the driver can compile in the background (KHR_parallel_shader_compile)
+     * while further programs are submitted.
+     * Before the program is used, isReady() must return true.
+     * @param vertexShaderString		Source code of the vertex shader
+     * @param fragmentShaderString		Source code of the fragment shader
+     * @param binaryRetrievable			If true, the driver is asked to keep the linked
+     *                                  program retrievable with glGetProgramBinary
+     */
+    public void submitProgramFromSource(String vertexShaderString,
+                                        String fragmentShaderString,
+                                        boolean binaryRetrievable) {
+        parallelCompileSupported = gl.isExtensionAvailable("GL_KHR_parallel_shader_compile") ||
+                gl.isExtensionAvailable("GL_ARB_parallel_shader_compile");
+
+        submitTime = System.nanoTime();
+        pendingVertexShader = submitShader(GL2ES2.GL_VERTEX_SHADER, vertexShaderString);
+        pendingFragmentShader = submitShader(GL2ES2.GL_FRAGMENT_SHADER, fragmentShaderString);
+        linkProgram(pendingVertexShader, pendingFragmentShader, binaryRetrievable);
+        compileTime = -1;
+        linkTime = -1;
+        compilationPending = true;
+    }
+
+    /**
+     * Returns true if the shader program is linked and can be used for drawing.
+     * For a program submitted with submitProgramFromSource() the completion status
+     * is polled without blocking, if the driver supports KHR_parallel_shader_compile.
+     * Otherwise the compile and link status is checked on the first call,
+     * which waits for the driver.
+     */
+    public boolean isReady() {
+        if (!compilationPending)
+            return true;
+
+        if (parallelCompileSupported) {
+            // Compile time is measured at the granularity of the polling calls
+            if (compileTime < 0 && isCompletionStatusSet(pendingVertexShader, true)
+                    && isCompletionStatusSet(pendingFragmentShader, true))
+                compileTime = System.nanoTime() - submitTime;
+            if (!isCompletionStatusSet(shaderProgramID, false))
+                return false;
+        }
+        finishCompilation();
+        return true;
+    }
+
+    /**
+     * Checks the compile and link status of a submitted program and deletes the shaders.
+     */
+    private void finishCompilation() {
+        checkCompileStatus(pendingVertexShader);
+        checkCompileStatus(pendingFragmentShader);
+        checkLinkStatus();
+        long completionTime = System.nanoTime() - submitTime;
+        if (compileTime < 0) {
+            // Without the parallel compile extension compile and link cannot be told apart
+            compileTime = completionTime;
+            linkTime = 0;
+        } else {
+            linkTime = completionTime - compileTime;
+        }
+        deleteShaders(pendingVertexShader, pendingFragmentShader);
+        compilationPending = false;
+        printCompileAndLinkTimes();
+    }
+
+    /**
+     * Queries GL_COMPLETION_STATUS_KHR of a shader or program object (never blocks).
+     */
+    private boolean isCompletionStatusSet(int objectID, boolean isShader) {
+        int[] completed = new int[1];
+        if (isShader)
+            gl.glGetShaderiv(objectID, GL_COMPLETION_STATUS_KHR, completed, 0);
+        else
+            gl.glGetProgramiv(objectID, GL_COMPLETION_STATUS_KHR, completed, 0);
+        return completed[0] != 0;
+    }
+
+    /**
+     * Returns the time from submission until both shaders were compiled in milliseconds,
+     * or a negative value if the compilation has not finished yet.
+     */
+    public double getCompileTimeMillis() {
+        return compileTime < 0 ? -1 : compileTime / 1e6;
+    }
+
+    /**
+     * Returns the time from finished compilation until the program was linked in milliseconds,
+     * or a negative value if linking has not finished yet.
+     */
+    public double getLinkTimeMillis() {
+        return linkTime < 0 ? -1 : linkTime / 1e6;
+    }
+
+    private void printCompileAndLinkTimes() {
+        System.out.printf("Shader program %d: compile %.2f ms, link %.2f ms%n",
+                shaderProgramID, getCompileTimeMillis(), getLinkTimeMillis());
+    }
 
+    /**
+     * Creates the program object, attaches the shaders and links them.
+     */
+    private void linkProgram(int vertexShader, int fragmentShader, boolean binaryRetrievable) {
         shaderProgramID = gl.glCreateProgram();
         gl.glAttachShader(shaderProgramID, vertexShader);
         gl.glAttachShader(shaderProgramID, fragmentShader);
 
+        // The hint has to be set before linking
+        if (binaryRetrievable)
+            gl.glProgramParameteri(shaderProgramID, GL2ES3.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL.GL_TRUE);
         gl.glLinkProgram(shaderProgramID);
+    }
 
-        // Shader can be deleted because they are linked into the program
+    /**
+     * Shaders can be deleted after linking because they are linked into the program.
+     */
+    private void deleteShaders(int vertexShader, int fragmentShader) {
         gl.glDetachShader(shaderProgramID, vertexShader);  // not necessarily needed
         gl.glDeleteShader(vertexShader);
         gl.glDetachShader(shaderProgramID, fragmentShader); // not necessarily needed
         gl.glDeleteShader(fragmentShader);
     }
 
+    /**
+     * Creates the shader program from a binary previously returned by getProgramBinary().
+     * The driver may reject the binary (e.g. after a driver update). In this case
+     * the program object is deleted again and false is returned, so the caller can
+     * fall back to compiling from source.
+     * @param binaryFormat	Driver specific format of the binary
+     * @param binary		Program binary
+     * @return true if the driver accepted the binary and the program is linked
+     */
+    public boolean createProgramFromBinary(int binaryFormat, byte[] binary) {
+        shaderProgramID = gl.glCreateProgram();
+        gl.glProgramBinary(shaderProgramID, binaryFormat, ByteBuffer.wrap(binary), binary.length);
+
+        int[] linked = new int[1];
+        gl.glGetProgramiv(shaderProgramID, GL2ES2.GL_LINK_STATUS, linked, 0);
+        if (linked[0] == 0) {
+            gl.glDeleteProgram(shaderProgramID);
+            shaderProgramID = 0;
+            return false;
+        }
+        reflectActiveAttributes();
+        reflectUniforms();
+        return true;
+    }
+
+    /**
+     * Reads back the binary of the linked shader program.
+     * @param binaryFormat	Array of at least one element receiving the driver specific format
+     * @return program binary or null if the driver does not provide one
+     */
+    public byte[] getProgramBinary(int[] binaryFormat) {
+        int[] binaryLength = new int[1];
+        gl.glGetProgramiv(shaderProgramID, GL2ES2.GL_PROGRAM_BINARY_LENGTH, binaryLength, 0);
+        if (binaryLength[0] <= 0)
+            return null;
+
+        ByteBuffer binaryBuffer = ByteBuffer.allocateDirect(binaryLength[0]);
+        int[] writtenLength = new int[1];
+        gl.glGetProgramBinary(shaderProgramID, binaryLength[0], writtenLength, 0, binaryFormat, 0, binaryBuffer);
+        byte[] binary = new byte[writtenLength[0]];
+        binaryBuffer.get(binary);
+        return binary;
+    }
+
+    /**
+     * Checks the link status of the shader program and outputs the error log.
+     */
+    private void checkLinkStatus() {
+        int[] linked = new int[1];
+        gl.glGetProgramiv(shaderProgramID, GL2ES2.GL_LINK_STATUS, linked, 0);
+        if (linked[0] == 0) {
+            // read and print linker log to console
+            int[] logLength = new int[1];
+            gl.glGetProgramiv(shaderProgramID, GL2ES2.GL_INFO_LOG_LENGTH, logLength, 0);
+
+            byte[] log = new byte[logLength[0]];
+            gl.glGetProgramInfoLog(shaderProgramID, logLength[0], (int[])null, 0, log, 0);
+
+            System.err.println("Error linking shader program: " + new String(log));
+            System.exit(1);
+        }
+        reflectActiveAttributes();
+        reflectUniforms();
+    }
+
+    /**
+     * Queries the locations of the active vertex attributes (GL_PROGRAM_INPUT interface)
+     * of the linked program. Matrices and arrays occupy several consecutive locations,
+     * built-in inputs like gl_VertexID have no location.
+     */
+    private void reflectActiveAttributes() {
+        if (!gl.isGL3ES3())
+            return;
+        GL3ES3 gl3 = gl.getGL3ES3();
+        int[] noOfInputs = new int[1];
+        gl3.glGetProgramInterfaceiv(shaderProgramID, GL3ES3.GL_PROGRAM_INPUT,
+                GL3ES3.GL_ACTIVE_RESOURCES, noOfInputs, 0);
+        int[] properties = {GL3ES3.GL_LOCATION, GL3ES3.GL_TYPE, GL3ES3.GL_ARRAY_SIZE};
+        int[] values = new int[properties.length];
+        int mask = 0;
+        for (int input = 0; input < noOfInputs[0]; input++) {
+            gl3.glGetProgramResourceiv(shaderProgramID, GL3ES3.GL_PROGRAM_INPUT, input,
+                    properties.length, properties, 0, values.length, null, 0, values, 0);
+            int location = values[0];
+            if (location < 0)
+                continue;
+            int noOfLocations = getNoOfColumns(values[1]) * Math.max(values[2], 1);
+            for (int i = location; i < Math.min(location + noOfLocations, 32); i++)
+                mask |= 1 << i;
+        }
+        activeAttributeMask = mask;
+    }
+
+    /**
+     * Queries the active uniforms (GL_UNIFORM interface) of the linked program and creates
+     * their handles. Members of uniform blocks are skipped, they are set with buffers.
+     */
+    private void reflectUniforms() {
+        if (!gl.isGL3ES3())
+            return;
+        GL3ES3 gl3 = gl.getGL3ES3();
+        int[] noOfUniforms = new int[1];
+        gl3.glGetProgramInterfaceiv(shaderProgramID, GL3ES3.GL_UNIFORM,
+                GL3ES3.GL_ACTIVE_RESOURCES, noOfUniforms, 0);
+        int[] properties = {GL3ES3.GL_BLOCK_INDEX, GL3ES3.GL_LOCATION, GL3ES3.GL_TYPE,
+                GL3ES3.GL_ARRAY_SIZE, GL3ES3.GL_NAME_LENGTH};
+        int[] values = new int[properties.length];
+        for (int index = 0; index < noOfUniforms[0]; index++) {
+            gl3.glGetProgramResourceiv(shaderProgramID, GL3ES3.GL_UNIFORM, index,
+                    properties.length, properties, 0, values.length, null, 0, values, 0);
+            if (values[0] >= 0 || values[1] < 0)
+                continue;
+            byte[] nameBytes = new byte[values[4]];
+            int[] nameLength = new int[1];
+            gl3.glGetProgramResourceName(shaderProgramID, GL3ES3.GL_UNIFORM, index,
+                    nameBytes.length, nameLength, 0, nameBytes, 0);
+            String name = new String(nameBytes, 0, nameLength[0], StandardCharsets.US_ASCII);
+            if (name.endsWith("[0]"))
+                name = name.substring(0, name.length() - 3);
+            uniforms.put(name, new ShaderUniform(name, values[1], values[2], Math.max(values[3], 1)));
+        }
+    }
+
+    /**
+     * Returns the number of attribute locations of a type (the columns of a matrix).
+     */
+    private static int getNoOfColumns(int type) {
+        switch (type) {
+            case GL2ES2.GL_FLOAT_MAT2:
+            case GL2ES3.GL_FLOAT_MAT2x3:
+            case GL2ES3.GL_FLOAT_MAT2x4:
+                return 2;
+            case GL2ES2.GL_FLOAT_MAT3:
+            case GL2ES3.GL_FLOAT_MAT3x2:
+            case GL2ES3.GL_FLOAT_MAT3x4:
+                return 3;
+            case GL2ES2.GL_FLOAT_MAT4:
+            case GL2ES3.GL_FLOAT_MAT4x2:
+            case GL2ES3.GL_FLOAT_MAT4x3:
+                return 4;
+            default:
+                return 1;
+        }
+    }
+
     /**
      * Compiles a shader of a given shader type from a character string array.
      * Checks compile status and outputs the error log.
@@ -125,6 +489,19 @@ public class ShaderProgram {
      * @return 				OpenGL shader ID
      */
     private int compileShader(int shaderType, String shaderString) {
+        int shader = submitShader(shaderType, shaderString);
+        checkCompileStatus(shader);
+        return shader;
+    }
+
+    /**
+     * Creates a shader object and starts its compilation without querying the result.
+     *
+     * @param shaderType	OpenGL-Shader type (eg. GL3.GL_VERTEX_SHADER)
+     * @param shaderString	Character string containing the shader source code
+     * @return 				OpenGL shader ID
+     */
+    private int submitShader(int shaderType, String shaderString) {
         int shader;
 
         //Compile shader String into a program.
@@ -133,7 +510,14 @@ public class ShaderProgram {
         int[] shaderLengths = new int[] { shaderLines[0].length() };
         gl.glShaderSource(shader, shaderLines.length, shaderLines, shaderLengths, 0);
         gl.glCompileShader(shader);
+        return shader;
+    }
 
+    /**
+     * Checks compile status of a shader and outputs the error log.
+     * @param shader OpenGL shader ID
+     */
+    private void checkCompileStatus(int shader) {
         //Check compile status.
         int[] compiled = new int[1];
         gl.glGetShaderiv(shader, GL2ES2.GL_COMPILE_STATUS, compiled,0);
@@ -150,43 +534,5 @@ public class ShaderProgram {
             System.err.println("Error compiling shader: " + new String(log));
             System.exit(1);
         }
-
-        return shader;
-    }
-
-    /**
-     * Loads the contents of a (text) file into a string variable.
-     * @param fileName: name of the file including the (relative) path
-     * @return contents of the (text) file
-     *
-     */
-    private String loadFileToString(String fileName) {
-        String fileContent = "";
-
-        try
-        {
-            StringBuffer buffer = new StringBuffer();
-            FileReader charStream = new FileReader(fileName);
-
-            int bufferItem;
-            bufferItem = charStream.read();
-            while (bufferItem != -1) {
-                buffer.append((char) bufferItem);
-                bufferItem = charStream.read();
-            }
-            charStream.close();
-            fileContent = buffer.toString();
-        }
-        catch(FileNotFoundException e)
-        {
-            System.err.println("File \"" + fileName + "\" not found!");
-            System.exit(1);
-        }
-        catch(IOException e)
-        {
-            System.err.println("IO Expection encountered when reading file!");
-            System.exit(1);
-        }
-        return fileContent;
     }
 }
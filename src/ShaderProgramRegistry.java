@@ -0,0 +1,221 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.jogamp.opengl.GL3;
+
+/**
+ * Process-wide registry handing out one shared, linked shader program
+ * per combination of vertex and fragment shader source.
+ * Programs are keyed by a hash of their preprocessed sources, so renderers loading
+ * the same shader files share one program object instead of compiling
+ * and linking their own copy.
+ * Linked programs are stored in a ProgramBinaryCache and reloaded from
+ * there on the next start, if the driver accepts the binary.
+ * In asynchronous mode programs are only submitted to the driver in acquire().
+ * Renderers must check ShaderProgram.isReady() before drawing and
+ * pollPendingPrograms() should be called once per frame.
+ * All methods are static and must be called on the OpenGL thread.
+ */
+public class ShaderProgramRegistry {
+
+    // Shared programs, keyed by the hash of their sources
+    private static final Map<String, Entry> programs = new HashMap<>();
+    // Reverse lookup for releasing programs
+    private static final Map<ShaderProgram, Entry> entries = new HashMap<>();
+
+    // Programs submitted asynchronously that have not finished linking yet
+    private static final List<Entry> pendingPrograms = new ArrayList<>();
+
+    private static boolean asyncCompile = false;
+    private static long firstSubmitTime;
+
+    private static ProgramBinaryCache binaryCache = new ProgramBinaryCache(ProgramBinaryCache.DEFAULT_CACHE_DIRECTORY);
+
+    private static class Entry {
+        private final String key;
+        private final ShaderProgram shaderProgram;
+        private int referenceCount;
+        private boolean storeBinaryWhenReady;
+
+        private Entry(String key, ShaderProgram shaderProgram) {
+            this.key = key;
+            this.shaderProgram = shaderProgram;
+        }
+    }
+
+    /**
+     * Sets the on-disk cache for program binaries.
+     * @param cache cache to be used, null switches the binary cache off
+     */
+    public static void setBinaryCache(ProgramBinaryCache cache) {
+        binaryCache = cache;
+    }
+
+    /**
+     * Switches asynchronous compilation on or off for programs created afterwards.
+     * @param async if true, acquire() returns programs that may still be compiling
+     */
+    public static void setAsyncCompile(boolean async) {
+        asyncCompile = async;
+    }
+
+    /**
+     * Polls all programs still compiling and stores the binaries of finished ones
+     * in the binary cache. Never blocks if the driver supports KHR_parallel_shader_compile.
+     * @return true if no program is pending anymore
+     */
+    public static boolean pollPendingPrograms() {
+        if (pendingPrograms.isEmpty())
+            return true;
+
+        Iterator<Entry> iterator = pendingPrograms.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.shaderProgram.isReady()) {
+                if (entry.storeBinaryWhenReady)
+                    storeBinary(entry.key, entry.shaderProgram);
+                iterator.remove();
+            }
+        }
+        if (pendingPrograms.isEmpty())
+            System.out.printf("All shader programs ready %.2f ms after the first submission%n",
+                    (System.nanoTime() - firstSubmitTime) / 1e6);
+        return pendingPrograms.isEmpty();
+    }
+
+    /**
+     * Returns a linked shader program for the given vertex and fragment shader.
+     * If a program with identical sources was requested before, the shared program
+     * is returned and its reference count is incremented.
+     * Each call must be matched with a call of release().
+     * @param gl						OpenGL context
+     * @param vertexShaderFileName		File name of the vertex shader
+     * @param fragmentShaderFileName	File name of the fragment shader
+     * @param defines					Feature flags defined for both shaders
+     *                                  (see ShaderSourceLoader)
+     * @return shared shader program
+     */
+    public static ShaderProgram acquire(GL3 gl, String vertexShaderFileName,
+                                        String fragmentShaderFileName, String... defines) {
+        String vertexShaderString = ShaderSourceLoader.load(vertexShaderFileName, defines);
+        String fragmentShaderString = ShaderSourceLoader.load(fragmentShaderFileName, defines);
+        return acquireFromSource(gl, vertexShaderString, fragmentShaderString);
+    }
+
+    /**
+     * Returns a linked shader program for the given vertex and fragment shader sources.
+     * Each call must be matched with a call of release().
+     * @param gl					OpenGL context
+     * @param vertexShaderString	Source code of the vertex shader
+     * @param fragmentShaderString	Source code of the fragment shader
+     * @return shared shader program
+     */
+    public static ShaderProgram acquireFromSource(GL3 gl, String vertexShaderString,
+                                                  String fragmentShaderString) {
+        String key = hashSources(vertexShaderString, fragmentShaderString);
+        Entry entry = programs.get(key);
+        if (entry == null) {
+            entry = new Entry(key, new ShaderProgram(gl));
+            createProgram(gl, entry, vertexShaderString, fragmentShaderString);
+            programs.put(key, entry);
+            entries.put(entry.shaderProgram, entry);
+        }
+        entry.referenceCount++;
+        return entry.shaderProgram;
+    }
+
+    /**
+     * Releases a program returned by acquire(). The program object is deleted
+     * when the last user has released it.
+     * @param shaderProgram shader program to be released
+     */
+    public static void release(ShaderProgram shaderProgram) {
+        Entry entry = entries.get(shaderProgram);
+        if (entry == null) {
+            System.err.println("Releasing a shader program not handed out by the registry.");
+            return;
+        }
+        entry.referenceCount--;
+        if (entry.referenceCount == 0) {
+            pendingPrograms.remove(entry);
+            programs.remove(entry.key);
+            entries.remove(shaderProgram);
+            shaderProgram.deleteShaderProgram();
+        }
+    }
+
+    /**
+     * Creates the program of a new entry, preferably from the binary cache.
+     * Falls back to compiling from source if there is no cached binary
+     * or the driver rejects it.
+     */
+    private static void createProgram(GL3 gl, Entry entry,
+                                      String vertexShaderString,
+                                      String fragmentShaderString) {
+        ShaderProgram shaderProgram = entry.shaderProgram;
+        boolean useBinaryCache = binaryCache != null && binaryCache.isSupported(gl);
+
+        if (useBinaryCache) {
+            int[] binaryFormat = new int[1];
+            byte[] binary = binaryCache.load(entry.key, binaryFormat);
+            if (binary != null) {
+                if (shaderProgram.createProgramFromBinary(binaryFormat[0], binary)) {
+                    System.out.println("Shader program loaded from binary cache: " + entry.key);
+                    return;
+                }
+                System.out.println("Cached program binary rejected by the driver, compiling from source.");
+                binaryCache.remove(entry.key);
+            }
+        }
+
+        if (asyncCompile) {
+            if (pendingPrograms.isEmpty())
+                firstSubmitTime = System.nanoTime();
+            shaderProgram.submitProgramFromSource(vertexShaderString, fragmentShaderString, useBinaryCache);
+            // The binary can only be read back after linking has finished
+            entry.storeBinaryWhenReady = useBinaryCache;
+            pendingPrograms.add(entry);
+        } else {
+            shaderProgram.createProgramFromSource(vertexShaderString, fragmentShaderString, useBinaryCache);
+            if (useBinaryCache)
+                storeBinary(entry.key, shaderProgram);
+        }
+    }
+
+    private static void storeBinary(String key, ShaderProgram shaderProgram) {
+        int[] binaryFormat = new int[1];
+        byte[] binary = shaderProgram.getProgramBinary(binaryFormat);
+        if (binary != null)
+            binaryCache.store(key, binaryFormat[0], binary);
+    }
+
+    /**
+     * Computes the key of a program from its shader sources (SHA-256, hex encoded).
+     */
+    static String hashSources(String vertexShaderString, String fragmentShaderString) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(vertexShaderString.getBytes(StandardCharsets.UTF_8));
+            // separator, so that moving code between the shaders changes the hash
+            digest.update((byte) 0);
+            digest.update(fragmentShaderString.getBytes(StandardCharsets.UTF_8));
+            return toHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required to be present on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHexString(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+}
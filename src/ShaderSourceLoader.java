@@ -0,0 +1,254 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads GLSL shader sources and preprocesses them before they are
+ * handed to the driver.
+ * Shader files are read from the shader directory (default: "resources")
+ * or, if not present there, from the classpath, in one read each.
+ *
+ * Preprocessing:
+ *  - #include "fileName" is replaced by the contents of the file
+ *    (relative to the including file, each file is included once)
+ *  - a set of defines (feature flags) is inserted after the #version line,
+ *    "NAME" results in "#define NAME", "NAME=VALUE" in "#define NAME VALUE"
+ *
+ * Raw file contents and preprocessed sources are cached, the latter per
+ * permutation key (file name and sorted defines), so requesting the same
+ * permutation again is a map lookup.
+ * All methods are static and not thread safe.
+ */
+public class ShaderSourceLoader {
+
+    private static final String INCLUDE_DIRECTIVE = "#include";
+    private static final String VERSION_DIRECTIVE = "#version";
+
+    private static Path shaderDirectory = Paths.get("resources");
+
+    // Contents of the files read so far, keyed by normalized file name
+    private static final Map<String, String> fileCache = new HashMap<>();
+    // Preprocessed sources, keyed by permutation key
+    private static final Map<String, String> permutationCache = new HashMap<>();
+
+    /**
+     * Sets the directory the shader files are loaded from and clears the caches.
+     * @param directory shader directory
+     */
+    public static void setShaderDirectory(String directory) {
+        shaderDirectory = Paths.get(directory);
+        clearCache();
+    }
+
+    /**
+     * Clears all cached sources, e.g. for reloading changed shader files.
+     */
+    public static void clearCache() {
+        fileCache.clear();
+        permutationCache.clear();
+    }
+
+    /**
+     * Returns the preprocessed source of a shader.
+     * @param fileName name of the shader file (relative to the shader directory)
+     * @param defines feature flags to be defined for this permutation
+     * @return preprocessed source code
+     */
+    public static String load(String fileName, String... defines) {
+        String key = permutationKey(fileName, defines);
+        String source = permutationCache.get(key);
+        if (source == null) {
+            source = preprocess(fileName, defines);
+            permutationCache.put(key, source);
+        }
+        return source;
+    }
+
+    /**
+     * Returns the preprocessed sources of all permutations of a shader,
+     * i.e. one source for each subset of the given feature flags.
+     * @param fileName name of the shader file (relative to the shader directory)
+     * @param featureFlags feature flags to be combined
+     * @return preprocessed sources keyed by permutation key
+     */
+    public static Map<String, String> loadPermutations(String fileName, String... featureFlags) {
+        Map<String, String> permutations = new HashMap<>();
+        int noOfPermutations = 1 << featureFlags.length;
+        for (int mask = 0; mask < noOfPermutations; mask++) {
+            List<String> defines = new ArrayList<>();
+            for (int flag = 0; flag < featureFlags.length; flag++)
+                if ((mask & (1 << flag)) != 0)
+                    defines.add(featureFlags[flag]);
+            String[] definesOfPermutation = defines.toArray(new String[0]);
+            permutations.put(permutationKey(fileName, definesOfPermutation),
+                    load(fileName, definesOfPermutation));
+        }
+        return permutations;
+    }
+
+    /**
+     * Builds the key of a permutation. The order of the defines does not matter.
+     */
+    static String permutationKey(String fileName, String... defines) {
+        String[] sortedDefines = defines.clone();
+        Arrays.sort(sortedDefines);
+        return fileName + Arrays.toString(sortedDefines);
+    }
+
+    private static String preprocess(String fileName, String[] defines) {
+        StringBuilder source = new StringBuilder();
+        List<String> includedFiles = new ArrayList<>();
+        appendFile(source, normalize(fileName), includedFiles, new HashSet<>());
+        return insertDefines(source.toString(), defines);
+    }
+
+    /**
+     * Appends a file to the source and resolves its include directives recursively.
+     * Each include is surrounded by #line directives, so compiler errors
+     * report the line in the original file. The source string number of
+     * an included file is its position in includedFiles (the main file is 0).
+     */
+    private static void appendFile(StringBuilder source, String fileName,
+                                   List<String> includedFiles, Set<String> includeStack) {
+        if (!includeStack.add(fileName)) {
+            System.err.println("Cyclic #include of shader file \"" + fileName + "\"");
+            System.exit(1);
+        }
+        int sourceStringNumber = includedFiles.size();
+        includedFiles.add(fileName);
+
+        // split() drops the empty string after a trailing line break
+        String[] lines = readFile(fileName).split("\r?\n");
+        for (int lineIndex = 0; lineIndex < lines.length; lineIndex++) {
+            String line = lines[lineIndex];
+            if (!line.trim().startsWith(INCLUDE_DIRECTIVE)) {
+                source.append(line).append('\n');
+                continue;
+            }
+            String includeFileName = resolveInclude(fileName, line);
+            // every file is included once only (implicit include guard)
+            if (!includedFiles.contains(includeFileName)) {
+                source.append("#line 1 ").append(includedFiles.size()).append('\n');
+                appendFile(source, includeFileName, includedFiles, includeStack);
+                // continue with the line after the include directive
+                source.append("#line ").append(lineIndex + 2).append(' ')
+                        .append(sourceStringNumber).append('\n');
+            } else {
+                // keep the line numbering of the including file
+                source.append('\n');
+            }
+        }
+        includeStack.remove(fileName);
+    }
+
+    /**
+     * Determines the file name of an include directive relative to the including file.
+     */
+    private static String resolveInclude(String includingFileName, String line) {
+        int begin = line.indexOf('"');
+        int end = line.lastIndexOf('"');
+        if (begin < 0 || end <= begin) {
+            System.err.println("Malformed include directive in \"" + includingFileName + "\": " + line);
+            System.exit(1);
+        }
+        Path parent = Paths.get(includingFileName).getParent();
+        String includeName = line.substring(begin + 1, end);
+        return normalize(parent == null ? includeName : parent.resolve(includeName).toString());
+    }
+
+    /**
+     * Inserts the defines directly after the #version line
+     * (which has to be the first statement of a shader).
+     */
+    private static String insertDefines(String source, String[] defines) {
+        if (defines.length == 0)
+            return source;
+
+        StringBuilder defineLines = new StringBuilder();
+        for (String define : defines) {
+            int assignment = define.indexOf('=');
+            defineLines.append("#define ");
+            if (assignment < 0)
+                defineLines.append(define);
+            else
+                defineLines.append(define, 0, assignment).append(' ').append(define.substring(assignment + 1));
+            defineLines.append('\n');
+        }
+
+        int versionIndex = source.indexOf(VERSION_DIRECTIVE);
+        int insertIndex = versionIndex < 0 ? 0 : source.indexOf('\n', versionIndex) + 1;
+        // keep the line numbers of the main file intact
+        defineLines.append("#line ").append(lineNumberAt(source, insertIndex)).append(" 0\n");
+        return source.substring(0, insertIndex) + defineLines + source.substring(insertIndex);
+    }
+
+    private static int lineNumberAt(String source, int index) {
+        int lineNumber = 1;
+        for (int i = 0; i < index; i++)
+            if (source.charAt(i) == '\n')
+                lineNumber++;
+        return lineNumber;
+    }
+
+    private static String normalize(String fileName) {
+        return Paths.get(fileName).normalize().toString().replace('\\', '/');
+    }
+
+    /**
+     * Returns the contents of a shader file, read from the shader directory
+     * or the classpath.
+     */
+    private static String readFile(String fileName) {
+        String content = fileCache.get(fileName);
+        if (content != null)
+            return content;
+
+        try {
+            Path path = shaderDirectory.resolve(fileName);
+            byte[] bytes;
+            if (Files.isRegularFile(path)) {
+                bytes = Files.readAllBytes(path);
+            } else {
+                InputStream resource = ShaderSourceLoader.class.getResourceAsStream("/" + fileName);
+                if (resource == null) {
+                    System.err.println("File \"" + fileName + "\" not found!");
+                    System.exit(1);
+                }
+                bytes = readResource(resource);
+            }
+            content = new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("IO Exception encountered when reading file \"" + fileName + "\"!");
+            System.exit(1);
+        }
+        fileCache.put(fileName, content);
+        return content;
+    }
+
+    private static byte[] readResource(InputStream resource) throws IOException {
+        try (ReadableByteChannel channel = Channels.newChannel(resource)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                bytes.write(buffer.array(), 0, buffer.limit());
+                buffer.clear();
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES2;
+import com.jogamp.opengl.GL3;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Handle of a uniform variable of a shader program, found by reflection after
+ * linking (see ShaderProgram.getUniform()).
+ * The handle keeps the last value sent to the program, so glUniform* is only
+ * issued if a new value differs from it. This is valid because uniform values are
+ * state of the program object, and every program has its own handles.
+ * The program has to be in use (glUseProgram) when a value is set.
+ * Supported types: float, vec2 to vec4, mat4, int, uint, bool and samplers (and arrays of them).
+ * Issued and skipped updates of all handles are counted for profiling,
+ * see resetStatistics().
+ */
+public class ShaderUniform {
+
+    private static long noOfIssuedUpdates = 0;
+    private static long noOfSkippedUpdates = 0;
+
+    private final String name;
+    private final int location;   // -1 for uniforms not used by the program
+    private final int type;       // e.g. GL.GL_FLOAT, GL2ES2.GL_FLOAT_MAT4
+    private final int arraySize;  // 1 for non-array uniforms
+
+    // Last value sent to the program (floats or integers depending on the type)
+    private final float[] floatValues;
+    private final int[] intValues;
+    private boolean hasValue = false;
+
+    ShaderUniform(String name, int location, int type, int arraySize) {
+        this.name = name;
+        this.location = location;
+        this.type = type;
+        this.arraySize = arraySize;
+        int noOfComponents = getNoOfComponents(type) * arraySize;
+        if (isFloatType(type)) {
+            floatValues = new float[noOfComponents];
+            intValues = null;
+        } else {
+            floatValues = null;
+            intValues = new int[noOfComponents];
+        }
+    }
+
+    /**
+     * Sets the value of a float, vector or matrix uniform (including arrays of them).
+     * @param gl		OpenGL context
+     * @param values	all components of the uniform (e.g. 16 for a mat4, 24 for vec4[6])
+     * @param offset	index of the first component in values
+     */
+    public void set(GL3 gl, float[] values, int offset) {
+        if (location < 0 || !checkType(true))
+            return;
+        boolean changed = !hasValue;
+        for (int i = 0; i < floatValues.length; i++) {
+            if (Float.floatToIntBits(floatValues[i]) != Float.floatToIntBits(values[offset + i])) {
+                floatValues[i] = values[offset + i];
+                changed = true;
+            }
+        }
+        upload(gl, changed);
+    }
+
+    /**
+     * Sets the value of a float, vector or matrix uniform from a buffer
+     * (e.g. PMVMatrix.glGetMvMatrixf()), starting at the position of the buffer.
+     */
+    public void set(GL3 gl, FloatBuffer values) {
+        if (location < 0 || !checkType(true))
+            return;
+        boolean changed = !hasValue;
+        int position = values.position();
+        for (int i = 0; i < floatValues.length; i++) {
+            float value = values.get(position + i);
+            if (Float.floatToIntBits(floatValues[i]) != Float.floatToIntBits(value)) {
+                floatValues[i] = value;
+                changed = true;
+            }
+        }
+        upload(gl, changed);
+    }
+
+    /**
+     * Sets the value of a vec3 uniform (not an array).
+     */
+    public void set(GL3 gl, float x, float y, float z) {
+        if (location < 0 || !checkType(GL2ES2.GL_FLOAT_VEC3, "vec3"))
+            return;
+        boolean changed = !hasValue
+                || Float.floatToIntBits(floatValues[0]) != Float.floatToIntBits(x)
+                || Float.floatToIntBits(floatValues[1]) != Float.floatToIntBits(y)
+                || Float.floatToIntBits(floatValues[2]) != Float.floatToIntBits(z);
+        floatValues[0] = x;
+        floatValues[1] = y;
+        floatValues[2] = z;
+        upload(gl, changed);
+    }
+
+    /**
+     * Sets the value of an int, uint, bool or sampler uniform.
+     */
+    public void set(GL3 gl, int value) {
+        if (location < 0 || !checkType(false))
+            return;
+        boolean changed = !hasValue || intValues[0] != value;
+        intValues[0] = value;
+        upload(gl, changed);
+    }
+
+    /**
+     * Issues the glUniform* call for the cached value, if it has changed.
+     */
+    private void upload(GL3 gl, boolean changed) {
+        if (!changed) {
+            noOfSkippedUpdates++;
+            return;
+        }
+        hasValue = true;
+        noOfIssuedUpdates++;
+        switch (type) {
+            case GL.GL_FLOAT:
+                gl.glUniform1fv(location, arraySize, floatValues, 0);
+                break;
+            case GL2ES2.GL_FLOAT_VEC2:
+                gl.glUniform2fv(location, arraySize, floatValues, 0);
+                break;
+            case GL2ES2.GL_FLOAT_VEC3:
+                gl.glUniform3fv(location, arraySize, floatValues, 0);
+                break;
+            case GL2ES2.GL_FLOAT_VEC4:
+                gl.glUniform4fv(location, arraySize, floatValues, 0);
+                break;
+            case GL2ES2.GL_FLOAT_MAT4:
+                gl.glUniformMatrix4fv(location, arraySize, false, floatValues, 0);
+                break;
+            case GL.GL_UNSIGNED_INT:
+                gl.glUniform1uiv(location, arraySize, intValues, 0);
+                break;
+            default:
+                gl.glUniform1iv(location, arraySize, intValues, 0);
+        }
+    }
+
+    /**
+     * Reports setting a value of the wrong kind (float or integer).
+     */
+    private boolean checkType(boolean floatValue) {
+        if (isFloatType(type) == floatValue)
+            return true;
+        System.err.println("Uniform " + name + " does not take " + (floatValue ? "float" : "integer") + " values.");
+        return false;
+    }
+
+    /**
+     * Reports setting a value of a single type to a uniform of another type or an array.
+     */
+    private boolean checkType(int expectedType, String typeName) {
+        if (type == expectedType && arraySize == 1)
+            return true;
+        System.err.println("Uniform " + name + " is not a " + typeName + ".");
+        return false;
+    }
+
+    private static boolean isFloatType(int type) {
+        return type == GL.GL_FLOAT || type == GL2ES2.GL_FLOAT_VEC2 || type == GL2ES2.GL_FLOAT_VEC3
+                || type == GL2ES2.GL_FLOAT_VEC4 || type == GL2ES2.GL_FLOAT_MAT4;
+    }
+
+    private static int getNoOfComponents(int type) {
+        switch (type) {
+            case GL2ES2.GL_FLOAT_VEC2:
+                return 2;
+            case GL2ES2.GL_FLOAT_VEC3:
+                return 3;
+            case GL2ES2.GL_FLOAT_VEC4:
+                return 4;
+            case GL2ES2.GL_FLOAT_MAT4:
+                return 16;
+            default:
+                return 1;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLocation() {
+        return location;
+    }
+
+    /**
+     * Resets the counters of issued and skipped updates, e.g. at the beginning of a frame.
+     */
+    public static void resetStatistics() {
+        noOfIssuedUpdates = 0;
+        noOfSkippedUpdates = 0;
+    }
+
+    /**
+     * Returns the number of glUniform* calls since the last resetStatistics().
+     */
+    public static long getNoOfIssuedUpdates() {
+        return noOfIssuedUpdates;
+    }
+
+    /**
+     * Returns the number of updates skipped because the value was unchanged
+     * since the last resetStatistics().
+     */
+    public static long getNoOfSkippedUpdates() {
+        return noOfSkippedUpdates;
+    }
+}
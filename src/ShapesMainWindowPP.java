@@ -67,8 +67,8 @@ public class ShapesMainWindowPP extends JFrame {
     public ShapesMainWindowPP() {
         // Setup an OpenGL context for the Canvas
         // Setup OpenGL to use the programmable pipeline
-        // Setting to OpenGL 3
-        GLProfile profile = GLProfile.get(GLProfile.GL3);
+        // Setting to OpenGL 4 (the shaders need 4.3, multi draw indirect as well)
+        GLProfile profile = GLProfile.get(GLProfile.GL4);
         GLCapabilities capabilities = new GLCapabilities(profile);
         // Create the OpenGL rendering canvas
         GLCanvas canvas = new ShapesRendererPP(capabilities);
@@ -27,8 +27,12 @@
  */
 import com.jogamp.opengl.*;
 import com.jogamp.opengl.awt.GLCanvas;
+import com.jogamp.opengl.fixedfunc.GLMatrixFunc;
 import com.jogamp.opengl.util.PMVMatrix;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Performs the OpenGL graphics processing using the Programmable Pipeline and the
  * OpenGL Core profile
@@ -56,12 +60,82 @@ public class ShapesRendererPP extends GLCanvas implements GLEventListener {
 
     private static final long serialVersionUID = 1L;
 
+    // How the objects of the scene are submitted to OpenGL
+    private enum RenderMode {
+        SEPARATE_DRAWS,         // one draw call per object, sorted by program, mesh and depth
+        INSTANCED_BOXES,        // boxes b0 and b1 with one instanced draw call
+        MULTI_DRAW_INDIRECT,    // all objects with one glMultiDrawElementsIndirect call
+        OCCLUSION_CULLING,      // one draw call per object, hidden objects skipped (occlusion queries)
+        GPU_CULLING             // culling and draw commands in a compute shader, one indirect draw call
+    }
+    private static final RenderMode RENDER_MODE = RenderMode.SEPARATE_DRAWS;
+
+    // Instance color keeping the vertex colors of the meshes
+    private static final float[] WHITE = {1f, 1f, 1f};
+
     // Create objects for the scene
     private RoofRenderer r0 = new RoofRenderer();
     private SphereRenderer s0 = new SphereRenderer();
     private ConeRenderer c0 = new ConeRenderer();
     private BoxRenderer b0 = new BoxRenderer();
     private BoxRenderer b1 = new BoxRenderer();
+    // Replaces b0 and b1 in render mode INSTANCED_BOXES
+    private InstancedRenderer boxes = new InstancedRenderer();
+    // Draws all objects in render mode MULTI_DRAW_INDIRECT
+    private MultiDrawRenderer multiDraw = new MultiDrawRenderer();
+    private int roofMeshIndex, boxMeshIndex;
+    private int[] sphereMeshIndices, coneMeshIndices;  // per level of detail
+    // Culls and draws all objects on the GPU in render mode GPU_CULLING
+    private GpuCullingRenderer gpuCulling = new GpuCullingRenderer();
+
+    // Draw calls of render mode SEPARATE_DRAWS, collected during the traversal and sorted
+    private RenderQueue renderQueue = new RenderQueue();
+    // Static nodes (house walls and roof) are baked into world space chunks in render mode SEPARATE_DRAWS
+    private static final boolean STATIC_BATCHING = true;
+    private StaticBatcher staticBatcher = new StaticBatcher();
+
+    // Scene graph placing the objects
+    private SceneNode sceneRoot;
+    // Set by initScene() on the first frame all shader programs are linked
+    private boolean sceneReady = false;
+    private SceneNode wallsNode, roofNode, b1Node, sphereNode, coneNode;
+
+    // Data written every frame (camera matrices, multi draw instances and commands)
+    private static final int DYNAMIC_DATA_BYTES_PER_FRAME = 1 << 20;
+    private PersistentRingBuffer dynamicData = new PersistentRingBuffer();
+    // Projection and view matrix for all shader programs, updated once per frame
+    private CameraUniformBuffer camera = new CameraUniformBuffer();
+    private final float[] viewMatrix = new float[16];
+    private final float[] projectionMatrix = new float[16];
+
+    // Objects outside of the view frustum (tested with their mesh bounds) are not drawn.
+    // The scene nodes with bounds are kept in a spatial index (world: 128 units around the origin).
+    private ViewFrustum viewFrustum = new ViewFrustum();
+    private LooseOctree<SceneNode> spatialIndex = new LooseOctree<>(new float[] {0f, 0f, 0f}, 64f, 8);
+    private final List<SceneNode> visibleNodes = new ArrayList<>();
+    private int noOfDrawnObjects, noOfCulledObjects;
+    private int lastNoOfDrawnObjects = -1, lastNoOfCulledObjects = -1;
+    // Baked static nodes are not in the spatial index, their chunks are culled by the static batcher
+    private int lastNoOfVisibleChunks = -1;
+    // Objects hidden by other objects are skipped in render mode OCCLUSION_CULLING
+    private OcclusionCuller occlusionCuller = new OcclusionCuller();
+    private int lastNoOfOccludedObjects = -1;
+    // Objects behind walls and roofs are skipped before drawing (occlusion culling on the CPU).
+    // The occluders are rasterized solid, so this is only correct with polygon mode GL_FILL:
+    // in the wireframe drawn by the renderers (GL_LINE) hidden objects can be seen.
+    private static final boolean SOFTWARE_OCCLUSION_CULLING = false;
+    private SoftwareOcclusionCuller softwareOcclusionCuller;
+    private final List<SceneNode> occluderNodes = new ArrayList<>();
+    private final List<SoftwareOcclusionCuller.Occluder> occluders = new ArrayList<>();
+    private int noOfSoftwareOccludedObjects;
+    // Level of detail of sphere and cone from their size on the screen
+    private LodSelector lodSelector = new LodSelector();
+    private int viewportHeight = 1;
+    private long lastNoOfSubmittedTriangles = -1;
+    // Uniform updates sent per frame (unchanged values are skipped)
+    private long lastNoOfIssuedUniformUpdates = -1;
+    // State changing calls passed to OpenGL per frame (redundant ones are filtered)
+    private long lastNoOfIssuedStateCalls = -1;
 
     // Object for handling keyboard and mouse interaction
     private InteractionHandler interactionHandler;
@@ -103,6 +177,8 @@ public class ShapesRendererPP extends GLCanvas implements GLEventListener {
     @Override
     public void init(GLAutoDrawable drawable) {
         GL3 gl = drawable.getGL().getGL3();
+        // The state shadowed for an earlier context does not apply to this one
+        GLStateCache.invalidate();
 
         System.err.println("Chosen GLCapabilities: " + drawable.getChosenGLCapabilities());
         System.err.println("INIT GL IS: " + gl.getClass().getName());
@@ -116,21 +192,205 @@ public class ShapesRendererPP extends GLCanvas implements GLEventListener {
         else
             System.out.println("VBO support is available");
 
-        // Initialize objects to be drawn (see respective sub-methods)
+        // Shader programs are only submitted during init and finish compiling
+        // in the background while the first (empty) frames are displayed
+        ShaderProgramRegistry.setAsyncCompile(true);
+        // Triangle strips of the shape generators are separated by restart indices
+        Mesh.enablePrimitiveRestart(gl);
+
+        createScene();
+
+        // Initialize objects to be drawn (see respective sub-methods).
+        // This only submits the shader programs, everything depending on the linked
+        // programs (uniform handles, vertex layouts of the meshes) follows in initScene().
         s0.init(drawable);
         r0.init(drawable);
-        b0.init(drawable);
-        b1.init(drawable);
+        if (RENDER_MODE == RenderMode.INSTANCED_BOXES) {
+            boxes.init(drawable);
+        } else {
+            b0.init(drawable);
+            b1.init(drawable);
+        }
         c0.init(drawable);
+        if (RENDER_MODE == RenderMode.MULTI_DRAW_INDIRECT)
+            multiDraw.init(drawable);
+        if (RENDER_MODE == RenderMode.OCCLUSION_CULLING)
+            occlusionCuller.init(gl);
+        if (RENDER_MODE == RenderMode.GPU_CULLING)
+            gpuCulling.init(drawable);
 
         // Create projection-model-view matrix
         pmvMatrix = new PMVMatrix();
+        dynamicData.init(drawable.getGL().getGL4(), DYNAMIC_DATA_BYTES_PER_FRAME);
 
         // Start parameter settings for the interaction handler might be called here
         interactionHandler.setEyeZ(5.5f);
         // END: Preparing scene
     }
 
+    /**
+     * Creates the meshes of the renderers in the vertex layouts of their shader programs
+     * and everything built from them (merged geometry, spatial index, static batches).
+     * Called by display() on the first frame all shader programs are linked.
+     * @param gl OpenGL context
+     */
+    private void initScene(GL3 gl) {
+        s0.finishInit(gl);
+        r0.finishInit(gl);
+        if (RENDER_MODE == RenderMode.INSTANCED_BOXES) {
+            initInstancedBoxes(gl);
+        } else {
+            b0.finishInit(gl);
+            b1.finishInit(gl);
+        }
+        c0.finishInit(gl);
+        if (RENDER_MODE == RenderMode.MULTI_DRAW_INDIRECT)
+            initMultiDraw(gl);
+        if (RENDER_MODE == RenderMode.GPU_CULLING)
+            initGpuCulling(gl);
+        indexScene(gl);
+    }
+
+    /**
+     * Builds the scene graph. The renderables dispatch to the drawing
+     * according to the render mode (see displayBox() etc.).
+     */
+    private void createScene() {
+        sceneRoot = new SceneNode("scene");
+        // Transform for the complete scene
+//        sceneRoot.translate(1f, 0.2f, 0f);
+
+        SceneNode house = sceneRoot.addChild(new SceneNode("house"));
+        wallsNode = house.addChild(new SceneNode("walls", (gl, pmv) -> displayBox(gl, b0, wallsNode)));
+        wallsNode.translate(0f, -1f, 0f);
+        roofNode = house.addChild(new SceneNode("roof", (gl, pmv) -> displayRoof(gl)));
+        roofNode.translate(1.5f, 0f, 0f);
+        // The house does not move after loading
+        wallsNode.setStatic(true);
+        roofNode.setStatic(true);
+
+        b1Node = sceneRoot.addChild(new SceneNode("b1", (gl, pmv) -> displayBox(gl, b1, b1Node)));
+        b1Node.translate(2f, 1f, 0f).rotate(45f, 0f, 1f, 0f);
+        sphereNode = sceneRoot.addChild(new SceneNode("sphere", (gl, pmv) -> displaySphere(gl)));
+        sphereNode.translate(-1.5f, 0f, 0f);
+        coneNode = sceneRoot.addChild(new SceneNode("cone", (gl, pmv) -> displayCone(gl)));
+        coneNode.translate(0f, -1f, 0f);
+
+        sceneRoot.updateWorldMatrices();
+    }
+
+    /**
+     * Sets the bounds of the scene nodes from the meshes of their renderers
+     * and inserts the nodes into the spatial index.
+     * In render mode INSTANCED_BOXES the boxes are not drawn through the scene graph.
+     * Static nodes baked by the static batcher are drawn (and culled) with its chunks
+     * and are not inserted.
+     * @param gl OpenGL context
+     */
+    private void indexScene(GL3 gl) {
+        setBounds(roofNode, r0.getMesh());
+        setBounds(sphereNode, s0.getMesh());
+        setBounds(coneNode, c0.getMesh());
+        if (RENDER_MODE != RenderMode.INSTANCED_BOXES) {
+            setBounds(wallsNode, b0.getMesh());
+            setBounds(b1Node, b1.getMesh());
+        }
+        sceneRoot.updateWorldMatrices();
+        if (isStaticBatching()) {
+            b0.addToStaticBatch(staticBatcher, wallsNode);
+            r0.addToStaticBatch(staticBatcher, roofNode);
+            staticBatcher.build(gl);
+        }
+        indexNodes(sceneRoot);
+
+        if (SOFTWARE_OCCLUSION_CULLING) {
+            softwareOcclusionCuller = new SoftwareOcclusionCuller(256, 128,
+                    Math.max(Runtime.getRuntime().availableProcessors() / 2, 1));
+            occluderNodes.add(roofNode);
+            occluders.add(r0.makeOccluder());
+            if (RENDER_MODE != RenderMode.INSTANCED_BOXES) {
+                occluderNodes.add(wallsNode);
+                occluders.add(b0.makeOccluder());
+            }
+        }
+    }
+
+    private static void setBounds(SceneNode node, Mesh mesh) {
+        node.setLocalBounds(mesh.getBoundsMin(), mesh.getBoundsMax());
+    }
+
+    private boolean isStaticBatching() {
+        return STATIC_BATCHING && RENDER_MODE == RenderMode.SEPARATE_DRAWS;
+    }
+
+    private void indexNodes(SceneNode node) {
+        if (node.hasBounds() && !(node.isStatic() && isStaticBatching()))
+            node.setSpatialIndex(spatialIndex);
+        for (SceneNode child : node.getChildren())
+            indexNodes(child);
+    }
+
+    /**
+     * Uploads the box mesh once and places the boxes b0 and b1 as instances
+     * at the world matrices of their scene nodes.
+     * @param gl OpenGL context
+     */
+    private void initInstancedBoxes(GL3 gl) {
+        // The instance color is multiplied with the (white) vertex colors
+        float[] color = {0.1f, 0.1f, 0.8f};
+        boxes.setMesh(gl, MeshCache.acquireBox(gl, boxes.getVertexLayout(), 0.8f, 0.4f, 0.5f, WHITE));
+
+        // b0: walls of the house
+        boxes.addInstance(wallsNode.getWorldMatrix(), color);
+        // b1
+        boxes.addInstance(b1Node.getWorldMatrix(), color);
+    }
+
+    /**
+     * Packs the meshes of all renderers (all levels of detail) into the merged
+     * geometry buffer of the multi draw renderer. b0 and b1 share one mesh.
+     * @param gl OpenGL context
+     */
+    private void initMultiDraw(GL3 gl) {
+        roofMeshIndex = multiDraw.addMesh(r0.getMesh());
+        sphereMeshIndices = addLevels(multiDraw, s0.getLodChain());
+        coneMeshIndices = addLevels(multiDraw, c0.getLodChain());
+        boxMeshIndex = multiDraw.addMesh(b0.getMesh());
+        multiDraw.upload(gl);
+    }
+
+    private static int[] addLevels(MultiDrawRenderer renderer, LodChain lodChain) {
+        int[] meshIndices = new int[lodChain.getNoOfLevels()];
+        for (int level = 0; level < meshIndices.length; level++)
+            meshIndices[level] = renderer.addMesh(lodChain.getMesh(level));
+        return meshIndices;
+    }
+
+    /**
+     * Registers all objects of the scene at the world matrices of their
+     * scene nodes with the GPU culling renderer. b0 and b1 share one mesh,
+     * sphere and cone get their levels of detail.
+     * The scene is static, moving nodes would need setObjectMatrix().
+     * @param gl OpenGL context
+     */
+    private void initGpuCulling(GL3 gl) {
+        int roofMesh = gpuCulling.addMesh(r0.getMesh());
+        int[] sphereMeshes = new int[s0.getLodChain().getNoOfLevels()];
+        for (int level = 0; level < sphereMeshes.length; level++)
+            sphereMeshes[level] = gpuCulling.addMesh(s0.getLodChain().getMesh(level));
+        int[] coneMeshes = new int[c0.getLodChain().getNoOfLevels()];
+        for (int level = 0; level < coneMeshes.length; level++)
+            coneMeshes[level] = gpuCulling.addMesh(c0.getLodChain().getMesh(level));
+        int boxMesh = gpuCulling.addMesh(b0.getMesh());
+        gpuCulling.upload(gl);
+
+        gpuCulling.addObject(new int[] {boxMesh}, wallsNode.getWorldMatrix(), WHITE);
+        gpuCulling.addObject(new int[] {roofMesh}, roofNode.getWorldMatrix(), WHITE);
+        gpuCulling.addObject(new int[] {boxMesh}, b1Node.getWorldMatrix(), WHITE);
+        gpuCulling.addObject(sphereMeshes, sphereNode.getWorldMatrix(), WHITE);
+        gpuCulling.addObject(coneMeshes, coneNode.getWorldMatrix(), WHITE);
+    }
+
     /**
      * Implementation of the OpenGL EventListener (GLEventListener) method
      * called by the OpenGL animator for every frame.
@@ -144,6 +404,19 @@ public class ShapesRendererPP extends GLCanvas implements GLEventListener {
         // Background color of the canvas
         gl.glClearColor(0.97f, 0.97f, 0.97f, 1.0f);
 
+        // Vertex layouts and meshes depend on the linked shader programs,
+        // so the scene is created on the first frame all programs are ready
+        if (!sceneReady) {
+            if (!ShaderProgramRegistry.pollPendingPrograms())
+                return;
+            initScene(gl);
+            sceneReady = true;
+        }
+        ShaderUniform.resetStatistics();
+        GLStateCache.resetStatistics();
+        // Waits if the GPU still reads the dynamic data written three frames ago
+        dynamicData.beginFrame(gl);
+
         // For monitoring the interaction settings
 /*        System.out.println("Camera: z = " + interactionHandler.getEyeZ() + ", " +
                 "x-Rot: " + interactionHandler.getAngleXaxis() +
@@ -161,42 +434,156 @@ public class ShapesRendererPP extends GLCanvas implements GLEventListener {
         pmvMatrix.glTranslatef(interactionHandler.getxPosition(), interactionHandler.getyPosition(), 0f);
         pmvMatrix.glRotatef(interactionHandler.getAngleXaxis(), 1f, 0f, 0f);
         pmvMatrix.glRotatef(interactionHandler.getAngleYaxis(), 0f, 1f, 0f);
+        // The view matrix is transferred once for all objects,
+        // from here on the model-view matrix of pmvMatrix only holds model transforms
+        pmvMatrix.glGetFloatv(GLMatrixFunc.GL_MODELVIEW_MATRIX, viewMatrix, 0);
+        camera.setViewMatrix(viewMatrix);
+        camera.bind(gl, dynamicData);
+        pmvMatrix.glLoadIdentity();
+        viewFrustum.update(projectionMatrix, viewMatrix);
+        lodSelector.update(projectionMatrix, viewMatrix, viewportHeight);
 
-        // Transform for the complete scene
-//        pmvMatrix.glTranslatef(1f, 0.2f, 0f);
-
-        //House--->
-        pmvMatrix.glPushMatrix();
-            //Walls
-            pmvMatrix.glPushMatrix();
-            pmvMatrix.glTranslatef(0f, -1f, 0f);
-            b0.displayBox(gl, pmvMatrix);
-            pmvMatrix.glPopMatrix();
-
-            //Roof
-            pmvMatrix.glPushMatrix();
-            pmvMatrix.glTranslatef(1.5f, 0f, 0f);
-            r0.displayRoof(gl, pmvMatrix);
-            pmvMatrix.glPopMatrix();
-        pmvMatrix.glPopMatrix();
-        //--------<
+        // Only the world matrices of changed nodes are recomputed
+        // (moved nodes are updated in the spatial index)
+        sceneRoot.updateWorldMatrices();
+        if (RENDER_MODE == RenderMode.GPU_CULLING) {
+            // Culling, LOD selection and drawing of all objects without any per object work on the CPU
+            gpuCulling.display(gl, viewFrustum, viewMatrix);
+            dynamicData.endFrame(gl);
+            return;
+        }
+        // Draws the objects found in the view frustum by the spatial index
+        visibleNodes.clear();
+        spatialIndex.queryFrustum(viewFrustum, visibleNodes);
+        if (SOFTWARE_OCCLUSION_CULLING)
+            removeOccludedNodes();
+        if (RENDER_MODE == RenderMode.OCCLUSION_CULLING) {
+            occlusionCuller.beginFrame(viewMatrix);
+            for (SceneNode node : visibleNodes)
+                occlusionCuller.display(gl, node, pmvMatrix);
+            // Tests the bounding boxes against the depth buffer of this frame
+            occlusionCuller.issueQueries(gl, visibleNodes);
+        } else {
+            renderQueue.beginFrame(viewMatrix);
+            for (SceneNode node : visibleNodes)
+                node.displayRenderable(gl, pmvMatrix);
+            if (isStaticBatching())
+                staticBatcher.queueVisibleChunks(renderQueue, viewFrustum);
+            // SEPARATE_DRAWS: the objects queued above, grouped by program and mesh, front to back
+            renderQueue.submit(gl);
+        }
+        noOfDrawnObjects = visibleNodes.size();
+        noOfCulledObjects = spatialIndex.size() - noOfDrawnObjects;
+        pmvMatrix.glLoadIdentity();
 
-        pmvMatrix.glPushMatrix();
-        pmvMatrix.glTranslatef(2f, 1f, 0f);
-        pmvMatrix.glRotatef(45f, 0f, 1f, 0f);
-        b1.displayBox(gl, pmvMatrix);
-        pmvMatrix.glPopMatrix();
+        if (RENDER_MODE == RenderMode.INSTANCED_BOXES) {
+            // b0 and b1 with one draw call
+            boxes.displayInstances(gl, pmvMatrix);
+        } else if (RENDER_MODE == RenderMode.MULTI_DRAW_INDIRECT) {
+            // all objects recorded above with one draw call
+            multiDraw.display(gl, dynamicData);
+        }
+        dynamicData.endFrame(gl);
 
-        pmvMatrix.glPushMatrix();
-        pmvMatrix.glTranslatef(-1.5f, 0f, 0f);
-        s0.displaySphere(gl, pmvMatrix);
-        pmvMatrix.glPopMatrix();
+        // Report the culling result of the frame when it changes
+        int noOfVisibleChunks = isStaticBatching() ? staticBatcher.getNoOfVisibleChunks() : 0;
+        if (noOfDrawnObjects != lastNoOfDrawnObjects || noOfCulledObjects != lastNoOfCulledObjects
+                || noOfVisibleChunks != lastNoOfVisibleChunks) {
+            System.out.println("Frustum culling: " + noOfDrawnObjects + " objects drawn, "
+                    + noOfCulledObjects + " culled (" + noOfSoftwareOccludedObjects + " occluded), "
+                    + spatialIndex.getNoOfVisitedCells() + " of "
+                    + spatialIndex.getNoOfCells() + " octree cells visited"
+                    + (isStaticBatching() ? ", " + noOfVisibleChunks + " of "
+                    + staticBatcher.getNoOfChunks() + " static chunks drawn" : ""));
+            lastNoOfDrawnObjects = noOfDrawnObjects;
+            lastNoOfCulledObjects = noOfCulledObjects;
+            lastNoOfVisibleChunks = noOfVisibleChunks;
+        }
+        if (lodSelector.getNoOfSubmittedTriangles() != lastNoOfSubmittedTriangles) {
+            lastNoOfSubmittedTriangles = lodSelector.getNoOfSubmittedTriangles();
+            System.out.println("Level of detail: " + lastNoOfSubmittedTriangles + " triangles submitted, "
+                    + lodSelector.getNoOfLevel0Triangles() + " at level 0");
+        }
+        if (ShaderUniform.getNoOfIssuedUpdates() != lastNoOfIssuedUniformUpdates) {
+            lastNoOfIssuedUniformUpdates = ShaderUniform.getNoOfIssuedUpdates();
+            System.out.println("Uniform updates: " + lastNoOfIssuedUniformUpdates + " issued, "
+                    + ShaderUniform.getNoOfSkippedUpdates() + " skipped (unchanged)");
+        }
+        if (GLStateCache.getNoOfIssuedCalls() != lastNoOfIssuedStateCalls) {
+            lastNoOfIssuedStateCalls = GLStateCache.getNoOfIssuedCalls();
+            System.out.println("GL state changes: " + lastNoOfIssuedStateCalls + " issued, "
+                    + GLStateCache.getNoOfFilteredCalls() + " filtered (redundant)");
+        }
+        if (RENDER_MODE == RenderMode.OCCLUSION_CULLING
+                && occlusionCuller.getNoOfOccludedObjects() != lastNoOfOccludedObjects) {
+            lastNoOfOccludedObjects = occlusionCuller.getNoOfOccludedObjects();
+            System.out.println("Occlusion culling: " + lastNoOfOccludedObjects + " objects occluded, "
+                    + occlusionCuller.getNoOfConditionalDraws() + " conditional draws, "
+                    + occlusionCuller.getNoOfIssuedQueries() + " queries issued, "
+                    + "query latency " + occlusionCuller.getAverageQueryLatency() + " frames");
+        }
+    }
+
+
+    /**
+     * Removes the nodes hidden behind the occluders from the visible nodes,
+     * before any draw call is issued.
+     */
+    private void removeOccludedNodes() {
+        softwareOcclusionCuller.beginFrame(projectionMatrix, viewMatrix);
+        for (int i = 0; i < occluderNodes.size(); i++)
+            softwareOcclusionCuller.addOccluder(occluders.get(i), occluderNodes.get(i).getWorldMatrix());
+        softwareOcclusionCuller.rasterize();
+        int noOfNodes = visibleNodes.size();
+        visibleNodes.removeIf(node ->
+                softwareOcclusionCuller.isOccluded(node.getWorldBoundsMin(), node.getWorldBoundsMax()));
+        noOfSoftwareOccludedObjects = noOfNodes - visibleNodes.size();
+    }
+
+    // BEGIN: Drawing of the objects according to the render mode
+    // Called for the visible scene nodes, the current model-view matrix of pmvMatrix
+    // holds the world matrix of the scene node of the object.
+    private void displayBox(GL3 gl, BoxRenderer box, SceneNode node) {
+        // INSTANCED_BOXES: the boxes are drawn together after the traversal
+        if (RENDER_MODE == RenderMode.INSTANCED_BOXES)
+            return;
+        if (RENDER_MODE == RenderMode.MULTI_DRAW_INDIRECT)
+            multiDraw.addDraw(boxMeshIndex, pmvMatrix, WHITE);
+        else if (RENDER_MODE == RenderMode.SEPARATE_DRAWS)
+            box.queueBox(renderQueue, node.getWorldMatrix());
+        else
+            box.displayBox(gl, pmvMatrix);
+    }
 
-        pmvMatrix.glPushMatrix();
-        pmvMatrix.glTranslatef(0f, -1f, 0f);
-        c0.displayCone(gl, pmvMatrix);
-        pmvMatrix.glPopMatrix();
+    private void displayRoof(GL3 gl) {
+        if (RENDER_MODE == RenderMode.MULTI_DRAW_INDIRECT)
+            multiDraw.addDraw(roofMeshIndex, pmvMatrix, WHITE);
+        else if (RENDER_MODE == RenderMode.SEPARATE_DRAWS)
+            r0.queueRoof(renderQueue, roofNode.getWorldMatrix());
+        else
+            r0.displayRoof(gl, pmvMatrix);
+    }
+
+    private void displaySphere(GL3 gl) {
+        int level = s0.selectLod(lodSelector, sphereNode.getWorldMatrix());
+        if (RENDER_MODE == RenderMode.MULTI_DRAW_INDIRECT)
+            multiDraw.addDraw(sphereMeshIndices[level], pmvMatrix, WHITE);
+        else if (RENDER_MODE == RenderMode.SEPARATE_DRAWS)
+            s0.queueSphere(renderQueue, sphereNode.getWorldMatrix());
+        else
+            s0.displaySphere(gl, pmvMatrix);
+    }
+
+    private void displayCone(GL3 gl) {
+        int level = c0.selectLod(lodSelector, coneNode.getWorldMatrix());
+        if (RENDER_MODE == RenderMode.MULTI_DRAW_INDIRECT)
+            multiDraw.addDraw(coneMeshIndices[level], pmvMatrix, WHITE);
+        else if (RENDER_MODE == RenderMode.SEPARATE_DRAWS)
+            c0.queueCone(renderQueue, coneNode.getWorldMatrix());
+        else
+            c0.displayCone(gl, pmvMatrix);
     }
+    // END: Drawing of the objects according to the render mode
 
     /**
      * Implementation of the OpenGL EventListener (GLEventListener) method
@@ -212,8 +599,14 @@ public class ShapesRendererPP extends GLCanvas implements GLEventListener {
         s0.reshapeSphere(drawable, x, y, width, height, pmvMatrix);
         c0.reshapeCone(drawable, x, y, width, height, pmvMatrix);
         r0.reshapeRoof(drawable, x, y, width, height, pmvMatrix);
-        b0.reshapeBox(drawable, x, y, width, height, pmvMatrix);
-        b1.reshapeBox(drawable, x, y, width, height, pmvMatrix);
+        if (RENDER_MODE != RenderMode.INSTANCED_BOXES) {
+            b0.reshapeBox(drawable, x, y, width, height, pmvMatrix);
+            b1.reshapeBox(drawable, x, y, width, height, pmvMatrix);
+        }
+        // The projection matrix only changes here
+        pmvMatrix.glGetFloatv(GLMatrixFunc.GL_PROJECTION_MATRIX, projectionMatrix, 0);
+        camera.setProjectionMatrix(projectionMatrix);
+        viewportHeight = Math.max(height, 1);
     }
 
     /**
@@ -228,8 +621,25 @@ public class ShapesRendererPP extends GLCanvas implements GLEventListener {
         s0.disposeSphere(drawable);
         c0.disposeCone(drawable);
         r0.disposeRoof(drawable);
-        b0.disposeBox(drawable);
-        b1.disposeBox(drawable);
+        if (RENDER_MODE == RenderMode.INSTANCED_BOXES) {
+            boxes.disposeInstances(drawable);
+        } else {
+            b0.disposeBox(drawable);
+            b1.disposeBox(drawable);
+        }
+        if (RENDER_MODE == RenderMode.MULTI_DRAW_INDIRECT)
+            multiDraw.dispose(drawable);
+        if (RENDER_MODE == RenderMode.OCCLUSION_CULLING)
+            occlusionCuller.dispose(drawable.getGL().getGL3());
+        if (RENDER_MODE == RenderMode.GPU_CULLING)
+            gpuCulling.dispose(drawable);
+        if (isStaticBatching())
+            staticBatcher.dispose(drawable.getGL().getGL3());
+        if (softwareOcclusionCuller != null)
+            softwareOcclusionCuller.dispose();
+        dynamicData.printStallStatistics();
+        dynamicData.dispose(drawable.getGL().getGL3());
+        GLStateCache.invalidate();
 
         System.exit(0);
     }
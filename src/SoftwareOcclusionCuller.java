@@ -0,0 +1,402 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Occlusion culling on the CPU, without OpenGL: large occluders (e.g. walls and roofs)
+ * are rasterized into a small depth buffer, object bounds are tested against a
+ * hierarchical depth buffer (Hi-Z, maximum depth of 2x2 texels per level) built from it.
+ * The screen is split into tiles, which are rasterized in parallel. Each tile only writes
+ * its own pixels and the depth of a pixel is the minimum of all triangles covering it,
+ * so the result does not depend on the number of threads or the order of the occluders.
+ * The culling is conservative: a triangle only writes the pixels it covers completely,
+ * with the largest depth it has inside the pixel, so every pixel touched by a tested
+ * box is known to be hidden at least that far. Triangles crossing the near plane are not
+ * rasterized and bounds crossing it are never occluded.
+ * Depth values are window depths in [0, 1] (0: near plane), pixel (0, 0) is at the bottom left.
+ * All matrices are column major 4x4 matrices.
+ */
+public class SoftwareOcclusionCuller {
+
+    /**
+     * Triangles of an occluder in object coordinates.
+     */
+    public static class Occluder {
+        private final float[] positions;  // x, y, z per vertex
+        private final int[] triangles;    // 3 indices per triangle
+
+        public Occluder(float[] positions, int[] triangles) {
+            this.positions = positions;
+            this.triangles = triangles;
+        }
+
+        /**
+         * Creates an occluder from the interleaved vertices and the strip indices
+         * of a shape generator (e.g. Box.makeBoxVertices(), Roof.makeVertices()).
+         * Degenerated triangles of the strip are dropped, restart indices start a new strip.
+         * @param vertices			interleaved vertices, position first
+         * @param floatsPerVertex	number of floats per vertex
+         * @param stripIndices		indices for GL_TRIANGLE_STRIP
+         */
+        public static Occluder fromTriangleStrip(float[] vertices, int floatsPerVertex, int[] stripIndices) {
+            int noOfVertices = vertices.length / floatsPerVertex;
+            float[] positions = new float[noOfVertices * 3];
+            for (int v = 0; v < noOfVertices; v++)
+                System.arraycopy(vertices, v * floatsPerVertex, positions, v * 3, 3);
+            return new Occluder(positions, IndexOptimizer.stripToTriangles(stripIndices));
+        }
+    }
+
+    private static final int TILE_WIDTH = 64;
+    private static final int TILE_HEIGHT = 32;
+
+    private final int width, height;
+    private final int noOfTilesX, noOfTilesY;
+    // Hi-Z levels, level 0 is the depth buffer
+    private final float[][] levels;
+    private final int[] levelWidths, levelHeights;
+
+    // Screen space triangles of the frame (structure of arrays): one array per vertex
+    // of the triangle and component, e.g. triangleX[1][t] is x of the second vertex of triangle t
+    private final float[][] triangleX = new float[3][64];
+    private final float[][] triangleY = new float[3][64];
+    private final float[][] triangleDepth = new float[3][64];
+    private int noOfTriangles = 0;
+    // Triangle indices per tile
+    private final int[][] tileTriangles;
+    private final int[] noOfTileTriangles;
+
+    private final float[] viewProjectionMatrix = new float[16];
+    private final float[] modelViewProjectionMatrix = new float[16];
+    private float[] clipCoordinates = new float[64 * 4];
+
+    private final ExecutorService executor;
+    private final List<Callable<Void>> tileTasks = new ArrayList<>();
+
+    // Statistics of the frame
+    private int noOfRasterizedTriangles;
+    private int noOfSkippedTriangles;
+
+    /**
+     * @param width			width of the depth buffer in pixels (e.g. 256)
+     * @param height		height of the depth buffer in pixels (e.g. 128)
+     * @param noOfThreads	number of threads rasterizing the tiles, 1 for the calling thread only
+     */
+    public SoftwareOcclusionCuller(int width, int height, int noOfThreads) {
+        this.width = width;
+        this.height = height;
+        noOfTilesX = (width + TILE_WIDTH - 1) / TILE_WIDTH;
+        noOfTilesY = (height + TILE_HEIGHT - 1) / TILE_HEIGHT;
+
+        // Level sizes are rounded up, so texel x of level l covers the pixels
+        // x << l to ((x + 1) << l) - 1 of level 0 even for odd sizes
+        int noOfLevels = 1;
+        for (int w = width, h = height; w > 1 || h > 1; w = (w + 1) >> 1, h = (h + 1) >> 1)
+            noOfLevels++;
+        levels = new float[noOfLevels][];
+        levelWidths = new int[noOfLevels];
+        levelHeights = new int[noOfLevels];
+        for (int level = 0; level < noOfLevels; level++) {
+            levelWidths[level] = level == 0 ? width : (levelWidths[level - 1] + 1) >> 1;
+            levelHeights[level] = level == 0 ? height : (levelHeights[level - 1] + 1) >> 1;
+            levels[level] = new float[levelWidths[level] * levelHeights[level]];
+        }
+
+        tileTriangles = new int[noOfTilesX * noOfTilesY][64];
+        noOfTileTriangles = new int[noOfTilesX * noOfTilesY];
+        for (int tile = 0; tile < noOfTilesX * noOfTilesY; tile++) {
+            final int t = tile;
+            tileTasks.add(() -> {
+                rasterizeTile(t);
+                return null;
+            });
+        }
+        executor = noOfThreads > 1 ? Executors.newFixedThreadPool(noOfThreads, runnable -> {
+            Thread thread = new Thread(runnable, "SoftwareOcclusionCuller");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Clears the depth buffer and starts collecting occluders.
+     * @param projectionMatrix	projection matrix
+     * @param viewMatrix		view matrix
+     */
+    public void beginFrame(float[] projectionMatrix, float[] viewMatrix) {
+        multiply(projectionMatrix, viewMatrix, viewProjectionMatrix);
+        Arrays.fill(levels[0], 1f);
+        Arrays.fill(noOfTileTriangles, 0);
+        noOfTriangles = 0;
+        noOfRasterizedTriangles = 0;
+        noOfSkippedTriangles = 0;
+    }
+
+    /**
+     * Transforms the triangles of an occluder to screen space and assigns them to the tiles.
+     * @param occluder		occluder geometry
+     * @param modelMatrix	model matrix placing the occluder
+     */
+    public void addOccluder(Occluder occluder, float[] modelMatrix) {
+        multiply(viewProjectionMatrix, modelMatrix, modelViewProjectionMatrix);
+        float[] m = modelViewProjectionMatrix;
+        float[] p = occluder.positions;
+        int noOfVertices = p.length / 3;
+        if (clipCoordinates.length < noOfVertices * 4)
+            clipCoordinates = new float[noOfVertices * 4];
+        for (int v = 0; v < noOfVertices; v++) {
+            float x = p[v * 3], y = p[v * 3 + 1], z = p[v * 3 + 2];
+            for (int row = 0; row < 4; row++)
+                clipCoordinates[v * 4 + row] = m[row] * x + m[4 + row] * y + m[8 + row] * z + m[12 + row];
+        }
+
+        int[] t = occluder.triangles;
+        for (int i = 0; i < t.length; i += 3) {
+            int a = t[i] * 4, b = t[i + 1] * 4, c = t[i + 2] * 4;
+            // Triangles crossing the near plane (z < -w) are skipped
+            if (clipCoordinates[a + 2] < -clipCoordinates[a + 3]
+                    || clipCoordinates[b + 2] < -clipCoordinates[b + 3]
+                    || clipCoordinates[c + 2] < -clipCoordinates[c + 3]) {
+                noOfSkippedTriangles++;
+                continue;
+            }
+            addTriangle(a, b, c);
+        }
+    }
+
+    private void addTriangle(int a, int b, int c) {
+        if (noOfTriangles == triangleX[0].length) {
+            for (int k = 0; k < 3; k++) {
+                triangleX[k] = Arrays.copyOf(triangleX[k], noOfTriangles * 2);
+                triangleY[k] = Arrays.copyOf(triangleY[k], noOfTriangles * 2);
+                triangleDepth[k] = Arrays.copyOf(triangleDepth[k], noOfTriangles * 2);
+            }
+        }
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int k = 0; k < 3; k++) {
+            int v = k == 0 ? a : (k == 1 ? b : c);
+            float w = clipCoordinates[v + 3];
+            float x = (clipCoordinates[v] / w * 0.5f + 0.5f) * width;
+            float y = (clipCoordinates[v + 1] / w * 0.5f + 0.5f) * height;
+            triangleX[k][noOfTriangles] = x;
+            triangleY[k][noOfTriangles] = y;
+            triangleDepth[k][noOfTriangles] = clipCoordinates[v + 2] / w * 0.5f + 0.5f;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        // Tiles overlapping the bounding rectangle of the triangle
+        int tileX0 = Math.max((int) Math.floor(minX) / TILE_WIDTH, 0);
+        int tileY0 = Math.max((int) Math.floor(minY) / TILE_HEIGHT, 0);
+        int tileX1 = Math.min((int) Math.floor(maxX) / TILE_WIDTH, noOfTilesX - 1);
+        int tileY1 = Math.min((int) Math.floor(maxY) / TILE_HEIGHT, noOfTilesY - 1);
+        if (maxX < 0 || maxY < 0 || tileX0 > tileX1 || tileY0 > tileY1)
+            return;
+        for (int tileY = tileY0; tileY <= tileY1; tileY++) {
+            for (int tileX = tileX0; tileX <= tileX1; tileX++) {
+                int tile = tileY * noOfTilesX + tileX;
+                if (noOfTileTriangles[tile] == tileTriangles[tile].length)
+                    tileTriangles[tile] = Arrays.copyOf(tileTriangles[tile], tileTriangles[tile].length * 2);
+                tileTriangles[tile][noOfTileTriangles[tile]++] = noOfTriangles;
+            }
+        }
+        noOfTriangles++;
+        noOfRasterizedTriangles++;
+    }
+
+    /**
+     * Rasterizes the occluders of the frame (tiles in parallel) and builds the Hi-Z levels.
+     * To be called after the last addOccluder() and before isOccluded().
+     */
+    public void rasterize() {
+        if (executor == null) {
+            for (int tile = 0; tile < tileTasks.size(); tile++)
+                rasterizeTile(tile);
+        } else {
+            try {
+                executor.invokeAll(tileTasks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        buildHiZ();
+    }
+
+    private void rasterizeTile(int tile) {
+        int tileX0 = (tile % noOfTilesX) * TILE_WIDTH;
+        int tileY0 = (tile / noOfTilesX) * TILE_HEIGHT;
+        int tileX1 = Math.min(tileX0 + TILE_WIDTH, width) - 1;
+        int tileY1 = Math.min(tileY0 + TILE_HEIGHT, height) - 1;
+        float[] depth = levels[0];
+        int[] triangles = tileTriangles[tile];
+        for (int i = 0; i < noOfTileTriangles[tile]; i++) {
+            int t = triangles[i];
+            float x0 = triangleX[0][t], y0 = triangleY[0][t], z0 = triangleDepth[0][t];
+            float x1 = triangleX[1][t], y1 = triangleY[1][t], z1 = triangleDepth[1][t];
+            float x2 = triangleX[2][t], y2 = triangleY[2][t], z2 = triangleDepth[2][t];
+            float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+            if (Math.abs(area) < 1e-6f)
+                continue;
+            if (area < 0f) {
+                // counter clockwise order for the edge functions
+                float tx = x1, ty = y1, tz = z1;
+                x1 = x2; y1 = y2; z1 = z2;
+                x2 = tx; y2 = ty; z2 = tz;
+                area = -area;
+            }
+            int minX = Math.max((int) Math.floor(Math.min(x0, Math.min(x1, x2))), tileX0);
+            int maxX = Math.min((int) Math.ceil(Math.max(x0, Math.max(x1, x2))), tileX1);
+            int minY = Math.max((int) Math.floor(Math.min(y0, Math.min(y1, y2))), tileY0);
+            int maxY = Math.min((int) Math.ceil(Math.max(y0, Math.max(y1, y2))), tileY1);
+            if (minX > maxX || minY > maxY)
+                continue;
+
+            // Edge functions at the center of the first pixel and their steps
+            float px = minX + 0.5f, py = minY + 0.5f;
+            float w0Row = (x2 - x1) * (py - y1) - (y2 - y1) * (px - x1);
+            float w1Row = (x0 - x2) * (py - y2) - (y0 - y2) * (px - x2);
+            float w2Row = (x1 - x0) * (py - y0) - (y1 - y0) * (px - x0);
+            float w0StepX = -(y2 - y1), w1StepX = -(y0 - y2), w2StepX = -(y1 - y0);
+            float w0StepY = x2 - x1, w1StepY = x0 - x2, w2StepY = x1 - x0;
+            // Depth is linear in screen space
+            float zStepX = (w0StepX * z0 + w1StepX * z1 + w2StepX * z2) / area;
+            float zStepY = (w0StepY * z0 + w1StepY * z1 + w2StepY * z2) / area;
+            float zRow = (w0Row * z0 + w1Row * z1 + w2Row * z2) / area;
+            // Edge functions at the worst corner of the pixel (inside the triangle if all
+            // corners are) and the largest depth of the triangle inside the pixel
+            w0Row -= 0.5f * (Math.abs(w0StepX) + Math.abs(w0StepY));
+            w1Row -= 0.5f * (Math.abs(w1StepX) + Math.abs(w1StepY));
+            w2Row -= 0.5f * (Math.abs(w2StepX) + Math.abs(w2StepY));
+            zRow += 0.5f * (Math.abs(zStepX) + Math.abs(zStepY));
+
+            for (int y = minY; y <= maxY; y++) {
+                float w0 = w0Row, w1 = w1Row, w2 = w2Row, z = zRow;
+                int index = y * width + minX;
+                for (int x = minX; x <= maxX; x++, index++) {
+                    if (w0 >= 0f && w1 >= 0f && w2 >= 0f && z < depth[index])
+                        depth[index] = z;
+                    w0 += w0StepX;
+                    w1 += w1StepX;
+                    w2 += w2StepX;
+                    z += zStepX;
+                }
+                w0Row += w0StepY;
+                w1Row += w1StepY;
+                w2Row += w2StepY;
+                zRow += zStepY;
+            }
+        }
+    }
+
+    private void buildHiZ() {
+        for (int level = 1; level < levels.length; level++) {
+            float[] source = levels[level - 1];
+            float[] target = levels[level];
+            int sourceWidth = levelWidths[level - 1], sourceHeight = levelHeights[level - 1];
+            for (int y = 0; y < levelHeights[level]; y++) {
+                int y0 = Math.min(2 * y, sourceHeight - 1), y1 = Math.min(2 * y + 1, sourceHeight - 1);
+                for (int x = 0; x < levelWidths[level]; x++) {
+                    int x0 = Math.min(2 * x, sourceWidth - 1), x1 = Math.min(2 * x + 1, sourceWidth - 1);
+                    target[y * levelWidths[level] + x] = Math.max(
+                            Math.max(source[y0 * sourceWidth + x0], source[y0 * sourceWidth + x1]),
+                            Math.max(source[y1 * sourceWidth + x0], source[y1 * sourceWidth + x1]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests an axis aligned bounding box in world coordinates against the Hi-Z buffer.
+     * @param min minimum corner of the box
+     * @param max maximum corner of the box
+     * @return true if the box is completely behind the occluders
+     */
+    public boolean isOccluded(float[] min, float[] max) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        float minDepth = Float.MAX_VALUE;
+        float[] m = viewProjectionMatrix;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = (corner & 1) == 0 ? min[0] : max[0];
+            float y = (corner & 2) == 0 ? min[1] : max[1];
+            float z = (corner & 4) == 0 ? min[2] : max[2];
+            float clipX = m[0] * x + m[4] * y + m[8] * z + m[12];
+            float clipY = m[1] * x + m[5] * y + m[9] * z + m[13];
+            float clipZ = m[2] * x + m[6] * y + m[10] * z + m[14];
+            float clipW = m[3] * x + m[7] * y + m[11] * z + m[15];
+            // Boxes crossing the near plane are visible
+            if (clipZ < -clipW)
+                return false;
+            float screenX = (clipX / clipW * 0.5f + 0.5f) * width;
+            float screenY = (clipY / clipW * 0.5f + 0.5f) * height;
+            minX = Math.min(minX, screenX);
+            minY = Math.min(minY, screenY);
+            maxX = Math.max(maxX, screenX);
+            maxY = Math.max(maxY, screenY);
+            minDepth = Math.min(minDepth, clipZ / clipW * 0.5f + 0.5f);
+        }
+        int x0 = Math.max((int) Math.floor(minX), 0);
+        int y0 = Math.max((int) Math.floor(minY), 0);
+        int x1 = Math.min((int) Math.floor(maxX), width - 1);
+        int y1 = Math.min((int) Math.floor(maxY), height - 1);
+        if (x0 > x1 || y0 > y1)
+            return false;
+
+        // Level on which the rectangle covers at most 2x2 texels
+        int level = 0;
+        while (level < levels.length - 1 && ((x1 >> level) - (x0 >> level) > 1 || (y1 >> level) - (y0 >> level) > 1))
+            level++;
+        float[] hiZ = levels[level];
+        int levelWidth = levelWidths[level];
+        for (int y = y0 >> level; y <= Math.min(y1 >> level, levelHeights[level] - 1); y++)
+            for (int x = x0 >> level; x <= Math.min(x1 >> level, levelWidth - 1); x++)
+                if (hiZ[y * levelWidth + x] >= minDepth)
+                    return false;
+        return true;
+    }
+
+    /**
+     * Returns the depth buffer (row by row, starting at the bottom), e.g. for tests or debug output.
+     */
+    public float[] getDepthBuffer() {
+        return levels[0];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNoOfRasterizedTriangles() {
+        return noOfRasterizedTriangles;
+    }
+
+    /**
+     * Returns the number of occluder triangles skipped in this frame because they cross the near plane.
+     */
+    public int getNoOfSkippedTriangles() {
+        return noOfSkippedTriangles;
+    }
+
+    /**
+     * Stops the rasterizer threads.
+     */
+    public void dispose() {
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    // d = a * b for column major 4x4 matrices
+    private static void multiply(float[] a, float[] b, float[] d) {
+        for (int column = 0; column < 4; column++)
+            for (int row = 0; row < 4; row++)
+                d[column * 4 + row] = a[row] * b[column * 4] + a[4 + row] * b[column * 4 + 1]
+                        + a[8 + row] * b[column * 4 + 2] + a[12 + row] * b[column * 4 + 3];
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+/**
+ * Checks the SoftwareOcclusionCuller on a known scene: a wall (box of 12 x 6 x 0.2)
+ * 10 units in front of the camera, seen through a perspective projection.
+ * - The depth buffers rasterized with 1 and with several threads must be bit-identical.
+ * - A box completely behind the wall must be occluded.
+ * - A box reaching past the edge of the wall, a box in front of the wall and a box
+ *   crossing the near plane must not be occluded.
+ * Failures are printed, the exit status is 1 if any check failed.
+ * Runs without OpenGL.
+ */
+public class SoftwareOcclusionCullerCheck {
+
+    private static final int WIDTH = 256;
+    private static final int HEIGHT = 128;
+    private static final int NO_OF_THREADS = 4;
+
+    private static int noOfFailures = 0;
+
+    public static void main(String[] args) {
+        float[] projectionMatrix = makePerspective(60f, (float) WIDTH / HEIGHT, 1f, 100f);
+        float[] viewMatrix = makeTranslation(0f, 0f, 0f);
+        SoftwareOcclusionCuller.Occluder wall = SoftwareOcclusionCuller.Occluder.fromTriangleStrip(
+                Box.makeBoxVertices(12f, 6f, 0.2f, new float[3]),
+                Mesh.FLOATS_PER_VERTEX, Box.makeBoxIndicesForTriangleStrip());
+        float[] wallMatrix = makeTranslation(0f, 0f, -10f);
+
+        SoftwareOcclusionCuller singleThreaded = new SoftwareOcclusionCuller(WIDTH, HEIGHT, 1);
+        SoftwareOcclusionCuller multiThreaded = new SoftwareOcclusionCuller(WIDTH, HEIGHT, NO_OF_THREADS);
+        for (SoftwareOcclusionCuller culler : new SoftwareOcclusionCuller[] {singleThreaded, multiThreaded}) {
+            culler.beginFrame(projectionMatrix, viewMatrix);
+            culler.addOccluder(wall, wallMatrix);
+            culler.rasterize();
+        }
+
+        // Arrays.equals() compares floats by their bits
+        check("depth buffers of 1 and " + NO_OF_THREADS + " threads are bit-identical",
+                Arrays.equals(singleThreaded.getDepthBuffer(), multiThreaded.getDepthBuffer()));
+        int noOfWrittenPixels = 0;
+        for (float depth : singleThreaded.getDepthBuffer())
+            if (depth < 1f)
+                noOfWrittenPixels++;
+        check("wall is rasterized", noOfWrittenPixels > 0);
+
+        for (SoftwareOcclusionCuller culler : new SoftwareOcclusionCuller[] {singleThreaded, multiThreaded}) {
+            check("box completely behind the wall is occluded",
+                    culler.isOccluded(new float[] {-0.6f, 2.0f, -12.5f}, new float[] {0.6f, 2.8f, -11.5f}));
+            check("box reaching past the edge of the wall is not occluded",
+                    !culler.isOccluded(new float[] {6f, 1.8f, -12.5f}, new float[] {9f, 3.0f, -11.5f}));
+            check("box in front of the wall is not occluded",
+                    !culler.isOccluded(new float[] {-0.5f, 1.5f, -6f}, new float[] {0.5f, 2.5f, -5f}));
+            check("box crossing the near plane is not occluded",
+                    !culler.isOccluded(new float[] {-0.5f, -0.5f, -20f}, new float[] {0.5f, 0.5f, 0.5f}));
+        }
+        singleThreaded.dispose();
+        multiThreaded.dispose();
+
+        if (noOfFailures > 0) {
+            System.err.println(noOfFailures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            System.err.println("Failed: " + name);
+            noOfFailures++;
+        }
+    }
+
+    // Column major perspective projection as created by gluPerspective()
+    private static float[] makePerspective(float fovy, float aspect, float near, float far) {
+        float f = (float) (1.0 / Math.tan(Math.toRadians(fovy) / 2.0));
+        float[] m = new float[16];
+        m[0] = f / aspect;
+        m[5] = f;
+        m[10] = (far + near) / (near - far);
+        m[11] = -1f;
+        m[14] = 2f * far * near / (near - far);
+        return m;
+    }
+
+    private static float[] makeTranslation(float x, float y, float z) {
+        return new float[] {1f, 0f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, 0f, 1f, 0f, x, y, z, 1f};
+    }
+}
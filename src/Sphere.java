@@ -69,6 +69,7 @@ public class Sphere {
      * Creates indices for drawing a sphere with glDrawElements().
      * To be used together with makeVertices().
      * To be used with "glDrawElements" and "GL_TRIANGLE_STRIP".
+     * One strip per row, closed at the seam and separated by Mesh.PRIMITIVE_RESTART_INDEX.
      * @return indices into the vertex array of the sphere
      */
     public int[] makeIndicesForTriangleStrip() {
@@ -77,13 +78,19 @@ public class Sphere {
         // defined in makeVertices()
         int[] indices = new int[getNoOfIndices()];
         int index = 0;
-        for (int vIndex = 1; vIndex <= verticalResolution; vIndex++)
-            for (int hIndex = 0; hIndex < horizontalResolution; hIndex++) {
-                indices[index] = ((vIndex-1) * horizontalResolution) + hIndex;
+        for (int vIndex = 1; vIndex <= verticalResolution; vIndex++) {
+            if (vIndex > 1) {
+                indices[index] = Mesh.PRIMITIVE_RESTART_INDEX;
                 index++;
-                indices[index] = ((vIndex) * horizontalResolution) + hIndex;
+            }
+            // the first column is repeated for closing the seam
+            for (int hIndex = 0; hIndex <= horizontalResolution; hIndex++) {
+                indices[index] = ((vIndex-1) * horizontalResolution) + (hIndex % horizontalResolution);
+                index++;
+                indices[index] = ((vIndex) * horizontalResolution) + (hIndex % horizontalResolution);
                 index++;
             }
+        }
 
         return indices;
     }
@@ -93,7 +100,7 @@ public class Sphere {
      * @return number of indices the index buffer
      */
     private int noOfIndicesForSphere() {
-        return 2 * verticalResolution * horizontalResolution;
+        return 2 * verticalResolution * (horizontalResolution + 1) + (verticalResolution - 1);
     }
 
     /**
@@ -1,27 +1,22 @@
 import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2GL3;
 import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.util.PMVMatrix;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-
 public class SphereRenderer {
 
-    private int[] vaoSphere;  // Names of vertex array objects
-    private int[] vboSphere;	// Names of vertex buffer objects
-    private int[] iboSphere;	// Names of index buffer objects
+    // Shared geometry from the mesh cache, one mesh per level of detail
+    private LodChain lodChain;
+    private int lodLevel = 0;  // level selected for the current frame
 
     //PMVMatrix pmvSphere;
 
-    private Sphere sphere0;
-
-    private final String shaderPath = ".\\resources\\";
-
-    private final String vertexShader0FileName = "O1_Basic.vert";
-    private final String fragmentShader0FileName = "O1_Basic.frag";
+    private final String vertexShader0FileName = "Basic.vert";
+    private final String fragmentShader0FileName = "Basic.frag";
 
     private ShaderProgram shaderProgram0;           //Hyp. Shader Fenster
+    private ShaderUniform modelMatrixUniform0;  // mMatrix of the shader program
 
     /*public PMVMatrix getPmvSphere() {
         return pmvSphere;
@@ -35,90 +30,89 @@ public class SphereRenderer {
         GL3 gl = drawable.getGL().getGL3();
 
         // BEGIN: Preparing scene
-        // BEGIN: Allocating vertex array objects and buffers for each object
-        int noOfObjects = 1;
-        // create vertex array objects for noOfObjects objects (VAO)
-        vaoSphere = new int[noOfObjects];
-        gl.glGenVertexArrays(noOfObjects, vaoSphere, 0);
-        if (vaoSphere[0] < 1)
-            System.err.println("Error allocating vertex array object (VAO).");
-
-        // create vertex buffer objects for noOfObjects objects (VBO)
-        vboSphere = new int[noOfObjects];
-        gl.glGenBuffers(noOfObjects, vboSphere, 0);
-        if (vboSphere[0] < 1)
-            System.err.println("Error allocating vertex buffer object (VBO).");
-
-        // create index buffer objects for noOfObjects objects (IBO)
-        iboSphere = new int[noOfObjects];
-        gl.glGenBuffers(noOfObjects, iboSphere, 0);
-        if (iboSphere[0] < 1)
-            System.err.println("Error allocating index buffer object.");
-        // END: Allocating vertex array objects and buffers for each object
-
         initSphere(gl);
 
         // Switch on back face culling
-        gl.glEnable(GL.GL_CULL_FACE);
-        gl.glCullFace(GL.GL_BACK);
+        GLStateCache.enable(gl, GL.GL_CULL_FACE);
+        GLStateCache.cullFace(gl, GL.GL_BACK);
 //        gl.glCullFace(GL.GL_FRONT);
         // Switch on depth test
-        gl.glEnable(GL.GL_DEPTH_TEST);
+        GLStateCache.enable(gl, GL.GL_DEPTH_TEST);
 
         // defining polygon drawing mode
 //        gl.glPolygonMode(GL.GL_FRONT_AND_BACK, gl.GL_FILL);
-        gl.glPolygonMode(GL.GL_FRONT_AND_BACK, gl.GL_LINE);
+        GLStateCache.polygonMode(gl, GL2GL3.GL_LINE);
     }
 
     public void initSphere(GL3 gl){
         // BEGIN: Prepare a sphere for drawing (object 0)
         // create sphere data for rendering a sphere using an index array into a vertex array
-        gl.glBindVertexArray(vaoSphere[0]);
-        // Shader program for object 0
-        shaderProgram0 = new ShaderProgram(gl);
-        shaderProgram0.loadShaderAndCreateProgram(shaderPath,
+        // The program is shared by all renderers using the same shaders
+        shaderProgram0 = ShaderProgramRegistry.acquire(gl,
                 vertexShader0FileName, fragmentShader0FileName);
+        // The program may still be compiling, the uniform handle and the meshes are set up by finishInit()
+    }
 
+    /**
+     * Completes the initialization once the shader program is linked (see ShaderProgram.isReady()):
+     * resolves the uniform handle and creates the meshes in the vertex layout of the program.
+     * @param gl OpenGL context
+     */
+    public void finishInit(GL3 gl) {
+        modelMatrixUniform0 = shaderProgram0.getUniform("mMatrix");
         float[] color0 = {0.8f, 0.1f, 0.1f};
-        sphere0 = new Sphere(64, 64);
-        float[] sphereVertices = sphere0.makeVertices(0.5f, color0);
-        int[] sphereIndices = sphere0.makeIndicesForTriangleStrip();
-
-        // activate and initialize vertex buffer object (VBO)
-        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vboSphere[0]);
-        // floats use 4 bytes in Java
-        gl.glBufferData(GL.GL_ARRAY_BUFFER, sphereVertices.length * 4,
-                FloatBuffer.wrap(sphereVertices), GL.GL_STATIC_DRAW);
-
-        // activate and initialize index buffer object (IBO)
-        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, iboSphere[0]);
-        // integers use 4 bytes in Java
-        gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, sphereIndices.length * 4,
-                IntBuffer.wrap(sphereIndices), GL.GL_STATIC_DRAW);
-
-        // Activate and order vertex buffer object data for the vertex shader
-        // Defining input variables for vertex shader
-        // Pointer for the vertex shader to the position information per vertex
-        gl.glEnableVertexAttribArray(0);
-        gl.glVertexAttribPointer(0, 3, GL.GL_FLOAT, false, 9*4, 0);
-        // Pointer for the vertex shader to the color information per vertex
-        gl.glEnableVertexAttribArray(1);
-        gl.glVertexAttribPointer(1, 3, GL.GL_FLOAT, false, 9*4, 3*4);
-        // Pointer for the vertex shader to the normal information per vertex
-        gl.glEnableVertexAttribArray(2);
-        gl.glVertexAttribPointer(2, 3, GL.GL_FLOAT, false, 9*4, 6*4);
+        // The vertex buffers hold only the attributes read by the shader program
+        VertexLayout layout = VertexLayout.forProgram(shaderProgram0);
+        // Identical shapes share one mesh (vertex and index buffers) on the GPU,
+        // the levels of detail have decreasing numbers of segments
+        lodChain = LodChain.makeSphere(gl, layout, LodChain.DEFAULT_RESOLUTIONS, 0.5f, color0);
         // END: Prepare sphere for drawing
     }
 
+    /**
+     * Returns the mesh of the shape at level of detail 0 (e.g. for drawing it with a MultiDrawRenderer).
+     */
+    public Mesh getMesh() {
+        return lodChain.getMesh(0);
+    }
+
+    public LodChain getLodChain() {
+        return lodChain;
+    }
+
+    /**
+     * Selects the level of detail drawn by displaySphere() and queueSphere() in this frame.
+     * @param lodSelector	selector updated for the current frame
+     * @param modelMatrix	model matrix of the object
+     * @return selected level
+     */
+    public int selectLod(LodSelector lodSelector, float[] modelMatrix) {
+        lodLevel = lodSelector.selectLevel(lodChain, lodLevel, modelMatrix);
+        return lodLevel;
+    }
+
     public void displaySphere(GL3 gl, PMVMatrix pmvMatrix) {
-        gl.glUseProgram(shaderProgram0.getShaderProgramID());
-        // Transfer the PVM-Matrix (model-view and projection matrix)
-        // to the vertex shader
-        gl.glUniformMatrix4fv(0, 1, false, pmvMatrix.glGetPMatrixf());
-        gl.glUniformMatrix4fv(1, 1, false, pmvMatrix.glGetMvMatrixf());
-        gl.glBindVertexArray(vaoSphere[0]);
+        // Skip drawing while the shader program is still being compiled
+        if (!shaderProgram0.isReady())
+            return;
+        GLStateCache.useProgram(gl, shaderProgram0.getShaderProgramID());
+        // Transfer the model matrix to the vertex shader (skipped if unchanged)
+        // (projection and view matrix are in the camera uniform buffer)
+        modelMatrixUniform0.set(gl, pmvMatrix.glGetMvMatrixf());
         // Draws the elements in the order defined by the index buffer object (IBO)
-        gl.glDrawElements(GL.GL_TRIANGLE_STRIP, Box.noOfIndicesForBox(), GL.GL_UNSIGNED_INT, 0);
+        lodChain.getMesh(lodLevel).draw(gl);
+    }
+
+    /**
+     * Adds the sphere to a render queue instead of drawing it immediately.
+     * @param renderQueue	queue of the frame
+     * @param modelMatrix	model matrix of the object
+     */
+    public void queueSphere(RenderQueue renderQueue, float[] modelMatrix) {
+        // Skip drawing while the shader program is still being compiled
+        if (!shaderProgram0.isReady())
+            return;
+        renderQueue.add(RenderQueue.PASS_OPAQUE, shaderProgram0, modelMatrixUniform0, lodChain.getMesh(lodLevel), modelMatrix);
     }
 
     public void reshapeSphere(GLAutoDrawable drawable, int x, int y, int width, int height, PMVMatrix pmvMatrix) {
@@ -132,17 +126,20 @@ public class SphereRenderer {
     public void disposeSphere(GLAutoDrawable drawable) {
         GL3 gl = drawable.getGL().getGL3();
 
-        // Detach and delete shader program
-        gl.glUseProgram(0);
-        shaderProgram0.deleteShaderProgram();
+        // Detach and release shader program
+        GLStateCache.useProgram(gl, 0);
+        ShaderProgramRegistry.release(shaderProgram0);
+        // Release the shared meshes
+        if (lodChain != null)
+            lodChain.release(gl);
 
         // deactivate VAO and VBO
-        gl.glBindVertexArray(0);
+        GLStateCache.bindVertexArray(gl, 0);
         gl.glDisableVertexAttribArray(0);
         gl.glDisableVertexAttribArray(1);
 
-        gl.glDisable(GL.GL_CULL_FACE);
-        gl.glDisable(GL.GL_DEPTH_TEST);
+        GLStateCache.disable(gl, GL.GL_CULL_FACE);
+        GLStateCache.disable(gl, GL.GL_DEPTH_TEST);
 
     }
 }
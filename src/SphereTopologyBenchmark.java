@@ -0,0 +1,214 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the sphere topologies UV sphere (Sphere), subdivided icosahedron (Icosphere)
+ * and normalized cube (CubeSphere) at equal visual error.
+ * The error of a mesh is the largest distance between the sphere and the triangles
+ * of the mesh relative to the radius (the error of the silhouette). For every target error
+ * the smallest resolution of each topology reaching it is searched, and its vertices,
+ * triangles, buffer size and generation time are printed.
+ * The UV sphere is searched with twice as many horizontal as vertical segments
+ * (equal angles), the renderers currently use Sphere(64, 64).
+ * Also checks that icosphere and cube sphere are closed and wound counter clockwise.
+ * Runs without OpenGL.
+ */
+public class SphereTopologyBenchmark {
+
+    private static final float[] TARGET_ERRORS = {0.01f, 0.005f, 0.002f, 0.001f, 0.0005f};
+    private static final float[] COLOR = {1f, 1f, 1f};
+    private static final int REPETITIONS = 20;
+
+    // Result of one mesh
+    private static class Result {
+        private final String name;
+        private final int noOfVertices;
+        private final int noOfTriangles;
+        private final int noOfIndices;
+        private final int indexSize;  // bytes per index as uploaded by Mesh
+        private final float error;
+        private long generationTimeNanos;
+
+        private Result(String name, float[] vertices, int[] triangles, int[] indices) {
+            this.name = name;
+            this.noOfVertices = vertices.length / Mesh.FLOATS_PER_VERTEX;
+            this.noOfTriangles = triangles.length / 3;
+            this.noOfIndices = indices.length;
+            this.indexSize = Mesh.getIndexSize(Mesh.selectIndexType(indices));
+            this.error = computeError(vertices, triangles);
+        }
+    }
+
+    // Generates one topology at a resolution
+    private interface Generator {
+        Result generate(int resolution);
+    }
+
+    public static void main(String[] args) {
+        checkClosedAndOutward("Icosphere(3)", new Icosphere(3).makeVertices(1f, COLOR),
+                new Icosphere(3).makeIndicesForTriangles());
+        checkClosedAndOutward("CubeSphere(8)", new CubeSphere(8).makeVertices(1f, COLOR),
+                new CubeSphere(8).makeIndicesForTriangles());
+
+        Generator uvSphere = resolution -> {
+            Sphere sphere = new Sphere(resolution, 2 * resolution);
+            int[] strip = sphere.makeIndicesForTriangleStrip();
+            return new Result("UV sphere (" + resolution + ", " + 2 * resolution + ")",
+                    sphere.makeVertices(1f, COLOR), IndexOptimizer.stripToTriangles(strip), strip);
+        };
+        Generator icosphere = resolution -> {
+            Icosphere sphere = new Icosphere(resolution);
+            int[] triangles = sphere.makeIndicesForTriangles();
+            return new Result("Icosphere (" + resolution + ")",
+                    sphere.makeVertices(1f, COLOR), triangles, triangles);
+        };
+        Generator cubeSphere = resolution -> {
+            CubeSphere sphere = new CubeSphere(resolution);
+            int[] triangles = sphere.makeIndicesForTriangles();
+            return new Result("Cube sphere (" + resolution + ")",
+                    sphere.makeVertices(1f, COLOR), triangles, triangles);
+        };
+
+        Sphere current = new Sphere(64, 64);
+        int[] currentStrip = current.makeIndicesForTriangleStrip();
+        Result reference = new Result("UV sphere (64, 64)", current.makeVertices(1f, COLOR),
+                IndexOptimizer.stripToTriangles(currentStrip), currentStrip);
+        System.out.println("Current sphere: " + format(reference));
+
+        for (float targetError : TARGET_ERRORS) {
+            System.out.println("Relative error <= " + targetError + ":");
+            System.out.println("  " + format(findResolution(uvSphere, targetError, 2, 512)));
+            System.out.println("  " + format(findResolution(icosphere, targetError, 0, 8)));
+            System.out.println("  " + format(findResolution(cubeSphere, targetError, 1, 512)));
+        }
+    }
+
+    /**
+     * Returns the lowest resolution of a topology whose error is at most the target error
+     * (the error decreases with the resolution).
+     */
+    private static Result findResolution(Generator generator, float targetError, int minResolution, int maxResolution) {
+        int resolution = minResolution;
+        Result result = generator.generate(resolution);
+        while (result.error > targetError && resolution < maxResolution)
+            result = generator.generate(++resolution);
+        long start = System.nanoTime();
+        for (int i = 0; i < REPETITIONS; i++)
+            generator.generate(resolution);
+        result.generationTimeNanos = (System.nanoTime() - start) / REPETITIONS;
+        return result;
+    }
+
+    private static String format(Result result) {
+        long bytes = (long) result.noOfVertices * VertexLayout.DEFAULT.getStride() + (long) result.noOfIndices * result.indexSize;
+        return String.format("%-24s %7d vertices %7d triangles %8.1f KiB  error %.5f  %6.2f ms",
+                result.name, result.noOfVertices, result.noOfTriangles, bytes / 1024.0,
+                result.error, result.generationTimeNanos / 1e6);
+    }
+
+    /**
+     * Returns the largest distance between the unit sphere around the origin and
+     * the triangles: 1 - distance of the origin to the closest point of each triangle.
+     */
+    private static float computeError(float[] vertices, int[] triangles) {
+        float radius = 0f;
+        for (int i = 0; i < 3; i++)
+            radius += vertices[i] * vertices[i];
+        radius = (float) Math.sqrt(radius);
+        double maxError = 0.0;
+        double[] a = new double[3], b = new double[3], c = new double[3];
+        for (int triangle = 0; triangle < triangles.length; triangle += 3) {
+            for (int i = 0; i < 3; i++) {
+                a[i] = vertices[triangles[triangle] * Mesh.FLOATS_PER_VERTEX + i];
+                b[i] = vertices[triangles[triangle + 1] * Mesh.FLOATS_PER_VERTEX + i];
+                c[i] = vertices[triangles[triangle + 2] * Mesh.FLOATS_PER_VERTEX + i];
+            }
+            maxError = Math.max(maxError, radius - distanceToOrigin(a, b, c));
+        }
+        return (float) (maxError / radius);
+    }
+
+    /**
+     * Distance of the origin to the closest point of a triangle (Ericson, Real-Time Collision Detection 5.1.5).
+     */
+    private static double distanceToOrigin(double[] a, double[] b, double[] c) {
+        double[] ab = new double[3], ac = new double[3], ap = new double[3];
+        for (int i = 0; i < 3; i++) {
+            ab[i] = b[i] - a[i];
+            ac[i] = c[i] - a[i];
+            ap[i] = -a[i];
+        }
+        double d1 = dot(ab, ap), d2 = dot(ac, ap);
+        if (d1 <= 0 && d2 <= 0)
+            return length(a, 0, ab, 0, ac);
+        double[] bp = {-b[0], -b[1], -b[2]};
+        double d3 = dot(ab, bp), d4 = dot(ac, bp);
+        if (d3 >= 0 && d4 <= d3)
+            return length(b, 0, ab, 0, ac);
+        double vc = d1 * d4 - d3 * d2;
+        if (vc <= 0 && d1 >= 0 && d3 <= 0)
+            return length(a, d1 / (d1 - d3), ab, 0, ac);
+        double[] cp = {-c[0], -c[1], -c[2]};
+        double d5 = dot(ab, cp), d6 = dot(ac, cp);
+        if (d6 >= 0 && d5 <= d6)
+            return length(c, 0, ab, 0, ac);
+        double vb = d5 * d2 - d1 * d6;
+        if (vb <= 0 && d2 >= 0 && d6 <= 0)
+            return length(a, 0, ab, d2 / (d2 - d6), ac);
+        double va = d3 * d6 - d5 * d4;
+        if (va <= 0 && (d4 - d3) >= 0 && (d5 - d6) >= 0) {
+            double w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+            double[] bc = {c[0] - b[0], c[1] - b[1], c[2] - b[2]};
+            return length(b, w, bc, 0, ac);
+        }
+        double denominator = 1.0 / (va + vb + vc);
+        return length(a, vb * denominator, ab, vc * denominator, ac);
+    }
+
+    // Length of p + s * u + t * v
+    private static double length(double[] p, double s, double[] u, double t, double[] v) {
+        double sum = 0.0;
+        for (int i = 0; i < 3; i++) {
+            double x = p[i] + s * u[i] + t * v[i];
+            sum += x * x;
+        }
+        return Math.sqrt(sum);
+    }
+
+    private static double dot(double[] u, double[] v) {
+        return u[0] * v[0] + u[1] * v[1] + u[2] * v[2];
+    }
+
+    /**
+     * Checks that every edge is used once in each direction (closed, consistently wound)
+     * and that the triangles face away from the origin.
+     */
+    private static void checkClosedAndOutward(String name, float[] vertices, int[] triangles) {
+        Map<Long, Integer> edges = new HashMap<>();
+        int noOfInwardTriangles = 0;
+        for (int triangle = 0; triangle < triangles.length; triangle += 3) {
+            for (int corner = 0; corner < 3; corner++) {
+                long from = triangles[triangle + corner];
+                long to = triangles[triangle + (corner + 1) % 3];
+                edges.merge((from << 32) | to, 1, Integer::sum);
+            }
+            float[] p = new float[9];
+            for (int corner = 0; corner < 3; corner++)
+                System.arraycopy(vertices, triangles[triangle + corner] * Mesh.FLOATS_PER_VERTEX, p, corner * 3, 3);
+            float nx = (p[4] - p[1]) * (p[8] - p[2]) - (p[5] - p[2]) * (p[7] - p[1]);
+            float ny = (p[5] - p[2]) * (p[6] - p[0]) - (p[3] - p[0]) * (p[8] - p[2]);
+            float nz = (p[3] - p[0]) * (p[7] - p[1]) - (p[4] - p[1]) * (p[6] - p[0]);
+            if (nx * p[0] + ny * p[1] + nz * p[2] <= 0f)
+                noOfInwardTriangles++;
+        }
+        int noOfOpenEdges = 0;
+        for (Map.Entry<Long, Integer> edge : edges.entrySet()) {
+            long reverse = (edge.getKey() << 32) | (edge.getKey() >>> 32);
+            if (edge.getValue() != 1 || !edges.containsKey(reverse))
+                noOfOpenEdges++;
+        }
+        if (noOfOpenEdges > 0 || noOfInwardTriangles > 0)
+            System.err.println(name + ": " + noOfOpenEdges + " open or duplicate edges, "
+                    + noOfInwardTriangles + " inward facing triangles");
+    }
+}
@@ -0,0 +1,272 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.math.FloatUtil;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Bakes the geometry of static scene nodes (see SceneNode.setStatic()) into a few
+ * large meshes, so they are drawn without a draw call and model matrix per object.
+ * build() transforms the vertices into world coordinates (in parallel, one task per
+ * object) and merges the objects of each shader program into chunks. A chunk holds at
+ * most maxChunkVertices vertices of objects lying close together (median splits along
+ * the longest axis), so chunks stay small enough to be culled against the view frustum.
+ * Each chunk is one mesh drawn with one call and the identity model matrix.
+ * Chunks store positions as floats (VertexFormat.PACKED_FLOAT): half floats are
+ * too coarse for world coordinates away from the origin.
+ * The geometry has to be triangle strips with restart indices (as made by the shape generators).
+ */
+public class StaticBatcher {
+
+    // Vertices per chunk, small enough for 16 bit indices
+    public static final int DEFAULT_MAX_CHUNK_VERTICES = 16384;
+
+    private static final float[] IDENTITY = FloatUtil.makeIdentity(new float[16]);
+
+    // Object added for baking, freed after build()
+    private static class StaticObject {
+        private final SceneNode node;
+        private final float[] vertices;
+        private final int[] indices;
+        private float[] worldVertices;
+        private final float[] center = new float[3];
+
+        private StaticObject(SceneNode node, float[] vertices, int[] indices) {
+            this.node = node;
+            this.vertices = vertices;
+            this.indices = indices;
+        }
+    }
+
+    // Objects and chunks of one shader program
+    private static class Batch {
+        private final ShaderProgram shaderProgram;
+        private final ShaderUniform modelMatrixUniform;
+        private final List<StaticObject> objects = new ArrayList<>();
+        private final List<Mesh> chunks = new ArrayList<>();
+
+        private Batch(ShaderProgram shaderProgram, ShaderUniform modelMatrixUniform) {
+            this.shaderProgram = shaderProgram;
+            this.modelMatrixUniform = modelMatrixUniform;
+        }
+    }
+
+    private final int maxChunkVertices;
+    private final Map<ShaderProgram, Batch> batches = new LinkedHashMap<>();
+    private int noOfObjects = 0;
+    private int noOfVisibleChunks = 0;
+
+    public StaticBatcher() {
+        this(DEFAULT_MAX_CHUNK_VERTICES);
+    }
+
+    /**
+     * @param maxChunkVertices largest number of vertices of a chunk
+     *                         (an object with more vertices gets a chunk of its own)
+     */
+    public StaticBatcher(int maxChunkVertices) {
+        this.maxChunkVertices = maxChunkVertices;
+    }
+
+    /**
+     * Adds the geometry of a static node. Its world matrix must be up to date
+     * and must not change afterwards.
+     * @param node					static scene node placing the object
+     * @param shaderProgram			program drawing the object
+     * @param modelMatrixUniform	mMatrix uniform of the program
+     * @param vertices				interleaved vertices (position, color, normal) in object coordinates
+     * @param indices				triangle strip indices, separated by Mesh.PRIMITIVE_RESTART_INDEX
+     */
+    public void add(SceneNode node, ShaderProgram shaderProgram, ShaderUniform modelMatrixUniform,
+                    float[] vertices, int[] indices) {
+        if (!node.isStatic()) {
+            System.err.println("Scene node " + node.getName() + " is not static and cannot be batched.");
+            return;
+        }
+        Batch batch = batches.get(shaderProgram);
+        if (batch == null) {
+            batch = new Batch(shaderProgram, modelMatrixUniform);
+            batches.put(shaderProgram, batch);
+        }
+        batch.objects.add(new StaticObject(node, vertices, indices));
+        noOfObjects++;
+    }
+
+    /**
+     * Transforms the added objects into world coordinates and uploads the chunks.
+     * Waits for shader programs still compiling (the chunks hold the attributes they read).
+     * @param gl OpenGL context
+     */
+    public void build(GL3 gl) {
+        List<StaticObject> objects = new ArrayList<>(noOfObjects);
+        for (Batch batch : batches.values())
+            objects.addAll(batch.objects);
+        // The objects are independent, the transform needs no OpenGL context
+        IntStream.range(0, objects.size()).parallel().forEach(i -> transform(objects.get(i)));
+
+        int noOfChunks = 0;
+        for (Batch batch : batches.values()) {
+            VertexLayout layout = new VertexLayout(VertexFormat.PACKED_FLOAT,
+                    batch.shaderProgram.getActiveAttributeMask());
+            split(gl, batch, layout, 0, batch.objects.size());
+            noOfChunks += batch.chunks.size();
+            // The world space copies are on the GPU now
+            batch.objects.clear();
+        }
+        System.out.println("Static batching: " + noOfObjects + " objects baked into " + noOfChunks + " chunks");
+    }
+
+    /**
+     * Transforms positions by the world matrix and normals by its inverse transpose.
+     */
+    private static void transform(StaticObject object) {
+        float[] m = object.node.getWorldMatrix();
+        float[] inverse = FloatUtil.invertMatrix(m, new float[16]);
+        if (inverse == null)
+            inverse = IDENTITY;
+        float[] source = object.vertices;
+        float[] target = source.clone();
+        float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        for (int offset = 0; offset < source.length; offset += Mesh.FLOATS_PER_VERTEX) {
+            float x = source[offset], y = source[offset + 1], z = source[offset + 2];
+            float nx = source[offset + 6], ny = source[offset + 7], nz = source[offset + 8];
+            for (int row = 0; row < 3; row++) {
+                float position = m[row] * x + m[4 + row] * y + m[8 + row] * z + m[12 + row];
+                target[offset + row] = position;
+                min[row] = Math.min(min[row], position);
+                max[row] = Math.max(max[row], position);
+            }
+            // Column major inverse, read transposed
+            float tnx = inverse[0] * nx + inverse[1] * ny + inverse[2] * nz;
+            float tny = inverse[4] * nx + inverse[5] * ny + inverse[6] * nz;
+            float tnz = inverse[8] * nx + inverse[9] * ny + inverse[10] * nz;
+            float length = (float) Math.sqrt(tnx * tnx + tny * tny + tnz * tnz);
+            if (length > 0f) {
+                target[offset + 6] = tnx / length;
+                target[offset + 7] = tny / length;
+                target[offset + 8] = tnz / length;
+            }
+        }
+        for (int i = 0; i < 3; i++)
+            object.center[i] = (min[i] + max[i]) * 0.5f;
+        object.worldVertices = target;
+    }
+
+    /**
+     * Splits the objects from index from to index to at the median of their centers
+     * along the longest axis until they fit into a chunk.
+     */
+    private void split(GL3 gl, Batch batch, VertexLayout layout, int from, int to) {
+        List<StaticObject> objects = batch.objects.subList(from, to);
+        int noOfVertices = 0;
+        for (StaticObject object : objects)
+            noOfVertices += object.worldVertices.length / Mesh.FLOATS_PER_VERTEX;
+        if (noOfVertices <= maxChunkVertices || objects.size() == 1) {
+            batch.chunks.add(makeChunk(gl, objects, layout, noOfVertices));
+            return;
+        }
+        float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        for (StaticObject object : objects) {
+            for (int i = 0; i < 3; i++) {
+                min[i] = Math.min(min[i], object.center[i]);
+                max[i] = Math.max(max[i], object.center[i]);
+            }
+        }
+        int axis = 0;
+        for (int i = 1; i < 3; i++)
+            if (max[i] - min[i] > max[axis] - min[axis])
+                axis = i;
+        int sortAxis = axis;
+        objects.sort(Comparator.comparingDouble(object -> object.center[sortAxis]));
+        int middle = (from + to) / 2;
+        split(gl, batch, layout, from, middle);
+        split(gl, batch, layout, middle, to);
+    }
+
+    /**
+     * Concatenates the world space vertices and the strips (separated by restart indices)
+     * of the objects into one mesh.
+     */
+    private static Mesh makeChunk(GL3 gl, List<StaticObject> objects, VertexLayout layout, int noOfVertices) {
+        int noOfIndices = objects.size() - 1;
+        for (StaticObject object : objects)
+            noOfIndices += object.indices.length;
+        float[] vertices = new float[noOfVertices * Mesh.FLOATS_PER_VERTEX];
+        int[] indices = new int[noOfIndices];
+        int vertexOffset = 0, indexOffset = 0;
+        for (StaticObject object : objects) {
+            if (indexOffset > 0)
+                indices[indexOffset++] = Mesh.PRIMITIVE_RESTART_INDEX;
+            int baseVertex = vertexOffset / Mesh.FLOATS_PER_VERTEX;
+            for (int index : object.indices)
+                indices[indexOffset++] = index == Mesh.PRIMITIVE_RESTART_INDEX ? index : index + baseVertex;
+            System.arraycopy(object.worldVertices, 0, vertices, vertexOffset, object.worldVertices.length);
+            vertexOffset += object.worldVertices.length;
+        }
+        return new Mesh(gl, null, vertices, layout, indices, GL.GL_TRIANGLE_STRIP);
+    }
+
+    /**
+     * Adds the chunks inside the view frustum to a render queue.
+     * Chunks of programs still compiling are skipped.
+     * @param renderQueue	queue of the frame
+     * @param viewFrustum	frustum of the frame
+     */
+    public void queueVisibleChunks(RenderQueue renderQueue, ViewFrustum viewFrustum) {
+        noOfVisibleChunks = 0;
+        for (Batch batch : batches.values()) {
+            if (!batch.shaderProgram.isReady())
+                continue;
+            for (Mesh chunk : batch.chunks) {
+                // The bounds of the chunks are in world coordinates
+                if (!viewFrustum.isVisible(IDENTITY, chunk))
+                    continue;
+                // Sorted by the center of the chunk, its model matrix has no translation
+                float[] min = chunk.getBoundsMin();
+                float[] max = chunk.getBoundsMax();
+                renderQueue.add(RenderQueue.PASS_OPAQUE, batch.shaderProgram, batch.modelMatrixUniform,
+                        chunk, IDENTITY, (min[0] + max[0]) * 0.5f, (min[1] + max[1]) * 0.5f,
+                        (min[2] + max[2]) * 0.5f);
+                noOfVisibleChunks++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of chunks built by build().
+     */
+    public int getNoOfChunks() {
+        int noOfChunks = 0;
+        for (Batch batch : batches.values())
+            noOfChunks += batch.chunks.size();
+        return noOfChunks;
+    }
+
+    /**
+     * Returns the number of chunks added by the last call of queueVisibleChunks().
+     */
+    public int getNoOfVisibleChunks() {
+        return noOfVisibleChunks;
+    }
+
+    /**
+     * Deletes the GPU buffers of all chunks.
+     * @param gl OpenGL context
+     */
+    public void dispose(GL3 gl) {
+        for (Batch batch : batches.values()) {
+            for (Mesh chunk : batch.chunks)
+                chunk.delete(gl);
+            batch.chunks.clear();
+        }
+        batches.clear();
+        noOfObjects = 0;
+    }
+}
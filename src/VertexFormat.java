@@ -0,0 +1,130 @@
+import com.jogamp.opengl.GL;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact encodings of the vertex attributes of the GPU meshes.
+ * The shape generators create interleaved float vertices (position, color, normal,
+ * Mesh.FLOATS_PER_VERTEX = 36 bytes). For the upload they are packed into
+ * (see VertexLayout for the attributes stored per vertex):
+ *  - position as three floats (PACKED_FLOAT, 12 bytes) or three half floats
+ *    plus two bytes padding (PACKED_HALF, 8 bytes)
+ *  - color as normalized GL_UNSIGNED_BYTE RGBA (alpha 1)
+ *  - octahedral encoded unit normal in x and y of a normalized
+ *    GL_INT_2_10_10_10_REV (z and w are 0)
+ * With all attributes PACKED_FLOAT uses 20 bytes per vertex, PACKED_HALF 16 bytes.
+ * Half floats have eleven significant bits, i.e. an error of at most 1/2048 of the
+ * distance from the origin (0.0005 units for a unit sphere). As the generators center
+ * the shapes in the origin, this is well below a pixel unless a shape covers thousands of pixels.
+ * A vertex shader reading the normal has to decode it, e.g.:
+ *   vec3 n = vec3(e.xy, 1.0 - abs(e.x) - abs(e.y));
+ *   float t = max(-n.z, 0.0);
+ *   n.xy += vec2(n.x >= 0.0 ? -t : t, n.y >= 0.0 ? -t : t);
+ *   n = normalize(n);
+ */
+public enum VertexFormat {
+    PACKED_FLOAT(3 * 4, GL.GL_FLOAT),
+    PACKED_HALF(4 * 2, GL.GL_HALF_FLOAT);
+
+    private final int positionSize;  // bytes of the position including padding
+    private final int positionType;
+
+    VertexFormat(int positionSize, int positionType) {
+        this.positionSize = positionSize;
+        this.positionType = positionType;
+    }
+
+    /**
+     * Returns the number of bytes of a position including padding.
+     */
+    int getPositionSize() {
+        return positionSize;
+    }
+
+    /**
+     * Returns the component type of the positions for glVertexAttribPointer.
+     */
+    int getPositionType() {
+        return positionType;
+    }
+
+    /**
+     * Appends the position of a vertex (three floats from vertices[offset]) to a buffer.
+     */
+    void putPosition(ByteBuffer buffer, float[] vertices, int offset) {
+        for (int i = 0; i < 3; i++) {
+            if (positionType == GL.GL_FLOAT)
+                buffer.putFloat(vertices[offset + i]);
+            else
+                buffer.putShort(toHalfFloat(vertices[offset + i]));
+        }
+        if (positionType == GL.GL_HALF_FLOAT)
+            buffer.putShort((short) 0);
+    }
+
+    /**
+     * Encodes a normal vector with the octahedral mapping: the vector is projected
+     * onto the octahedron |x| + |y| + |z| = 1, whose lower half is folded over
+     * the upper one, and x and y are stored as signed normalized 10 bit values.
+     */
+    static int encodeNormal(float x, float y, float z) {
+        float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if (length == 0f)
+            return 0;
+        float u = x / length;
+        float v = y / length;
+        if (z < 0f) {
+            float foldedU = (1f - Math.abs(v)) * (u >= 0f ? 1f : -1f);
+            v = (1f - Math.abs(u)) * (v >= 0f ? 1f : -1f);
+            u = foldedU;
+        }
+        return (toSignedNormalized10(v) << 10) | toSignedNormalized10(u);
+    }
+
+    /**
+     * Converts a value in [-1, 1] to a signed normalized 10 bit integer (two's complement).
+     */
+    private static int toSignedNormalized10(float value) {
+        int snorm = Math.round(Math.max(-1f, Math.min(1f, value)) * 511f);
+        return snorm & 0x3FF;
+    }
+
+    static byte toUnsignedByte(float value) {
+        return (byte) Math.round(Math.max(0f, Math.min(1f, value)) * 255f);
+    }
+
+    /**
+     * Converts a float to an IEEE 754 half float (round to nearest even,
+     * overflow to infinity, small values to subnormals or zero).
+     */
+    static short toHalfFloat(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent >= 0x1F) {
+            // infinity, NaN or too large
+            boolean isNaN = ((bits >>> 23) & 0xFF) == 0xFF && mantissa != 0;
+            return (short) (sign | 0x7C00 | (isNaN ? 0x200 : 0));
+        }
+        if (exponent <= 0) {
+            if (exponent < -10)
+                return (short) sign;
+            // subnormal: shift the mantissa including the implicit one
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int half = mantissa >> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (remainder > halfway || (remainder == halfway && (half & 1) != 0))
+                half++;
+            return (short) (sign | half);
+        }
+        int half = (exponent << 10) | (mantissa >> 13);
+        int remainder = mantissa & 0x1FFF;
+        // rounding may carry into the exponent, which is the correct result
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0))
+            half++;
+        return (short) (sign | half);
+    }
+}
@@ -0,0 +1,147 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GL3ES3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the vertex buffer of a mesh: the vertex format (see VertexFormat)
+ * and the vertex attributes stored per vertex.
+ * Attributes not read by a shader program can be left out (see forProgram()),
+ * so the vertex buffer holds only the streams the program consumes.
+ * The attributes are packed in this order:
+ *  - location 0: position (always stored)
+ *  - location 2: octahedral encoded normal, GL_INT_2_10_10_10_REV (4 bytes)
+ *  - location 1: color, normalized GL_UNSIGNED_BYTE RGBA (4 bytes)
+ */
+public class VertexLayout {
+
+    public static final int POSITION_LOCATION = 0;
+    public static final int COLOR_LOCATION = 1;
+    public static final int NORMAL_LOCATION = 2;
+    // Bit mask of all per-vertex attributes of the shape generators
+    public static final int ALL_ATTRIBUTES =
+            (1 << POSITION_LOCATION) | (1 << COLOR_LOCATION) | (1 << NORMAL_LOCATION);
+
+    // All attributes in the default vertex format
+    public static final VertexLayout DEFAULT = new VertexLayout(Mesh.DEFAULT_VERTEX_FORMAT, ALL_ATTRIBUTES);
+
+    private final VertexFormat format;
+    private final int attributeMask;
+    private final int normalOffset;  // negative if not stored
+    private final int colorOffset;   // negative if not stored
+    private final int stride;
+
+    /**
+     * @param format		encoding of the positions
+     * @param attributeMask	bit n set for attribute location n, locations above 2 are ignored
+     */
+    public VertexLayout(VertexFormat format, int attributeMask) {
+        this.format = format;
+        this.attributeMask = (attributeMask & ALL_ATTRIBUTES) | (1 << POSITION_LOCATION);
+        int offset = format.getPositionSize();
+        normalOffset = hasAttribute(NORMAL_LOCATION) ? offset : -1;
+        if (normalOffset >= 0)
+            offset += 4;
+        colorOffset = hasAttribute(COLOR_LOCATION) ? offset : -1;
+        if (colorOffset >= 0)
+            offset += 4;
+        stride = offset;
+    }
+
+    /**
+     * Returns the layout with the attributes read by a shader program in the default
+     * vertex format. Waits for the program if it is still compiling.
+     * @param shaderProgram shader program drawing the mesh
+     */
+    public static VertexLayout forProgram(ShaderProgram shaderProgram) {
+        return new VertexLayout(Mesh.DEFAULT_VERTEX_FORMAT, shaderProgram.getActiveAttributeMask());
+    }
+
+    public VertexFormat getFormat() {
+        return format;
+    }
+
+    public int getAttributeMask() {
+        return attributeMask;
+    }
+
+    public boolean hasAttribute(int location) {
+        return (attributeMask & (1 << location)) != 0;
+    }
+
+    /**
+     * Returns the number of bytes per vertex.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Packs interleaved float vertices of the shape generators (position, color, normal).
+     * @param vertices interleaved vertices with Mesh.FLOATS_PER_VERTEX floats each
+     * @return buffer in native byte order, ready for glBufferData
+     */
+    public ByteBuffer pack(float[] vertices) {
+        int noOfVertices = vertices.length / Mesh.FLOATS_PER_VERTEX;
+        ByteBuffer packed = ByteBuffer.allocateDirect(noOfVertices * stride).order(ByteOrder.nativeOrder());
+        for (int offset = 0; offset < vertices.length; offset += Mesh.FLOATS_PER_VERTEX) {
+            format.putPosition(packed, vertices, offset);
+            if (normalOffset >= 0)
+                packed.putInt(VertexFormat.encodeNormal(vertices[offset + 6], vertices[offset + 7],
+                        vertices[offset + 8]));
+            if (colorOffset >= 0) {
+                for (int i = 0; i < 3; i++)
+                    packed.put(VertexFormat.toUnsignedByte(vertices[offset + 3 + i]));
+                packed.put((byte) 0xFF);
+            }
+        }
+        packed.flip();
+        return packed;
+    }
+
+    /**
+     * Defines the stored per-vertex attributes in the currently bound array buffer
+     * and disables the others.
+     * @param gl OpenGL context
+     */
+    public void setupAttributes(GL3 gl) {
+        // Pointer for the vertex shader to the position information per vertex
+        gl.glEnableVertexAttribArray(POSITION_LOCATION);
+        gl.glVertexAttribPointer(POSITION_LOCATION, 3, format.getPositionType(), false, stride, 0);
+        // Pointer for the vertex shader to the color information per vertex
+        if (colorOffset >= 0) {
+            gl.glEnableVertexAttribArray(COLOR_LOCATION);
+            gl.glVertexAttribPointer(COLOR_LOCATION, 4, GL.GL_UNSIGNED_BYTE, true, stride, colorOffset);
+        } else {
+            gl.glDisableVertexAttribArray(COLOR_LOCATION);
+        }
+        // Pointer for the vertex shader to the (octahedral encoded) normal per vertex
+        if (normalOffset >= 0) {
+            gl.glEnableVertexAttribArray(NORMAL_LOCATION);
+            gl.glVertexAttribPointer(NORMAL_LOCATION, 4, GL3ES3.GL_INT_2_10_10_10_REV, true, stride, normalOffset);
+        } else {
+            gl.glDisableVertexAttribArray(NORMAL_LOCATION);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof VertexLayout && format == ((VertexLayout) other).format
+                && attributeMask == ((VertexLayout) other).attributeMask;
+    }
+
+    @Override
+    public int hashCode() {
+        return format.hashCode() * 31 + attributeMask;
+    }
+
+    /**
+     * Returns the format and the stored attributes, e.g. "PACKED_HALF position color".
+     */
+    @Override
+    public String toString() {
+        return format + " position" + (colorOffset >= 0 ? " color" : "") + (normalOffset >= 0 ? " normal" : "");
+    }
+}
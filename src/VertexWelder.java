@@ -0,0 +1,121 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collapses identical vertices of the interleaved vertex arrays created by the shape
+ * generators and remaps the indices to the remaining vertices.
+ * Vertices are compared component by component: with epsilon 0 they must be bit identical
+ * (except for the sign of zero), otherwise every component is snapped to a grid with
+ * cell size epsilon and vertices in the same cells are collapsed. Values close to a cell
+ * border may end up in different cells, so a few epsilon-equal vertices can survive.
+ * Vertices not referenced by any index are removed, restart indices
+ * (Mesh.PRIMITIVE_RESTART_INDEX) are kept.
+ * The first occurrence of a vertex is kept, so the order of the vertices is preserved.
+ */
+public class VertexWelder {
+
+    /**
+     * Vertices and indices after welding.
+     */
+    public static class Result {
+        private final float[] vertices;
+        private final int[] indices;
+        private final int noOfInputVertices;
+        private final int noOfVertices;
+
+        private Result(float[] vertices, int[] indices, int noOfInputVertices, int noOfVertices) {
+            this.vertices = vertices;
+            this.indices = indices;
+            this.noOfInputVertices = noOfInputVertices;
+            this.noOfVertices = noOfVertices;
+        }
+
+        public float[] getVertices() {
+            return vertices;
+        }
+
+        public int[] getIndices() {
+            return indices;
+        }
+
+        public int getNoOfInputVertices() {
+            return noOfInputVertices;
+        }
+
+        public int getNoOfVertices() {
+            return noOfVertices;
+        }
+    }
+
+    /**
+     * Key of a vertex in the hash map: its (snapped) components as integers.
+     */
+    private static class VertexKey {
+        private final int[] components;
+        private final int hash;
+
+        private VertexKey(int[] components) {
+            this.components = components;
+            this.hash = Arrays.hashCode(components);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof VertexKey && Arrays.equals(components, ((VertexKey) other).components);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Welds the vertices.
+     * @param vertices			interleaved vertices
+     * @param indices			indices into the vertex array
+     * @param floatsPerVertex	number of floats per vertex (e.g. Mesh.FLOATS_PER_VERTEX)
+     * @param epsilon			largest difference of equal components, 0 for bit identical vertices
+     * @return new vertex and index arrays
+     */
+    public static Result weld(float[] vertices, int[] indices, int floatsPerVertex, float epsilon) {
+        int noOfInputVertices = vertices.length / floatsPerVertex;
+        int[] remap = new int[noOfInputVertices];
+        Arrays.fill(remap, -1);
+        Map<VertexKey, Integer> uniqueVertices = new HashMap<>();
+        float[] welded = new float[vertices.length];
+        int noOfVertices = 0;
+        int[] weldedIndices = new int[indices.length];
+
+        for (int i = 0; i < indices.length; i++) {
+            int vertex = indices[i];
+            if (vertex == Mesh.PRIMITIVE_RESTART_INDEX) {
+                weldedIndices[i] = vertex;
+                continue;
+            }
+            if (remap[vertex] < 0) {
+                int[] components = new int[floatsPerVertex];
+                for (int component = 0; component < floatsPerVertex; component++) {
+                    float value = vertices[vertex * floatsPerVertex + component];
+                    if (epsilon > 0f)
+                        components[component] = Math.round(value / epsilon);
+                    else
+                        // + 0f turns -0 into 0
+                        components[component] = Float.floatToIntBits(value + 0f);
+                }
+                Integer existing = uniqueVertices.putIfAbsent(new VertexKey(components), noOfVertices);
+                if (existing == null) {
+                    System.arraycopy(vertices, vertex * floatsPerVertex, welded, noOfVertices * floatsPerVertex,
+                            floatsPerVertex);
+                    remap[vertex] = noOfVertices++;
+                } else {
+                    remap[vertex] = existing;
+                }
+            }
+            weldedIndices[i] = remap[vertex];
+        }
+        return new Result(Arrays.copyOf(welded, noOfVertices * floatsPerVertex), weldedIndices,
+                noOfInputVertices, noOfVertices);
+    }
+}
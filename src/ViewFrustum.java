@@ -0,0 +1,119 @@
+import com.jogamp.opengl.math.FloatUtil;
+
+/**
+ * The six planes of the view frustum in world coordinates, extracted from the
+ * product of projection and view matrix (Gribb/Hartmann).
+ * Used for skipping objects whose bounding volume lies completely outside.
+ * All matrices are column major 4x4 matrices as used by OpenGL and PMVMatrix.
+ */
+public class ViewFrustum {
+
+    // Results of classifyBox()
+    public static final int OUTSIDE = 0;
+    public static final int INTERSECTING = 1;
+    public static final int INSIDE = 2;
+
+    // a, b, c, d per plane (normalized, normal pointing into the frustum):
+    // left, right, bottom, top, near, far
+    private final float[] planes = new float[6 * 4];
+    private final float[] viewProjectionMatrix = new float[16];
+
+    // Bounding volume of the last test in world coordinates
+    private final float[] center = new float[3];
+    private final float[] extent = new float[3];
+
+    /**
+     * Recomputes the planes. To be called once per frame after the camera has been set.
+     * @param projectionMatrix	projection matrix
+     * @param viewMatrix		view matrix
+     */
+    public void update(float[] projectionMatrix, float[] viewMatrix) {
+        float[] m = FloatUtil.multMatrix(projectionMatrix, viewMatrix, viewProjectionMatrix);
+        for (int i = 0; i < 3; i++) {
+            // plane 2i: row 3 + row i, plane 2i+1: row 3 - row i
+            for (int sign = 0; sign < 2; sign++) {
+                int plane = (2 * i + sign) * 4;
+                float s = (sign == 0) ? 1f : -1f;
+                for (int column = 0; column < 4; column++)
+                    planes[plane + column] = m[column * 4 + 3] + s * m[column * 4 + i];
+                float length = (float) Math.sqrt(planes[plane] * planes[plane]
+                        + planes[plane + 1] * planes[plane + 1] + planes[plane + 2] * planes[plane + 2]);
+                for (int k = 0; k < 4; k++)
+                    planes[plane + k] /= length;
+            }
+        }
+    }
+
+    /**
+     * Returns the planes as a, b, c, d per plane (left, right, bottom, top, near, far),
+     * e.g. for uploading them to a shader. The array is updated by update().
+     */
+    public float[] getPlanes() {
+        return planes;
+    }
+
+    /**
+     * Tests the bounds of a mesh placed by a model matrix.
+     * First the bounding sphere is tested, the axis aligned box
+     * only if the sphere intersects a plane.
+     * @param modelMatrix	model matrix of the object
+     * @param mesh			mesh with bounds in object coordinates
+     * @return false if the object lies completely outside of the frustum
+     */
+    public boolean isVisible(float[] modelMatrix, Mesh mesh) {
+        float[] min = mesh.getBoundsMin();
+        float[] max = mesh.getBoundsMax();
+        for (int i = 0; i < 3; i++) {
+            center[i] = modelMatrix[12 + i];
+            extent[i] = 0f;
+        }
+        float maxScale = 0f;
+        for (int column = 0; column < 3; column++) {
+            float c = (min[column] + max[column]) * 0.5f;
+            float e = (max[column] - min[column]) * 0.5f;
+            float scale = 0f;
+            for (int row = 0; row < 3; row++) {
+                float m = modelMatrix[column * 4 + row];
+                center[row] += m * c;
+                // extent of the transformed box (Arvo)
+                extent[row] += Math.abs(m) * e;
+                scale += m * m;
+            }
+            maxScale = Math.max(maxScale, scale);
+        }
+        float radius = mesh.getBoundingRadius() * (float) Math.sqrt(maxScale);
+
+        boolean intersecting = false;
+        for (int plane = 0; plane < planes.length; plane += 4) {
+            float distance = planes[plane] * center[0] + planes[plane + 1] * center[1]
+                    + planes[plane + 2] * center[2] + planes[plane + 3];
+            if (distance < -radius)
+                return false;
+            if (distance < radius)
+                intersecting = true;
+        }
+        if (!intersecting)
+            return true;
+        return classifyBox(center[0], center[1], center[2], extent[0], extent[1], extent[2]) != OUTSIDE;
+    }
+
+    /**
+     * Classifies an axis aligned box in world coordinates.
+     * @return OUTSIDE, INTERSECTING or INSIDE
+     */
+    public int classifyBox(float centerX, float centerY, float centerZ,
+                           float extentX, float extentY, float extentZ) {
+        int result = INSIDE;
+        for (int plane = 0; plane < planes.length; plane += 4) {
+            float distance = planes[plane] * centerX + planes[plane + 1] * centerY
+                    + planes[plane + 2] * centerZ + planes[plane + 3];
+            float projectedExtent = Math.abs(planes[plane]) * extentX
+                    + Math.abs(planes[plane + 1]) * extentY + Math.abs(planes[plane + 2]) * extentZ;
+            if (distance < -projectedExtent)
+                return OUTSIDE;
+            if (distance < projectedExtent)
+                result = INTERSECTING;
+        }
+        return result;
+    }
+}